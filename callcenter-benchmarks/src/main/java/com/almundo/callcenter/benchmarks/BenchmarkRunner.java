@@ -0,0 +1,35 @@
+package com.almundo.callcenter.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Main class of the benchmarks jar, it runs the benchmarks with the GC profiler and saves the results as JSON in the results folder, named after the release being measured.
+ * Any JMH command line option can be passed to override the defaults (for example a benchmark name to run only that one)
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        String release = System.getProperty("release", "1.0-SNAPSHOT");
+        File results = new File("results");
+        if (!results.isDirectory() && !results.mkdirs()) {
+            throw new IllegalStateException("Unable to create folder " + results.getAbsolutePath());
+        }
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(new File(results, "jmh-" + release + ".json").getPath())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,56 @@
+package com.almundo.callcenter.benchmarks;
+
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.process.Dispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Helpers shared by the benchmarks
+ */
+final class BenchmarkSupport {
+
+    /**
+     * JVM arguments for the forked benchmark JVMs, the per call INFO logs are disabled so the benchmarks measure the dispatcher and not stderr
+     */
+    static final String QUIET_LOGS = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Creates employees following the default proportion of the app (half Operators, a third Supervisors and the rest Directors)
+     *
+     * @param count     the number of employees
+     * @param busyRatio the fraction of employees that will be created as busy, taken from the lower tiers first
+     * @return the employees
+     */
+    static List<Employee> employees(int count, double busyRatio) {
+        List<Employee> employees = new ArrayList<>(count);
+        int busy = (int) (count * busyRatio);
+        for (int i = 0; i < count; i++) {
+            EmployeeType type;
+            if (i < count / 2) {
+                type = EmployeeType.OPERADOR;
+            } else if (i < count * 5 / 6) {
+                type = EmployeeType.SUPERVISOR;
+            } else {
+                type = EmployeeType.DIRECTOR;
+            }
+            employees.add(new Employee(i + type.name(), type, i < busy));
+        }
+        return employees;
+    }
+
+    /**
+     * Waits until the dispatcher has answered the expected number of calls
+     */
+    static void awaitAnswered(Dispatcher dispatcher, int expected) {
+        while (dispatcher.getCallsAnswered() < expected) {
+            LockSupport.parkNanos(1_000L);
+        }
+    }
+}
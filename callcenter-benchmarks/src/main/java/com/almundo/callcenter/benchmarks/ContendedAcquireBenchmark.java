@@ -0,0 +1,84 @@
+package com.almundo.callcenter.benchmarks;
+
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.process.EmployeePool;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of taking an idle employee and returning it to the pool from 1, 2, 4 and 8 threads at the same time, the lock-free pool should scale with the threads up to the number of cores instead of serializing them on a lock.
+ * The staffChanges group keeps a thread changing the type of the employees while the other ones take them, the changes of the staff take the pool lock but the routing threads don't wait for it
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.QUIET_LOGS)
+@State(Scope.Benchmark)
+public class ContendedAcquireBenchmark {
+
+    private static final EmployeeType[] TYPES = EmployeeType.values();
+
+    @Param({"1000", "100000"})
+    public int employees;
+
+    private List<Employee> staff;
+    private EmployeePool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        staff = BenchmarkSupport.employees(employees, 0.5);
+        pool = new EmployeePool(staff);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Employee acquireRelease1() {
+        return acquireRelease();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public Employee acquireRelease2() {
+        return acquireRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Employee acquireRelease4() {
+        return acquireRelease();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Employee acquireRelease8() {
+        return acquireRelease();
+    }
+
+    @Benchmark
+    @Group("staffChanges")
+    @GroupThreads(3)
+    public Employee routing() {
+        return acquireRelease();
+    }
+
+    @Benchmark
+    @Group("staffChanges")
+    @GroupThreads(1)
+    public void changeType() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        pool.changeType(staff.get(random.nextInt(staff.size())), TYPES[random.nextInt(TYPES.length)]);
+    }
+
+    private Employee acquireRelease() {
+        Employee employee = pool.tryAcquire();
+        if (employee != null) {
+            pool.release(employee);
+        }
+        return employee;
+    }
+}
@@ -0,0 +1,57 @@
+package com.almundo.callcenter.benchmarks;
+
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.Dispatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end throughput of dispatchCall with calls that last zero seconds, each invocation dispatches a burst of calls and waits until all of them are answered.
+ * Run it with -prof gc to get the allocation rate per dispatched call
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.QUIET_LOGS)
+@State(Scope.Benchmark)
+public class DispatchThroughputBenchmark {
+
+    private static final int CALLS_PER_INVOCATION = 1_000;
+
+    @Param({"BLOCKING", "EVENT"})
+    public DispatchMode mode;
+
+    @Param({"10", "1000"})
+    public int employees;
+
+    private Dispatcher dispatcher;
+    private int dispatched;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dispatcher = new Dispatcher(mode);
+        dispatcher.setEmployees(BenchmarkSupport.employees(employees, 0));
+        dispatcher.setSemaphoreCount(employees);
+        dispatcher.setCallDurations(() -> 0);
+        dispatched = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_INVOCATION)
+    public int dispatchBurst() {
+        for (int i = 0; i < CALLS_PER_INVOCATION; i++) {
+            dispatcher.dispatchCall(Integer.toString(dispatched + i));
+        }
+        dispatched += CALLS_PER_INVOCATION;
+        BenchmarkSupport.awaitAnswered(dispatcher, dispatched);
+        return dispatched;
+    }
+}
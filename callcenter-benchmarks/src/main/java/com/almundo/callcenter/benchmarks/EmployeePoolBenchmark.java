@@ -0,0 +1,51 @@
+package com.almundo.callcenter.benchmarks;
+
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.process.EmployeePool;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of taking an idle employee straight from the EmployeePool and returning it, for different number of employees and ratio of busy employees, with the employee table on the heap and off the heap.
+ * It measures the pool alone, without the queue and the locks of the dispatcher that DispatchThroughputBenchmark includes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.QUIET_LOGS)
+@State(Scope.Benchmark)
+public class EmployeePoolBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int employees;
+
+    @Param({"0.0", "0.5", "0.9"})
+    public double busyRatio;
+
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    private EmployeePool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new EmployeePool(BenchmarkSupport.employees(employees, busyRatio), offHeap);
+    }
+
+    @Benchmark
+    public Employee findAndRelease() {
+        Employee employee = pool.tryAcquire();
+        if (employee != null) {
+            pool.release(employee);
+        }
+        return employee;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Employee findAndReleaseContended() {
+        return findAndRelease();
+    }
+}
@@ -0,0 +1,92 @@
+package com.almundo.callcenter.benchmarks;
+
+import com.almundo.callcenter.ingest.IngestionServer;
+import com.almundo.callcenter.ingest.MessageFraming;
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.Dispatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Call arrivals per second received by the ingestion server from a single client over loopback, each invocation sends a burst of messages and reads all their acks.
+ * The dispatcher answers the calls in zero seconds so the benchmark measures the decoding and the dispatching of the arrivals
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.QUIET_LOGS)
+@State(Scope.Benchmark)
+public class IngestionThroughputBenchmark {
+
+    private static final int CALLS_PER_INVOCATION = 1_000;
+
+    @Param({"NEWLINE", "LENGTH_PREFIXED"})
+    public MessageFraming framing;
+
+    private Dispatcher dispatcher;
+    private IngestionServer server;
+    private SocketChannel client;
+    private ByteBuffer messages;
+    private ByteBuffer acks;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dispatcher = new Dispatcher(DispatchMode.EVENT);
+        dispatcher.setEmployees(BenchmarkSupport.employees(1000, 0));
+        dispatcher.setSemaphoreCount(1000);
+        dispatcher.setCallDurations(() -> 0);
+        server = new IngestionServer(dispatcher, 0, framing);
+        client = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+
+        //The same burst of messages is sent on every invocation
+        messages = ByteBuffer.allocate(CALLS_PER_INVOCATION * 32);
+        for (int i = 0; i < CALLS_PER_INVOCATION; i++) {
+            byte[] callId = String.format("call%06d", i).getBytes(StandardCharsets.US_ASCII);
+            if (framing == MessageFraming.NEWLINE) {
+                messages.put(callId).put((byte) '\n');
+            } else {
+                messages.putInt(4 + callId.length).putInt(0).put(callId);
+            }
+        }
+        messages.flip();
+        acks = ByteBuffer.allocate(CALLS_PER_INVOCATION * 32);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_INVOCATION)
+    public int sendBurst() throws IOException {
+        messages.rewind();
+        while (messages.hasRemaining()) {
+            client.write(messages);
+        }
+        //Each NEWLINE ack ends with a line break and each LENGTH_PREFIXED ack is one byte
+        int received = 0;
+        acks.clear();
+        while (received < CALLS_PER_INVOCATION) {
+            int position = acks.position();
+            client.read(acks);
+            for (int i = position; i < acks.position(); i++) {
+                if (framing == MessageFraming.LENGTH_PREFIXED || acks.get(i) == '\n') {
+                    received++;
+                }
+            }
+        }
+        return acks.position();
+    }
+}
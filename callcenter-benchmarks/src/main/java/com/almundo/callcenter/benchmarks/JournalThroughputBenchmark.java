@@ -0,0 +1,73 @@
+package com.almundo.callcenter.benchmarks;
+
+import com.almundo.callcenter.journal.MappedCallJournal;
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.Dispatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of dispatchCall with calls that last zero seconds with and without a journal, each invocation dispatches a burst of calls and waits until all of them are answered.
+ * With the journal every call writes its events to the memory mapped segments from the writer thread of the journal, so the difference is the cost of making the calls durable
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.QUIET_LOGS)
+@State(Scope.Benchmark)
+public class JournalThroughputBenchmark {
+
+    private static final int CALLS_PER_INVOCATION = 1_000;
+
+    @Param({"false", "true"})
+    public boolean journaled;
+
+    private Path folder;
+    private MappedCallJournal journal;
+    private Dispatcher dispatcher;
+    private int dispatched;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dispatcher = new Dispatcher(DispatchMode.EVENT);
+        dispatcher.setEmployees(BenchmarkSupport.employees(1000, 0));
+        dispatcher.setSemaphoreCount(1000);
+        dispatcher.setCallDurations(() -> 0);
+        if (journaled) {
+            folder = Files.createTempDirectory("journal");
+            journal = new MappedCallJournal(folder);
+            dispatcher.setJournal(journal);
+        }
+        dispatched = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        if (journaled) {
+            journal.close();
+            try (Stream<Path> files = Files.walk(folder)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_INVOCATION)
+    public int dispatchBurst() {
+        for (int i = 0; i < CALLS_PER_INVOCATION; i++) {
+            dispatcher.dispatchCall(Integer.toString(dispatched + i));
+        }
+        dispatched += CALLS_PER_INVOCATION;
+        BenchmarkSupport.awaitAnswered(dispatcher, dispatched);
+        return dispatched;
+    }
+}
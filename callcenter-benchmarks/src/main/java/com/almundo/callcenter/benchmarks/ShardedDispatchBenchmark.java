@@ -0,0 +1,65 @@
+package com.almundo.callcenter.benchmarks;
+
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.ShardedDispatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Throughput of the sharded dispatcher with all the cores dispatching calls that last zero seconds, comparing it with a single shard shows how the dispatching scales.
+ * Each invocation dispatches a burst of calls from every benchmark thread and waits until all the calls dispatched so far are answered
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.QUIET_LOGS)
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class ShardedDispatchBenchmark {
+
+    private static final int CALLS_PER_INVOCATION = 1_000;
+
+    @Param({"BLOCKING", "EVENT"})
+    public DispatchMode mode;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"1000"})
+    public int employees;
+
+    private ShardedDispatcher dispatcher;
+    private AtomicInteger dispatched;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dispatcher = new ShardedDispatcher(shards, mode);
+        dispatcher.setEmployees(BenchmarkSupport.employees(employees, 0));
+        dispatcher.setCallDurations(() -> 0);
+        dispatched = new AtomicInteger(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_INVOCATION)
+    public int dispatchBurst() {
+        String prefix = Thread.currentThread().getName() + '-';
+        for (int i = 0; i < CALLS_PER_INVOCATION; i++) {
+            dispatcher.dispatchCall(prefix + i);
+        }
+        int expected = dispatched.addAndGet(CALLS_PER_INVOCATION);
+        while (dispatcher.getCallsAnswered() < expected) {
+            LockSupport.parkNanos(1_000L);
+        }
+        return expected;
+    }
+}
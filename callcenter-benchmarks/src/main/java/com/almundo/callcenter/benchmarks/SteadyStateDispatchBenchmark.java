@@ -0,0 +1,65 @@
+package com.almundo.callcenter.benchmarks;
+
+import com.almundo.callcenter.clock.SimulatedCallClock;
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.Dispatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the whole life of a call in steady state: each operation dispatches a call in EVENT mode and runs the simulated clock until the call ends.
+ * Run it with -prof gc, the gc.alloc.rate.norm of the NUMERIC ids shows the bytes allocated per call by the dispatch path, which should be close to zero
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.QUIET_LOGS)
+@State(Scope.Thread)
+public class SteadyStateDispatchBenchmark {
+
+    /**
+     * Number of string ids created up front, so the benchmark itself doesn't allocate them
+     */
+    private static final int STRING_IDS = 1_024;
+
+    @Param({"NUMERIC", "STRING"})
+    public String callIds;
+
+    private SimulatedCallClock clock;
+    private Dispatcher dispatcher;
+    private String[] stringIds;
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        clock = new SimulatedCallClock();
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        dispatcher.setEmployees(BenchmarkSupport.employees(10, 0));
+        dispatcher.setSemaphoreCount(10);
+        dispatcher.setCallDurations(() -> 1);
+        stringIds = new String[STRING_IDS];
+        for (int i = 0; i < STRING_IDS; i++) {
+            stringIds[i] = Integer.toString(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+    }
+
+    @Benchmark
+    public long dispatchAndAnswer() {
+        long id = nextId++;
+        if ("NUMERIC".equals(callIds)) {
+            dispatcher.dispatchCall(id);
+        } else {
+            dispatcher.dispatchCall(stringIds[(int) (id % STRING_IDS)]);
+        }
+        clock.runAll();
+        return dispatcher.getCallsAnswered();
+    }
+}
@@ -0,0 +1,182 @@
+package com.almundo.callcenter.stress;
+
+import com.almundo.callcenter.journal.RecoveredCalls;
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.DispatchResult;
+import com.almundo.callcenter.process.Dispatcher;
+import com.almundo.callcenter.process.OverflowPolicy;
+import com.almundo.callcenter.process.ShutdownMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stress scenario: driver threads dispatch calls of zero seconds to a dispatcher while a reconfigurer changes its staff and limits, and the checker verifies the invariants on every event.
+ * Each driver dispatches its own share of the ids, one by one or in batches, and the queue blocks the drivers when it's full so every call is admitted unless the dispatcher stalls.
+ * A run is bounded by a deadline, the drivers are stopped once it passes and the dispatcher is drained until it, so a lost wakeup or a deadlock fails the run instead of hanging it
+ */
+final class DispatcherStress {
+
+    /**
+     * Max capacity of the queue, the reconfigurer resizes it between one and this
+     */
+    static final int QUEUE_CAPACITY = 4_096;
+
+    /**
+     * Employees of the scenarios, with the default proportion of the app
+     */
+    private static final int OPERATORS = 8;
+    private static final int SUPERVISORS = 5;
+    private static final int DIRECTORS = 3;
+
+    /**
+     * Concurrency limit of the scenarios at the start and at the end, every employee
+     */
+    static final int EMPLOYEES = OPERATORS + SUPERVISORS + DIRECTORS;
+
+    /**
+     * Max time a driver waits for room in the queue, the queue of a dispatcher that keeps answering calls is never full that long
+     */
+    private static final long BLOCK_TIMEOUT_SECONDS = 1;
+
+    private final String name;
+    private final DispatchMode mode;
+    private final int drivers;
+
+    /**
+     * Calls dispatched together with dispatchCalls, one to dispatch them one by one
+     */
+    private final int batchSize;
+
+    /**
+     * Duration of the calls in seconds, the calls of a BLOCKING scenario last a microsecond per second so they are answered at the same time by the threads of the executor
+     */
+    private final int callDuration;
+
+    /**
+     * @param name         the name of the scenario in the report
+     * @param mode         the dispatch mode
+     * @param drivers      the number of threads dispatching calls
+     * @param batchSize    the calls dispatched together, one to dispatch them one by one
+     * @param callDuration the duration of the calls, zero unless the mode is BLOCKING
+     */
+    DispatcherStress(String name, DispatchMode mode, int drivers, int batchSize, int callDuration) {
+        if (callDuration != 0 && mode != DispatchMode.BLOCKING) {
+            throw new IllegalArgumentException("Only the calls of a BLOCKING scenario can last, duration: " + callDuration);
+        }
+        this.name = name;
+        this.mode = mode;
+        this.drivers = drivers;
+        this.batchSize = batchSize;
+        this.callDuration = callDuration;
+    }
+
+    /**
+     * The scenarios run by the stress jar and by the tests of the module: one by one and batched calls in EVENT mode, and calls that last in BLOCKING mode
+     *
+     * @param drivers the number of threads dispatching calls
+     * @return the scenarios
+     */
+    static DispatcherStress[] scenarios(int drivers) {
+        return new DispatcherStress[]{
+                new DispatcherStress("event", DispatchMode.EVENT, drivers, 1, 0),
+                new DispatcherStress("event-batch", DispatchMode.EVENT, drivers, 64, 0),
+                new DispatcherStress("blocking", DispatchMode.BLOCKING, drivers, 1, 50)
+        };
+    }
+
+    String getName() {
+        return name;
+    }
+
+    DispatchMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Runs the scenario until the dispatcher terminated
+     *
+     * @param calls   the number of calls
+     * @param seed    the seed of the changes of the reconfigurer
+     * @param timeout max time of the run
+     * @param unit    the unit of the timeout
+     * @return the result of the checks
+     */
+    StressResult run(int calls, long seed, long timeout, TimeUnit unit) throws InterruptedException {
+        List<Employee> employees = new ArrayList<>();
+        for (int i = 0; i < EMPLOYEES; i++) {
+            EmployeeType type = i < OPERATORS ? EmployeeType.OPERADOR : i < OPERATORS + SUPERVISORS ? EmployeeType.SUPERVISOR : EmployeeType.DIRECTOR;
+            employees.add(new Employee(i + type.name(), type));
+        }
+        ShortCallClock clock = new ShortCallClock();
+        Dispatcher dispatcher = new Dispatcher(mode, clock);
+        InvariantChecker checker = new InvariantChecker(employees, calls, employees.size());
+        dispatcher.setEventSink(checker);
+        dispatcher.setCallDurations(() -> callDuration);
+        dispatcher.setEmployees(employees);
+        dispatcher.setSemaphoreCount(employees.size());
+        dispatcher.setQueueCapacity(QUEUE_CAPACITY);
+        dispatcher.setOverflowPolicy(OverflowPolicy.BLOCK, BLOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        AtomicInteger rejected = new AtomicInteger();
+        Reconfigurer reconfigurer = new Reconfigurer(dispatcher, checker, employees, seed);
+        Thread reconfigurerThread = new Thread(reconfigurer, "stress-reconfigurer");
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        Thread[] driverThreads = new Thread[drivers];
+        for (int d = 0; d < drivers; d++) {
+            int first = d;
+            driverThreads[d] = new Thread(() -> drive(dispatcher, first, calls, rejected, deadline), "stress-driver-" + d);
+        }
+
+        reconfigurerThread.start();
+        for (Thread driver : driverThreads) {
+            driver.start();
+        }
+        for (Thread driver : driverThreads) {
+            //A driver blocked on the queue of a stalled dispatcher is interrupted at the deadline, the calls it was offering are rejected
+            TimeUnit.NANOSECONDS.timedJoin(driver, Math.max(1, deadline - System.nanoTime()));
+            driver.interrupt();
+            driver.join();
+        }
+        reconfigurer.stop(reconfigurerThread);
+        RecoveredCalls unfinished = dispatcher.shutdown(ShutdownMode.DRAIN, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        long elapsed = System.nanoTime() - start;
+        clock.shutdown();
+
+        boolean terminated = unfinished.getPendingCalls().isEmpty() && elapsed < unit.toNanos(timeout);
+        long notAnsweredOnce = checker.verifyAnswered(terminated);
+        return new StressResult(name, calls, rejected.get(), elapsed, terminated, reconfigurer.getChanges(), checker.getMaxActive(),
+                checker.getDoubleBookings(), checker.getLimitViolations(), notAnsweredOnce, checker.getFirstViolation());
+    }
+
+    /**
+     * Dispatches the ids from first to the number of calls, taking one of each drivers ids, until the deadline
+     */
+    private void drive(Dispatcher dispatcher, int first, int calls, AtomicInteger rejected, long deadline) {
+        if (batchSize == 1) {
+            for (int id = first; id < calls && System.nanoTime() < deadline; id += drivers) {
+                if (dispatcher.dispatchCall(id) == DispatchResult.REJECTED) {
+                    rejected.incrementAndGet();
+                }
+            }
+            return;
+        }
+        List<String> batch = new ArrayList<>(batchSize);
+        for (int id = first; id < calls && System.nanoTime() < deadline; id += drivers * batchSize) {
+            batch.clear();
+            for (int next = id; next < calls && next < id + drivers * batchSize; next += drivers) {
+                batch.add(Integer.toString(next));
+            }
+            for (DispatchResult result : dispatcher.dispatchCalls(batch)) {
+                if (result == DispatchResult.REJECTED) {
+                    rejected.incrementAndGet();
+                }
+            }
+        }
+    }
+}
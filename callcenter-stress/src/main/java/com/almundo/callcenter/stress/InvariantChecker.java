@@ -0,0 +1,171 @@
+package com.almundo.callcenter.stress;
+
+import com.almundo.callcenter.journal.CallEventSink;
+import com.almundo.callcenter.journal.CallEventType;
+import com.almundo.callcenter.model.Employee;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Event sink of the dispatcher under stress that checks the invariants on each event, in the thread that records it.
+ * The dispatcher records ASSIGNED after taking the employee and the lock of a call and COMPLETED before giving them back, so an employee assigned twice without a COMPLETED in between is double booked,
+ * and the calls between their ASSIGNED and their COMPLETED are never more than the locks held
+ */
+final class InvariantChecker implements CallEventSink {
+
+    /**
+     * Whether each employee is answering a call, by employee id
+     */
+    private final Map<String, AtomicBoolean> busy;
+
+    /**
+     * Times each call was assigned and completed, indexed by the numeric id of the call
+     */
+    private final AtomicIntegerArray assigned;
+    private final AtomicIntegerArray completed;
+
+    /**
+     * Calls between their ASSIGNED and their COMPLETED events
+     */
+    private final AtomicInteger active;
+
+    private final AtomicInteger maxActive;
+
+    /**
+     * Highest number of calls that may be in progress, kept by the reconfigurer above the concurrency limit until a reduced limit takes effect
+     */
+    private volatile int allowed;
+
+    private final AtomicLong doubleBookings;
+    private final AtomicLong limitViolations;
+    private final AtomicLong duplicateEvents;
+    private final AtomicReference<String> firstViolation;
+
+    /**
+     * @param employees every employee that may join the staff during the run
+     * @param calls     the number of calls, their ids go from zero to calls - 1
+     * @param allowed   the concurrency limit at the start
+     */
+    InvariantChecker(List<Employee> employees, int calls, int allowed) {
+        busy = new ConcurrentHashMap<>();
+        for (Employee employee : employees) {
+            busy.put(employee.getId(), new AtomicBoolean());
+        }
+        assigned = new AtomicIntegerArray(calls);
+        completed = new AtomicIntegerArray(calls);
+        active = new AtomicInteger();
+        maxActive = new AtomicInteger();
+        this.allowed = allowed;
+        doubleBookings = new AtomicLong();
+        limitViolations = new AtomicLong();
+        duplicateEvents = new AtomicLong();
+        firstViolation = new AtomicReference<>();
+    }
+
+    @Override
+    public void record(CallEventType type, long callId, String employeeId, int duration, int priority, long time) {
+        switch (type) {
+            case ASSIGNED:
+                if (!busy.get(employeeId).compareAndSet(false, true)) {
+                    violation(doubleBookings, "Employee " + employeeId + " assigned call " + callId + " while answering another one");
+                }
+                int calls = active.incrementAndGet();
+                if (calls > allowed) {
+                    violation(limitViolations, calls + " calls in progress with a limit of " + allowed);
+                }
+                maxActive.accumulateAndGet(calls, Math::max);
+                if (assigned.incrementAndGet((int) callId) != 1) {
+                    violation(duplicateEvents, "Call " + callId + " assigned twice");
+                }
+                break;
+            case COMPLETED:
+                active.decrementAndGet();
+                if (!busy.get(employeeId).compareAndSet(true, false)) {
+                    violation(doubleBookings, "Employee " + employeeId + " completed call " + callId + " while idle");
+                }
+                if (completed.incrementAndGet((int) callId) != 1 || assigned.get((int) callId) != 1) {
+                    violation(duplicateEvents, "Call " + callId + " completed twice or without being assigned");
+                }
+                break;
+            default:
+        }
+    }
+
+    /**
+     * The batches are dispatched with text ids, they are the numeric ids formatted
+     */
+    @Override
+    public void record(CallEventType type, String callId, String employeeId, int duration, int priority, long time) {
+        if (type == CallEventType.ASSIGNED || type == CallEventType.COMPLETED) {
+            record(type, Long.parseLong(callId), employeeId, duration, priority, time);
+        }
+    }
+
+    int getAllowed() {
+        return allowed;
+    }
+
+    void setAllowed(int allowed) {
+        this.allowed = allowed;
+    }
+
+    /**
+     * @return the calls in progress according to the events
+     */
+    int getActive() {
+        return active.get();
+    }
+
+    int getMaxActive() {
+        return maxActive.get();
+    }
+
+    long getDoubleBookings() {
+        return doubleBookings.get();
+    }
+
+    long getLimitViolations() {
+        return limitViolations.get();
+    }
+
+    /**
+     * Checks once the dispatcher stopped that each call was assigned and completed exactly once, the calls rejected by the queue or not dispatched before the deadline weren't
+     *
+     * @param terminated whether the dispatcher terminated before the deadline, otherwise the calls interrupted leave their employees busy
+     * @return the number of calls that weren't answered exactly once plus the duplicated events found during the run
+     */
+    long verifyAnswered(boolean terminated) {
+        long wrong = duplicateEvents.get();
+        for (int id = 0; id < assigned.length(); id++) {
+            if (assigned.get(id) != 1 || completed.get(id) != 1) {
+                wrong++;
+                firstViolation.compareAndSet(null, "Call " + id + " assigned " + assigned.get(id) + " times and completed " + completed.get(id) + " times");
+            }
+        }
+        for (Map.Entry<String, AtomicBoolean> employee : busy.entrySet()) {
+            if (terminated && employee.getValue().get()) {
+                violation(doubleBookings, "Employee " + employee.getKey() + " still busy after the dispatcher terminated");
+            }
+        }
+        return wrong;
+    }
+
+    /**
+     * @return the description of the first violation found, null if there was none
+     */
+    String getFirstViolation() {
+        return firstViolation.get();
+    }
+
+    private void violation(AtomicLong counter, String description) {
+        counter.incrementAndGet();
+        firstViolation.compareAndSet(null, description);
+    }
+}
@@ -0,0 +1,115 @@
+package com.almundo.callcenter.stress;
+
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.process.Dispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Actor that reconfigures the dispatcher while the calls are dispatched: it changes the concurrency limit, replaces the staff with a random part of the employees, changes the type of an employee and resizes the queue.
+ * The changes are drawn from a seeded random, so a run makes the same sequence of changes, and the checker is told the limit in force before a raised limit is applied and after a reduced one takes effect
+ */
+final class Reconfigurer implements Runnable {
+
+    private static final EmployeeType[] TYPES = EmployeeType.values();
+
+    /**
+     * Pause between changes so the dispatch threads make progress with each configuration
+     */
+    private static final long PAUSE_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final Dispatcher dispatcher;
+    private final InvariantChecker checker;
+    private final List<Employee> employees;
+    private final Random random;
+    private volatile boolean running;
+    private int changes;
+
+    /**
+     * @param dispatcher the dispatcher under stress
+     * @param checker    the checker of its events
+     * @param employees  every employee that may join the staff, the whole staff at the start and at the end
+     * @param seed       the seed of the changes
+     */
+    Reconfigurer(Dispatcher dispatcher, InvariantChecker checker, List<Employee> employees, long seed) {
+        this.dispatcher = dispatcher;
+        this.checker = checker;
+        this.employees = employees;
+        this.random = new Random(seed);
+        this.running = true;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    setLimit(1 + random.nextInt(employees.size()));
+                    break;
+                case 1:
+                    List<Employee> staff = new ArrayList<>();
+                    for (Employee employee : employees) {
+                        if (random.nextInt(4) != 0) {
+                            staff.add(employee);
+                        }
+                    }
+                    dispatcher.setEmployees(staff);
+                    break;
+                case 2:
+                    List<Employee> current = dispatcher.getEmployees();
+                    if (!current.isEmpty()) {
+                        dispatcher.changeEmployeeType(current.get(random.nextInt(current.size())), TYPES[random.nextInt(TYPES.length)]);
+                    }
+                    break;
+                default:
+                    dispatcher.setQueueCapacity(1 + random.nextInt(DispatcherStress.QUEUE_CAPACITY));
+            }
+            changes++;
+            LockSupport.parkNanos(PAUSE_NANOS);
+        }
+    }
+
+    /**
+     * Stops the changes and restores the whole staff, the full limit and the queue capacity so the waiting calls are answered
+     *
+     * @param thread the thread running the reconfigurer
+     */
+    void stop(Thread thread) throws InterruptedException {
+        running = false;
+        thread.join();
+        dispatcher.setEmployees(employees);
+        setLimit(employees.size());
+        dispatcher.setQueueCapacity(DispatcherStress.QUEUE_CAPACITY);
+    }
+
+    /**
+     * @return the number of changes made
+     */
+    int getChanges() {
+        return changes;
+    }
+
+    /**
+     * A raised limit is allowed before the semaphore grows, a reduced one once the calls holding the locks are below it
+     */
+    private void setLimit(int limit) {
+        if (limit >= checker.getAllowed()) {
+            checker.setAllowed(limit);
+            dispatcher.setSemaphoreCount(limit);
+            return;
+        }
+        dispatcher.setSemaphoreCount(limit);
+        //A dispatcher that stalls with the locks held doesn't keep the reconfigurer from stopping, the reduced limit just isn't checked
+        while (running && dispatcher.getAvailablePermits() < 0) {
+            Thread.yield();
+        }
+        if (dispatcher.getAvailablePermits() >= 0) {
+            checker.setAllowed(limit);
+        }
+    }
+}
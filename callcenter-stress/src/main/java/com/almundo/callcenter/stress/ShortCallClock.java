@@ -0,0 +1,21 @@
+package com.almundo.callcenter.stress;
+
+import com.almundo.callcenter.clock.SystemCallClock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Real clock whose sleeps are a million times shorter, so a call of one second lasts a microsecond and the calls of the BLOCKING scenario overlap in the threads of the executor without slowing the run.
+ * The sleeps park the thread because Thread.sleep rounds any wait up to a millisecond, and only the sleeps are shortened, the scheduled tasks keep their delays
+ */
+final class ShortCallClock extends SystemCallClock {
+
+    @Override
+    public void sleep(long duration, TimeUnit unit) throws InterruptedException {
+        LockSupport.parkNanos(unit.toNanos(duration) / 1_000_000);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
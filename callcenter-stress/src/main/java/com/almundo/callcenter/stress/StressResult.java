@@ -0,0 +1,77 @@
+package com.almundo.callcenter.stress;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a stress scenario: the calls dispatched, the throughput and the number of times each invariant was broken
+ */
+final class StressResult {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final String name;
+    private final int calls;
+    private final int rejected;
+    private final long elapsed;
+    private final boolean terminated;
+    private final int changes;
+    private final int maxActive;
+    private final long doubleBookings;
+    private final long limitViolations;
+    private final long notAnsweredOnce;
+    private final String firstViolation;
+
+    /**
+     * @param name            the name of the scenario
+     * @param calls           the calls dispatched
+     * @param rejected        the calls rejected because the queue stayed full, they aren't answered
+     * @param elapsed         nanoseconds from the first call until the dispatcher terminated
+     * @param terminated      whether all the calls were dispatched and the dispatcher terminated before the deadline
+     * @param changes         the reconfigurations made during the run
+     * @param maxActive       the most calls seen in progress at the same time
+     * @param doubleBookings  the times an employee was assigned a call while answering another one
+     * @param limitViolations the times the calls in progress exceeded the concurrency limit
+     * @param notAnsweredOnce the calls that weren't answered exactly once
+     * @param firstViolation  the description of the first violation, null if there was none
+     */
+    StressResult(String name, int calls, int rejected, long elapsed, boolean terminated, int changes, int maxActive, long doubleBookings, long limitViolations,
+                 long notAnsweredOnce, String firstViolation) {
+        this.name = name;
+        this.calls = calls;
+        this.rejected = rejected;
+        this.elapsed = elapsed;
+        this.terminated = terminated;
+        this.changes = changes;
+        this.maxActive = maxActive;
+        this.doubleBookings = doubleBookings;
+        this.limitViolations = limitViolations;
+        this.notAnsweredOnce = notAnsweredOnce;
+        this.firstViolation = firstViolation;
+    }
+
+    /**
+     * @return true if the run terminated and no invariant was broken
+     */
+    boolean isPassed() {
+        return terminated && doubleBookings == 0 && limitViolations == 0 && notAnsweredOnce == 0;
+    }
+
+    String getFirstViolation() {
+        return firstViolation;
+    }
+
+    int getMaxActive() {
+        return maxActive;
+    }
+
+    static String header() {
+        return String.format("%-22s %10s %9s %8s %12s %8s %10s %9s %12s %7s", "Scenario", "Calls", "Rejected", "Time(s)", "Calls/s", "Changes",
+                "MaxActive", "Doubled", "OverLimit", "NotOnce") + "  Result";
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-22s %10d %9d %8.1f %12.0f %8d %10d %9d %12d %7d", name, calls, rejected, elapsed / NANOS_PER_SECOND,
+                calls * NANOS_PER_SECOND / elapsed, changes, maxActive, doubleBookings, limitViolations, notAnsweredOnce) + "  " + (isPassed() ? "OK" : terminated ? "FAILED" : "TIMEOUT");
+    }
+}
@@ -0,0 +1,31 @@
+package com.almundo.callcenter.stress;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Main class of the stress jar, it runs each scenario with the same seed and prints a line with the invariants broken, exiting with status 1 if any was.
+ * The number of calls of each scenario, the seed and the timeout in seconds of each scenario are set with the calls, seed and timeout system properties (for example -Dcalls=10000000 -Dtimeout=300 for a longer run)
+ */
+public class StressRunner {
+
+    public static void main(String[] args) throws InterruptedException {
+        //The calls are checked by the event sink, the logs of the dispatcher would only slow the run
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", System.getProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn"));
+        int calls = Integer.getInteger("calls", 2_000_000);
+        long seed = Long.getLong("seed", 42L);
+        long timeout = Long.getLong("timeout", 60L);
+        int drivers = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        System.out.println(StressResult.header());
+        boolean passed = true;
+        for (DispatcherStress scenario : DispatcherStress.scenarios(drivers)) {
+            StressResult result = scenario.run(calls, seed, timeout, TimeUnit.SECONDS);
+            System.out.println(result);
+            if (!result.isPassed()) {
+                System.out.println("    First violation: " + result.getFirstViolation());
+                passed = false;
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+}
@@ -0,0 +1,42 @@
+package com.almundo.callcenter.stress;
+
+import com.almundo.callcenter.process.DispatchMode;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+public class DispatcherStressTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(DispatcherStressTest.class);
+
+    /**
+     * Calls of each scenario, fewer than the stress jar dispatches so the build stays short, the stress.calls property sets them for a longer run
+     */
+    private static final int CALLS = Integer.getInteger("stress.calls", 100_000);
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    /**
+     * Every scenario should answer each call exactly once without double booking an employee nor going over the concurrency limit while the dispatcher is reconfigured,
+     * and the BLOCKING scenario should answer calls at the same time
+     */
+    @Test
+    public void scenariosShouldKeepTheInvariants() throws InterruptedException {
+        logger.info("##########Testing scenariosShouldKeepTheInvariants");
+
+        logger.info(StressResult.header());
+        for (DispatcherStress scenario : DispatcherStress.scenarios(Math.max(2, Runtime.getRuntime().availableProcessors()))) {
+            StressResult result = scenario.run(CALLS, 42L, TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            logger.info(result.toString());
+            assertTrue(scenario.getName() + " broke an invariant: " + result, result.isPassed());
+            assertTrue(scenario.getName() + " answered more calls at the same time than employees: " + result, result.getMaxActive() <= DispatcherStress.EMPLOYEES);
+            if (scenario.getMode() == DispatchMode.BLOCKING) {
+                assertTrue(scenario.getName() + " answered the calls one by one: " + result, result.getMaxActive() > 1);
+            }
+        }
+    }
+}
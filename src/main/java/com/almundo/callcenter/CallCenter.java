@@ -1,14 +1,23 @@
 package com.almundo.callcenter;
 
+import com.almundo.callcenter.config.CallCenterConfig;
+import com.almundo.callcenter.config.ConfigWatcher;
+import com.almundo.callcenter.ingest.IngestionServer;
+import com.almundo.callcenter.ingest.MessageFraming;
+import com.almundo.callcenter.journal.RecoveredCalls;
 import com.almundo.callcenter.model.Employee;
 import com.almundo.callcenter.model.EmployeeType;
 import com.almundo.callcenter.process.Dispatcher;
+import com.almundo.callcenter.process.ShutdownMode;
 import com.almundo.callcenter.util.Constants;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 
 /**
@@ -16,18 +25,30 @@ import java.util.stream.IntStream;
  */
 public class CallCenter {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        //Read the configuration file, its changes are pushed to the dispatcher while the app runs
+        ConfigWatcher configWatcher = new ConfigWatcher(Paths.get(System.getProperty(CallCenterConfig.PROPERTY_PREFIX + "configFile", Constants.CONFIG_FILE)));
+        CallCenterConfig config = configWatcher.getConfig();
+
         //Initialize the dispatcher and the employee list that will be used during the run of the app
         Dispatcher dispatcher = new Dispatcher();
         List<Employee> employees = new ArrayList<>();
 
         //Add employees to the list
-        IntStream.range(0, Constants.NUMBER_OF_OPERATORS).forEach(i -> employees.add(new Employee(i + "Op", EmployeeType.OPERADOR)));
-        IntStream.range(0, Constants.NUMBER_OF_SUPERVISORS).forEach(i -> employees.add(new Employee(i + "Sp", EmployeeType.SUPERVISOR)));
-        IntStream.range(0, Constants.NUMBER_OF_DIRECTORS).forEach(i -> employees.add(new Employee(i + "Dr", EmployeeType.DIRECTOR)));
+        IntStream.range(0, config.getNumberOfOperators()).forEach(i -> employees.add(new Employee(i + "Op", EmployeeType.OPERADOR)));
+        IntStream.range(0, config.getNumberOfSupervisors()).forEach(i -> employees.add(new Employee(i + "Sp", EmployeeType.SUPERVISOR)));
+        IntStream.range(0, config.getNumberOfDirectors()).forEach(i -> employees.add(new Employee(i + "Dr", EmployeeType.DIRECTOR)));
 
-        //Set the employee list to the dispatcher
+        //Set the employee list to the dispatcher and apply the limits of the configuration
         dispatcher.setEmployees(employees);
+        configWatcher.addListener(changed -> changed.applyTo(dispatcher));
+
+        //If a port is given the calls pushed by the switches are also received in it, as newline delimited messages
+        IngestionServer ingestionServer = null;
+        if (args.length > 0) {
+            ingestionServer = new IngestionServer(dispatcher, Integer.parseInt(args[0]), MessageFraming.NEWLINE);
+            System.out.println("Receiving calls on port " + ingestionServer.getPort());
+        }
 
         Scanner in = new Scanner(System.in);
         String inputValue;
@@ -38,16 +59,24 @@ public class CallCenter {
             inputValue = in.nextLine();
             try {
                 callsToProcess = Integer.parseInt(inputValue);
-                IntStream.range(0, callsToProcess).forEach(i -> dispatcher.dispatchCall(UUID.randomUUID().toString().substring(0, 8)));
+                List<String> callIds = new ArrayList<>();
+                IntStream.range(0, callsToProcess).forEach(i -> callIds.add(UUID.randomUUID().toString().substring(0, 8)));
+                dispatcher.dispatchCalls(callIds);
             } catch (NumberFormatException e) {
                 //If the value entered isn't a valid number or 'exit' it is ignored
             }
         } while (inputValue.compareToIgnoreCase("exit") != 0);
 
-        //Stops the executors and all threads inside its pool
-        dispatcher.stopExecutor();
+        if (ingestionServer != null) {
+            ingestionServer.close();
+        }
+        configWatcher.close();
+
+        //Stops the executors once the calls end, the calls still going on after the timeout are interrupted
+        RecoveredCalls unfinished = dispatcher.shutdown(ShutdownMode.DRAIN, Constants.SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
 
         //Shows the total of calls processed during the run of the app
-        System.out.println("Total calls processed = " + dispatcher.getCallsAnswered());
+        System.out.println("Total calls processed = " + unfinished.getCallsAnswered());
+        System.out.println("Calls not answered = " + unfinished.getPendingCalls().size());
     }
 }
@@ -0,0 +1,62 @@
+package com.almundo.callcenter.clock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source of time used by the calls and the dispatcher, it allows replacing the real time with a simulated one so the duration of the calls doesn't consume wall time
+ */
+public interface CallClock {
+
+    /**
+     * @return the current time in nanoseconds, only meaningful to measure elapsed time
+     */
+    long nanoTime();
+
+    /**
+     * Blocks the current thread while the given time elapses
+     *
+     * @param duration the time to wait
+     * @param unit     the unit of the duration
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void sleep(long duration, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Runs a task once the given delay elapses
+     *
+     * @param task  the task to run
+     * @param delay the delay before running the task
+     * @param unit  the unit of the delay
+     */
+    void schedule(Runnable task, long delay, TimeUnit unit);
+
+    /**
+     * Waits until the latch is released, letting the time pass so the scheduled tasks can release it
+     *
+     * @param latch the latch to wait for
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void await(CountDownLatch latch) throws InterruptedException;
+
+    /**
+     * Waits until the latch is released or the timeout elapses, letting the time pass so the scheduled tasks can release it
+     *
+     * @param latch   the latch to wait for
+     * @param timeout the max time to wait
+     * @param unit    the unit of the timeout
+     * @return true if the latch was released, false if the timeout elapsed first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    boolean await(CountDownLatch latch, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Stops the clock, tasks already scheduled are still run but no new task is accepted
+     */
+    void shutdown();
+
+    /**
+     * Stops the clock discarding the tasks already scheduled, used when the tasks belong to calls that were interrupted
+     */
+    void shutdownNow();
+}
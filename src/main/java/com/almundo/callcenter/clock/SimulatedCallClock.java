@@ -0,0 +1,197 @@
+package com.almundo.callcenter.clock;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discrete event clock, the time doesn't pass by itself but jumps instantly to the next scheduled task when it's run.
+ * It's meant to be used with the EVENT dispatch mode, where the end of each call is a scheduled task, so millions of calls can be replayed in seconds keeping the same order of events as the real time.
+ * Sleeping doesn't block the thread nor move the time, so in BLOCKING mode the calls finish immediately
+ */
+public class SimulatedCallClock implements CallClock {
+
+    /**
+     * Tasks pending to be run, ordered by their time and by the order in which they were scheduled
+     */
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+
+    /**
+     * The current simulated time in nanoseconds
+     */
+    private volatile long now;
+
+    /**
+     * Counter used to run the tasks scheduled for the same time in the order they were scheduled
+     */
+    private long sequence;
+
+    private boolean shutdown;
+
+    /**
+     * Events already run, reused for the next tasks scheduled so scheduling doesn't allocate memory
+     */
+    private Event freeEvents;
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public void sleep(long duration, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public synchronized void schedule(Runnable task, long delay, TimeUnit unit) {
+        if (shutdown) {
+            throw new IllegalStateException("Clock stopped");
+        }
+        Event event = freeEvents;
+        if (event == null) {
+            event = new Event();
+        } else {
+            freeEvents = event.next;
+            event.next = null;
+        }
+        event.time = now + unit.toNanos(delay);
+        event.sequence = sequence++;
+        event.task = task;
+        events.add(event);
+    }
+
+    /**
+     * Runs the scheduled tasks until the latch is released, if there aren't pending tasks it waits for another thread to schedule one or release the latch
+     */
+    @Override
+    public void await(CountDownLatch latch) throws InterruptedException {
+        while (latch.getCount() > 0) {
+            if (!runNext()) {
+                latch.await(1, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Runs the scheduled tasks up to the timeout in simulated time until the latch is released.
+     * If there aren't pending tasks it waits up to the timeout in real time for another thread to schedule one or release the latch
+     */
+    @Override
+    public boolean await(CountDownLatch latch, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = now + unit.toNanos(timeout);
+        long realDeadline = System.nanoTime() + unit.toNanos(timeout);
+        while (latch.getCount() > 0) {
+            boolean due;
+            boolean pending;
+            synchronized (this) {
+                Event next = events.peek();
+                pending = next != null;
+                due = pending && next.time <= deadline;
+            }
+            if (due) {
+                runNext();
+            } else if (pending || System.nanoTime() >= realDeadline) {
+                //The next task is after the deadline, so the time reaches the deadline first
+                synchronized (this) {
+                    now = Math.max(now, deadline);
+                }
+                return latch.getCount() == 0;
+            } else {
+                latch.await(1, TimeUnit.MILLISECONDS);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public synchronized void shutdownNow() {
+        shutdown = true;
+        events.clear();
+    }
+
+    /**
+     * Moves the time to the next scheduled task and runs it in the current thread
+     *
+     * @return false if there wasn't any task pending
+     */
+    public boolean runNext() {
+        Runnable task;
+        synchronized (this) {
+            Event event = events.poll();
+            if (event == null) {
+                return false;
+            }
+            now = Math.max(now, event.time);
+            task = event.task;
+            event.task = null;
+            event.next = freeEvents;
+            freeEvents = event;
+        }
+        task.run();
+        return true;
+    }
+
+    /**
+     * Runs all the scheduled tasks, including the ones scheduled by the tasks being run
+     *
+     * @return the number of tasks run
+     */
+    public long runAll() {
+        long count = 0;
+        while (runNext()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Moves the time forward running the tasks scheduled up to the new time
+     *
+     * @param duration the time to move forward
+     * @param unit     the unit of the duration
+     */
+    public void advance(long duration, TimeUnit unit) {
+        long target = now + unit.toNanos(duration);
+        while (true) {
+            synchronized (this) {
+                Event next = events.peek();
+                if (next == null || next.time > target) {
+                    now = Math.max(now, target);
+                    return;
+                }
+            }
+            runNext();
+        }
+    }
+
+    /**
+     * @return the number of tasks pending to be run
+     */
+    public synchronized int pendingEvents() {
+        return events.size();
+    }
+
+    /**
+     * A task scheduled for a given time, reused once it's run
+     */
+    private static final class Event implements Comparable<Event> {
+        private long time;
+        private long sequence;
+        private Runnable task;
+        private Event next;
+
+        @Override
+        public int compareTo(Event other) {
+            int result = Long.compare(time, other.time);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
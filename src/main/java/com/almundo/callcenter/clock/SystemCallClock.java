@@ -0,0 +1,95 @@
+package com.almundo.callcenter.clock;
+
+import com.almundo.callcenter.util.Constants;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock using the real time, the scheduled tasks are run by a small pool of threads that is created the first time a task is scheduled
+ */
+public class SystemCallClock implements CallClock {
+
+    /**
+     * Number of threads running the scheduled tasks
+     */
+    private final int threads;
+
+    /**
+     * Scheduler for the tasks, created lazily so a clock only used for sleeping doesn't create threads
+     */
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a clock using EVENT_DISPATCH_THREADS threads for running the scheduled tasks
+     */
+    public SystemCallClock() {
+        this(Constants.EVENT_DISPATCH_THREADS);
+    }
+
+    /**
+     * Creates a clock setting the number of threads that run the scheduled tasks
+     *
+     * @param threads the number of threads
+     */
+    public SystemCallClock(int threads) {
+        this.threads = threads;
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void sleep(long duration, TimeUnit unit) throws InterruptedException {
+        unit.sleep(duration);
+    }
+
+    @Override
+    public void schedule(Runnable task, long delay, TimeUnit unit) {
+        getScheduler().schedule(task, delay, unit);
+    }
+
+    @Override
+    public void await(CountDownLatch latch) throws InterruptedException {
+        latch.await();
+    }
+
+    @Override
+    public boolean await(CountDownLatch latch, long timeout, TimeUnit unit) throws InterruptedException {
+        return latch.await(timeout, unit);
+    }
+
+    @Override
+    public void shutdown() {
+        ScheduledExecutorService current = scheduler;
+        if (current != null) {
+            current.shutdown();
+        }
+    }
+
+    @Override
+    public void shutdownNow() {
+        ScheduledExecutorService current = scheduler;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    private ScheduledExecutorService getScheduler() {
+        ScheduledExecutorService current = scheduler;
+        if (current == null) {
+            synchronized (this) {
+                current = scheduler;
+                if (current == null) {
+                    current = Executors.newScheduledThreadPool(threads);
+                    scheduler = current;
+                }
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,711 @@
+package com.almundo.callcenter.cluster;
+
+import com.almundo.callcenter.journal.RecoveredCalls;
+import com.almundo.callcenter.metrics.LatencyHistogram;
+import com.almundo.callcenter.model.SkillSet;
+import com.almundo.callcenter.process.Call;
+import com.almundo.callcenter.process.DispatchResult;
+import com.almundo.callcenter.process.Dispatcher;
+import com.almundo.callcenter.util.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node of a cluster of dispatchers that share the load, connected to the other nodes with TCP.
+ * A single thread runs a NIO selector with the connections of the node: it gossips the idle employees and the waiting calls to the other nodes, answers the calls handed off by them and hands off the local waiting calls when another node has idle employees.
+ * A new call is answered locally while the node has idle employees and it's handed off to the node with more idle employees otherwise, so a node joining the cluster takes calls as soon as its first gossip arrives.
+ * A node joins the cluster connecting to any of its nodes, which replies with the addresses of the rest so all the nodes end up connected to each other.
+ * A call handed off is kept by the node until the other node acknowledges it, and it's dispatched locally if the other node rejects it or the connection is lost first, so a call is answered at least once
+ */
+public class ClusterNode {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterNode.class);
+
+    private final Dispatcher dispatcher;
+
+    /**
+     * Time in nanoseconds between two gossips of this node
+     */
+    private final long gossipInterval;
+
+    /**
+     * Address the node listens on, it identifies the node in the cluster
+     */
+    private final InetSocketAddress address;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+
+    /**
+     * Nodes connected to this one by their listen address
+     */
+    private final Map<InetSocketAddress, Peer> peers;
+
+    /**
+     * Connections of the node, only used by the IO thread
+     */
+    private final List<Connection> connections;
+
+    /**
+     * Addresses of the outgoing connections not identified yet, only used by the IO thread
+     */
+    private final Set<InetSocketAddress> connecting;
+
+    /**
+     * Tasks sent to the IO thread by other threads
+     */
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+
+    /**
+     * Connections with messages sent by other threads that the IO thread has to write
+     */
+    private final ConcurrentLinkedQueue<Connection> pendingWrites;
+
+    private final AtomicLong callsHandedOff;
+    private final AtomicLong callsReceived;
+
+    /**
+     * Calls handed off that were dispatched locally because the other node rejected them or the connection was lost before the acknowledgement
+     */
+    private final AtomicLong callsRedispatched;
+
+    /**
+     * Sequence of the ids of the handoffs of this node, echoed by the acknowledgements
+     */
+    private final AtomicLong handoffIds;
+
+    /**
+     * Time from a call is handed off until its acknowledgement arrives
+     */
+    private final LatencyHistogram handoffLatency;
+
+    private final Thread ioThread;
+    private volatile boolean running;
+
+    /**
+     * Creates a node listening on localhost
+     *
+     * @param dispatcher the dispatcher that answers the calls of this node
+     * @param port       the port, zero to use any free port
+     * @throws IOException if the port can't be opened
+     */
+    public ClusterNode(Dispatcher dispatcher, int port) throws IOException {
+        this(dispatcher, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), Constants.CLUSTER_GOSSIP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a node and starts its IO thread
+     *
+     * @param dispatcher     the dispatcher that answers the calls of this node
+     * @param bindAddress    the address the node listens on, port zero uses any free port
+     * @param gossipInterval time between two gossips of the node
+     * @param unit           the unit of the gossip interval
+     * @throws IOException if the address can't be opened
+     */
+    public ClusterNode(Dispatcher dispatcher, InetSocketAddress bindAddress, long gossipInterval, TimeUnit unit) throws IOException {
+        this.dispatcher = dispatcher;
+        this.gossipInterval = unit.toNanos(gossipInterval);
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(bindAddress);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        address = new InetSocketAddress(bindAddress.getAddress().getHostAddress(), server.socket().getLocalPort());
+        peers = new ConcurrentHashMap<>();
+        connections = new ArrayList<>();
+        connecting = new HashSet<>();
+        tasks = new ConcurrentLinkedQueue<>();
+        pendingWrites = new ConcurrentLinkedQueue<>();
+        callsHandedOff = new AtomicLong(0);
+        callsReceived = new AtomicLong(0);
+        callsRedispatched = new AtomicLong(0);
+        handoffIds = new AtomicLong(0);
+        handoffLatency = new LatencyHistogram();
+        running = true;
+        ioThread = new Thread(this::run, "cluster-node-" + address.getPort());
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * Joins the cluster of the node listening on localhost in the given port
+     *
+     * @param port the port of any node of the cluster
+     */
+    public void join(int port) {
+        join(new InetSocketAddress(address.getHostString(), port));
+    }
+
+    /**
+     * Joins the cluster of the node listening on the given address, the connections are opened asynchronously
+     *
+     * @param seed the address of any node of the cluster
+     */
+    public void join(InetSocketAddress seed) {
+        execute(() -> connect(seed));
+    }
+
+    /**
+     * Dispatches an incoming call
+     *
+     * @param callId the id of the new incoming call
+     * @return whether the call was answered straight away, queued, rejected or handed off to another node
+     * @see Dispatcher#dispatchCall(String)
+     */
+    public DispatchResult dispatchCall(String callId) {
+        return dispatchCall(callId, Call.DEFAULT_PRIORITY, SkillSet.NONE);
+    }
+
+    /**
+     * Dispatches an incoming call, if all the employees of this node are busy it's handed off to the node with more idle employees in the last gossip
+     *
+     * @param callId         the id of the new incoming call
+     * @param priority       the priority of the call
+     * @param requiredSkills the skills the employee needs to answer the call
+     * @return whether the call was answered straight away, queued, rejected or handed off to another node
+     */
+    public DispatchResult dispatchCall(String callId, int priority, SkillSet requiredSkills) {
+        if (dispatcher.getEmployeePool().idleCount() == 0) {
+            Peer target = pickPeer();
+            if (target != null && handOff(target, callId, priority, ClusterProtocol.NO_DURATION, requiredSkills)) {
+                return DispatchResult.HANDED_OFF;
+            }
+        }
+        return dispatcher.dispatchCall(callId, priority, requiredSkills);
+    }
+
+    /**
+     * Leaves the cluster handing off the waiting calls to the other nodes and closes the connections.
+     * The calls being answered are finished by the dispatcher, which isn't stopped
+     */
+    public void leave() {
+        if (!running) {
+            return;
+        }
+        execute(() -> {
+            List<Peer> targets = new ArrayList<>(peers.values());
+            if (!targets.isEmpty()) {
+                for (int next = 0; ; next++) {
+                    Peer target = targets.get(next % targets.size());
+                    RecoveredCalls.PendingCall call = dispatcher.takeWaitingCall(target.toString());
+                    if (call == null) {
+                        break;
+                    }
+                    handOff(target, call);
+                }
+            }
+            ByteBuffer leave = ClusterProtocol.leave();
+            for (Peer peer : targets) {
+                send(peer.connection, leave.duplicate());
+            }
+            running = false;
+        });
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            logger.error("Interrupted Exception", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return the address the node listens on
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the nodes connected to this one
+     */
+    public Collection<Peer> getPeers() {
+        return Collections.unmodifiableCollection(peers.values());
+    }
+
+    public long getCallsHandedOff() {
+        return callsHandedOff.get();
+    }
+
+    /**
+     * @return the calls handed off to this node by other nodes
+     */
+    public long getCallsReceived() {
+        return callsReceived.get();
+    }
+
+    /**
+     * @return the calls handed off by this node that were dispatched locally because the other node rejected them or left before acknowledging them
+     */
+    public long getCallsRedispatched() {
+        return callsRedispatched.get();
+    }
+
+    /**
+     * @return the round trip latency of the calls handed off by this node
+     */
+    public LatencyHistogram getHandoffLatency() {
+        return handoffLatency;
+    }
+
+    /**
+     * @return the node with more idle employees that no call in flight is expected to take, or null if no node has them
+     */
+    private Peer pickPeer() {
+        Peer target = null;
+        int available = 0;
+        for (Peer peer : peers.values()) {
+            if (peer.getAvailableEmployees() > available) {
+                target = peer;
+                available = peer.getAvailableEmployees();
+            }
+        }
+        return target;
+    }
+
+    private void handOff(Peer target, RecoveredCalls.PendingCall call) {
+        if (!handOff(target, call.getCallId(), call.getPriority(), call.getDuration(), call.getRequiredSkills())) {
+            receive(call.getCallId(), call.getPriority(), call.getDuration(), call.getRequiredSkills());
+        }
+    }
+
+    /**
+     * Sends a call to another node keeping it until the node acknowledges it
+     *
+     * @return false if the connection was already lost, the caller dispatches the call locally
+     */
+    private boolean handOff(Peer target, String callId, int priority, int duration, SkillSet requiredSkills) {
+        Connection connection = target.connection;
+        long handoffId = handoffIds.incrementAndGet();
+        connection.handoffs.put(handoffId, new Handoff(System.nanoTime(), callId, priority, duration, requiredSkills));
+        //The handoffs of a closed connection are dispatched locally by the IO thread, unless it went over them before this one was added
+        if (!connection.channel.isOpen() && connection.handoffs.remove(handoffId) != null) {
+            return false;
+        }
+        target.callSent();
+        send(connection, ClusterProtocol.handoff(handoffId, callId, priority, duration, requiredSkills));
+        callsHandedOff.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Queues a message in the connection, the IO thread is woken up only if the connection wasn't already waiting to be written
+     */
+    private void send(Connection connection, ByteBuffer message) {
+        connection.output.add(message);
+        if (Thread.currentThread() == ioThread) {
+            write(connection);
+        } else if (connection.writeScheduled.compareAndSet(false, true)) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void run() {
+        long nextGossip = System.nanoTime();
+        try {
+            while (running) {
+                long now = System.nanoTime();
+                if (now - nextGossip >= 0) {
+                    gossip();
+                    nextGossip = now + gossipInterval;
+                }
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextGossip - now)));
+                for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+                    task.run();
+                }
+                for (Connection connection = pendingWrites.poll(); connection != null; connection = pendingWrites.poll()) {
+                    connection.writeScheduled.set(false);
+                    write(connection);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    process(key);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Cluster node {} stopped", address, e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void process(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            SocketChannel channel = server.accept();
+            if (channel != null) {
+                Connection connection = new Connection(channel, null);
+                open(connection);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            }
+            return;
+        }
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                connection.channel.finishConnect();
+                connected(connection);
+            }
+            if (key.isValid() && key.isReadable()) {
+                read(connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(connection);
+            }
+        } catch (ProtocolException e) {
+            logger.warn("Invalid frame from node {}, closing the connection: {}", connection.peer != null ? connection.peer : connection.target, e.getMessage());
+            disconnect(connection);
+        } catch (IOException e) {
+            logger.warn("Connection with node {} lost: {}", connection.peer != null ? connection.peer : connection.target, e.getMessage());
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * Opens an outgoing connection to a node, unless it's this node or it's already connected
+     */
+    private void connect(InetSocketAddress target) {
+        if (target.equals(address) || peers.containsKey(target) || !connecting.add(target)) {
+            return;
+        }
+        try {
+            SocketChannel channel = SocketChannel.open();
+            Connection connection = new Connection(channel, target);
+            open(connection);
+            if (channel.connect(target)) {
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connected(connection);
+            } else {
+                connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to connect to node {}: {}", target, e.getMessage());
+            connecting.remove(target);
+        }
+    }
+
+    private void open(Connection connection) throws IOException {
+        connection.channel.configureBlocking(false);
+        connection.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        connections.add(connection);
+    }
+
+    private void connected(Connection connection) {
+        connection.key.interestOps(SelectionKey.OP_READ);
+        send(connection, ClusterProtocol.hello(address));
+    }
+
+    /**
+     * Reads the available bytes and handles all the complete frames received
+     */
+    private void read(Connection connection) throws IOException {
+        ByteBuffer input = connection.input;
+        if (connection.channel.read(input) < 0) {
+            disconnect(connection);
+            return;
+        }
+        input.flip();
+        while (input.remaining() >= 4 && connection.channel.isOpen()) {
+            int length = input.getInt(input.position());
+            if (length <= 0 || length > ClusterProtocol.MAX_FRAME_SIZE) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            if (input.remaining() < 4 + length) {
+                break;
+            }
+            int start = input.position() + 4;
+            ByteBuffer frame = input.duplicate();
+            frame.position(start);
+            frame.limit(start + length);
+            input.position(start + length);
+            handle(connection, frame);
+        }
+        input.compact();
+    }
+
+    private void write(Connection connection) {
+        SelectionKey key = connection.key;
+        if (key == null || !key.isValid() || (key.interestOps() & SelectionKey.OP_CONNECT) != 0) {
+            //The messages are written once the connection is established
+            return;
+        }
+        try {
+            ByteBuffer message;
+            while ((message = connection.output.peek()) != null) {
+                connection.channel.write(message);
+                if (message.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                connection.output.poll();
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            logger.warn("Connection with node {} lost: {}", connection.peer, e.getMessage());
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * Handles a frame received, the frames that don't follow the protocol throw a ProtocolException that closes the connection
+     */
+    private void handle(Connection connection, ByteBuffer frame) throws ProtocolException {
+        Peer peer = connection.peer;
+        switch (ClusterProtocol.getType(frame)) {
+            case HELLO:
+                InetSocketAddress peerAddress = ClusterProtocol.getAddress(frame);
+                connecting.remove(peerAddress);
+                peer = new Peer(peerAddress, connection);
+                connection.peer = peer;
+                if (connection.target == null) {
+                    //The node that accepts the connection tells the new node the rest of the cluster
+                    List<InetSocketAddress> others = new ArrayList<>(peers.keySet());
+                    send(connection, ClusterProtocol.hello(address));
+                    send(connection, ClusterProtocol.peers(others));
+                }
+                peers.put(peerAddress, peer);
+                send(connection, availability());
+                logger.info("Node {} connected to node {}", address, peerAddress);
+                break;
+            case PEERS:
+                for (InetSocketAddress other : ClusterProtocol.getAddresses(frame)) {
+                    connect(other);
+                }
+                break;
+            case AVAILABILITY:
+                ClusterProtocol.require(frame, 8);
+                if (peer != null) {
+                    peer.update(frame.getInt(), frame.getInt());
+                }
+                break;
+            case HANDOFF:
+                ClusterProtocol.require(frame, 16);
+                long handoffId = frame.getLong();
+                int priority = frame.getInt();
+                int duration = frame.getInt();
+                if (duration < 0 && duration != ClusterProtocol.NO_DURATION) {
+                    throw new ProtocolException("Invalid call duration " + duration);
+                }
+                String callId = ClusterProtocol.getString(frame);
+                SkillSet requiredSkills = ClusterProtocol.getSkills(frame);
+                callsReceived.incrementAndGet();
+                send(connection, ClusterProtocol.handoffAck(handoffId, receive(callId, priority, duration, requiredSkills)));
+                break;
+            case HANDOFF_ACK:
+                ClusterProtocol.require(frame, 8);
+                long acknowledged = frame.getLong();
+                DispatchResult result = ClusterProtocol.getResult(frame);
+                Handoff handoff = connection.handoffs.remove(acknowledged);
+                if (handoff == null) {
+                    logger.warn("Acknowledgement of an unknown handoff from node {}", peer);
+                    break;
+                }
+                if (peer != null) {
+                    peer.callAcknowledged();
+                }
+                handoffLatency.record(System.nanoTime() - handoff.sendTime);
+                if (result == DispatchResult.REJECTED) {
+                    logger.warn("Call {} handed off rejected by node {}, dispatching it locally", handoff.callId, peer);
+                    redispatch(handoff);
+                }
+                break;
+            case LEAVE:
+                disconnect(connection);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Dispatches a call handed off by another node, or one of this node that couldn't be handed off, the calls that were waiting keep their duration
+     */
+    private DispatchResult receive(String callId, int priority, int duration, SkillSet requiredSkills) {
+        try {
+            if (duration == ClusterProtocol.NO_DURATION) {
+                return dispatcher.dispatchCall(callId, priority, requiredSkills);
+            }
+            return dispatcher.dispatchCall(callId, priority, requiredSkills, duration);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Call {} handed off to a stopped dispatcher", callId);
+            return DispatchResult.REJECTED;
+        }
+    }
+
+    /**
+     * Dispatches locally a call handed off that the other node didn't accept
+     */
+    private void redispatch(Handoff handoff) {
+        callsRedispatched.incrementAndGet();
+        if (receive(handoff.callId, handoff.priority, handoff.duration, handoff.requiredSkills) == DispatchResult.REJECTED) {
+            logger.warn("Call {} rejected by this node too, it's lost", handoff.callId);
+        }
+    }
+
+    /**
+     * Sends the availability of this node to the other nodes and hands off waiting calls to the nodes with idle employees
+     */
+    private void gossip() {
+        ByteBuffer availability = availability();
+        for (Peer peer : peers.values()) {
+            send(peer.connection, availability.duplicate());
+        }
+        while (dispatcher.getQueueDepth() > 0 && dispatcher.getEmployeePool().idleCount() == 0) {
+            Peer target = pickPeer();
+            if (target == null) {
+                return;
+            }
+            RecoveredCalls.PendingCall call = dispatcher.takeWaitingCall(target.toString());
+            if (call == null) {
+                return;
+            }
+            handOff(target, call);
+        }
+    }
+
+    private ByteBuffer availability() {
+        return ClusterProtocol.availability(dispatcher.getEmployeePool().idleCount(), dispatcher.getQueueDepth());
+    }
+
+    private void disconnect(Connection connection) {
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            logger.warn("Unable to close connection: {}", e.getMessage());
+        }
+        connections.remove(connection);
+        if (connection.target != null) {
+            connecting.remove(connection.target);
+        }
+        Peer peer = connection.peer;
+        if (peer != null && peers.remove(peer.getAddress(), peer)) {
+            logger.info("Node {} disconnected from node {}", address, peer);
+        }
+        //The calls whose handoff wasn't acknowledged may not have been written or read, they are answered here
+        for (Long handoffId : connection.handoffs.keySet()) {
+            Handoff handoff = connection.handoffs.remove(handoffId);
+            if (handoff != null) {
+                logger.warn("Call {} handed off to node {} not acknowledged, dispatching it locally", handoff.callId, peer != null ? peer : connection.target);
+                redispatch(handoff);
+            }
+        }
+    }
+
+    /**
+     * Writes the messages still queued, blocking, and closes the connections and the server
+     */
+    private void shutdown() {
+        try {
+            selector.close();
+            for (Connection connection : connections) {
+                if (connection.channel.isConnected()) {
+                    connection.channel.configureBlocking(true);
+                    ByteBuffer message;
+                    while ((message = connection.output.poll()) != null) {
+                        connection.channel.write(message);
+                    }
+                }
+                connection.channel.close();
+            }
+            server.close();
+        } catch (IOException e) {
+            logger.warn("Error closing cluster node {}: {}", address, e.getMessage());
+        }
+        connections.clear();
+        peers.clear();
+        running = false;
+        logger.info("Node {} left the cluster", address);
+    }
+
+    /**
+     * Connection with another node, its buffers are only used by the IO thread except the output queue
+     */
+    static final class Connection {
+
+        private final SocketChannel channel;
+
+        /**
+         * Address the connection was opened to, null for the connections accepted by this node
+         */
+        private final InetSocketAddress target;
+
+        private final ByteBuffer input;
+        private final ConcurrentLinkedQueue<ByteBuffer> output;
+
+        /**
+         * Calls handed off through the connection not acknowledged yet, by the id of the handoff
+         */
+        private final Map<Long, Handoff> handoffs;
+
+        private final AtomicBoolean writeScheduled;
+        private SelectionKey key;
+        private Peer peer;
+
+        Connection(SocketChannel channel, InetSocketAddress target) {
+            this.channel = channel;
+            this.target = target;
+            this.input = ByteBuffer.allocate(4 + ClusterProtocol.MAX_FRAME_SIZE);
+            this.output = new ConcurrentLinkedQueue<>();
+            this.handoffs = new ConcurrentHashMap<>();
+            this.writeScheduled = new AtomicBoolean(false);
+        }
+    }
+
+    /**
+     * A call handed off waiting for its acknowledgement
+     */
+    private static final class Handoff {
+
+        private final long sendTime;
+        private final String callId;
+        private final int priority;
+        private final int duration;
+        private final SkillSet requiredSkills;
+
+        Handoff(long sendTime, String callId, int priority, int duration, SkillSet requiredSkills) {
+            this.sendTime = sendTime;
+            this.callId = callId;
+            this.priority = priority;
+            this.duration = duration;
+            this.requiredSkills = requiredSkills;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.almundo.callcenter.cluster;
+
+import com.almundo.callcenter.model.SkillSet;
+import com.almundo.callcenter.process.DispatchResult;
+
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary wire protocol of the cluster. Each frame is an int with the length of the rest of the frame, a byte with the {@link MessageType} and the payload.
+ * Strings are written as a short with the number of chars followed by the chars, the payloads are documented in each method.
+ * The frames received are validated while they are read, a frame that doesn't follow the protocol throws a ProtocolException so only its connection is closed
+ */
+final class ClusterProtocol {
+
+    /**
+     * Max size of a frame, a bigger length means the connection is corrupted
+     */
+    static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    /**
+     * Duration sent for new calls, the node receiving the call samples it
+     */
+    static final int NO_DURATION = -1;
+
+    private static final MessageType[] TYPES = MessageType.values();
+    private static final DispatchResult[] RESULTS = DispatchResult.values();
+
+    private ClusterProtocol() {
+    }
+
+    /**
+     * HELLO: listen host and listen port
+     */
+    static ByteBuffer hello(InetSocketAddress address) {
+        String host = address.getHostString();
+        ByteBuffer frame = frame(MessageType.HELLO, size(host) + 4);
+        putString(frame, host);
+        frame.putInt(address.getPort());
+        return flip(frame);
+    }
+
+    /**
+     * PEERS: number of nodes and the listen host and port of each one
+     */
+    static ByteBuffer peers(Collection<InetSocketAddress> addresses) {
+        int size = 4;
+        for (InetSocketAddress address : addresses) {
+            size += size(address.getHostString()) + 4;
+        }
+        ByteBuffer frame = frame(MessageType.PEERS, size);
+        frame.putInt(addresses.size());
+        for (InetSocketAddress address : addresses) {
+            putString(frame, address.getHostString());
+            frame.putInt(address.getPort());
+        }
+        return flip(frame);
+    }
+
+    /**
+     * AVAILABILITY: idle employees and waiting calls
+     */
+    static ByteBuffer availability(int idleEmployees, int waitingCalls) {
+        ByteBuffer frame = frame(MessageType.AVAILABILITY, 8);
+        frame.putInt(idleEmployees);
+        frame.putInt(waitingCalls);
+        return flip(frame);
+    }
+
+    /**
+     * HANDOFF: id of the handoff, priority, duration, call id and the words of the required skills preceded by their number
+     */
+    static ByteBuffer handoff(long handoffId, String callId, int priority, int duration, SkillSet requiredSkills) {
+        long[] skills = requiredSkills.toLongArray();
+        ByteBuffer frame = frame(MessageType.HANDOFF, 8 + 4 + 4 + size(callId) + 2 + 8 * skills.length);
+        frame.putLong(handoffId);
+        frame.putInt(priority);
+        frame.putInt(duration);
+        putString(frame, callId);
+        frame.putShort((short) skills.length);
+        for (long word : skills) {
+            frame.putLong(word);
+        }
+        return flip(frame);
+    }
+
+    /**
+     * HANDOFF_ACK: id of the handoff and the ordinal of the dispatch result
+     */
+    static ByteBuffer handoffAck(long handoffId, DispatchResult result) {
+        ByteBuffer frame = frame(MessageType.HANDOFF_ACK, 9);
+        frame.putLong(handoffId);
+        frame.put((byte) result.ordinal());
+        return flip(frame);
+    }
+
+    /**
+     * LEAVE: no payload
+     */
+    static ByteBuffer leave() {
+        return flip(frame(MessageType.LEAVE, 0));
+    }
+
+    /**
+     * Checks that the rest of the frame has the bytes of the next fields
+     *
+     * @throws ProtocolException if the frame is shorter
+     */
+    static void require(ByteBuffer frame, int bytes) throws ProtocolException {
+        if (frame.remaining() < bytes) {
+            throw new ProtocolException("Frame too short: " + frame.remaining() + " bytes left, " + bytes + " expected");
+        }
+    }
+
+    static MessageType getType(ByteBuffer frame) throws ProtocolException {
+        require(frame, 1);
+        int type = frame.get();
+        if (type < 0 || type >= TYPES.length) {
+            throw new ProtocolException("Unknown message type " + type);
+        }
+        return TYPES[type];
+    }
+
+    static InetSocketAddress getAddress(ByteBuffer frame) throws ProtocolException {
+        String host = getString(frame);
+        require(frame, 4);
+        int port = frame.getInt();
+        if (port < 0 || port > 0xFFFF) {
+            throw new ProtocolException("Invalid port " + port);
+        }
+        return new InetSocketAddress(host, port);
+    }
+
+    static List<InetSocketAddress> getAddresses(ByteBuffer frame) throws ProtocolException {
+        require(frame, 4);
+        int count = frame.getInt();
+        //Each address takes at least the length of the host and the port
+        if (count < 0 || count > frame.remaining() / 6) {
+            throw new ProtocolException("Invalid number of addresses " + count);
+        }
+        List<InetSocketAddress> addresses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            addresses.add(getAddress(frame));
+        }
+        return addresses;
+    }
+
+    static SkillSet getSkills(ByteBuffer frame) throws ProtocolException {
+        require(frame, 2);
+        int count = frame.getShort();
+        if (count < 0) {
+            throw new ProtocolException("Invalid number of skill words " + count);
+        }
+        require(frame, 8 * count);
+        long[] words = new long[count];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = frame.getLong();
+        }
+        return SkillSet.valueOf(words);
+    }
+
+    static DispatchResult getResult(ByteBuffer frame) throws ProtocolException {
+        require(frame, 1);
+        int result = frame.get();
+        if (result < 0 || result >= RESULTS.length) {
+            throw new ProtocolException("Unknown dispatch result " + result);
+        }
+        return RESULTS[result];
+    }
+
+    static String getString(ByteBuffer frame) throws ProtocolException {
+        require(frame, 2);
+        int length = frame.getShort();
+        if (length < 0) {
+            throw new ProtocolException("Invalid string length " + length);
+        }
+        require(frame, 2 * length);
+        char[] chars = new char[length];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = frame.getChar();
+        }
+        return new String(chars);
+    }
+
+    private static void putString(ByteBuffer frame, String value) {
+        frame.putShort((short) value.length());
+        for (int i = 0; i < value.length(); i++) {
+            frame.putChar(value.charAt(i));
+        }
+    }
+
+    private static int size(String value) {
+        return 2 + 2 * value.length();
+    }
+
+    private static ByteBuffer frame(MessageType type, int payloadSize) {
+        if (payloadSize + 1 > MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Message too big: " + payloadSize);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(4 + 1 + payloadSize);
+        frame.putInt(1 + payloadSize);
+        frame.put((byte) type.ordinal());
+        return frame;
+    }
+
+    private static ByteBuffer flip(ByteBuffer frame) {
+        frame.flip();
+        return frame;
+    }
+}
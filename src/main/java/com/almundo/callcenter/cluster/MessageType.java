@@ -0,0 +1,31 @@
+package com.almundo.callcenter.cluster;
+
+/**
+ * Model representing the messages exchanged by the nodes of the cluster, the ordinal is the type byte of each frame
+ */
+public enum MessageType {
+    /**
+     * First message of each connection with the address the node listens on
+     */
+    HELLO,
+    /**
+     * Addresses of the other nodes known by the node that accepted a connection, so a new node connects to all of them
+     */
+    PEERS,
+    /**
+     * Gossip with the idle employees and the waiting calls of a node
+     */
+    AVAILABILITY,
+    /**
+     * A call sent to another node to be answered there
+     */
+    HANDOFF,
+    /**
+     * Outcome of a call handed off, it echoes the id of the handoff so the node that sent it stops tracking the call
+     */
+    HANDOFF_ACK,
+    /**
+     * The node is leaving the cluster
+     */
+    LEAVE
+}
@@ -0,0 +1,81 @@
+package com.almundo.callcenter.cluster;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * View a node has of another node of the cluster, updated with the gossip received from it
+ */
+public class Peer {
+
+    private final InetSocketAddress address;
+
+    /**
+     * Connection used to send messages to the node
+     */
+    final ClusterNode.Connection connection;
+
+    private volatile int idleEmployees;
+    private volatile int waitingCalls;
+
+    /**
+     * Calls handed off to the node that haven't been acknowledged yet, they will take some of the idle employees of the last gossip
+     */
+    private final AtomicInteger callsInFlight;
+
+    Peer(InetSocketAddress address, ClusterNode.Connection connection) {
+        this.address = address;
+        this.connection = connection;
+        this.callsInFlight = new AtomicInteger(0);
+    }
+
+    /**
+     * @return the address the node listens on
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the idle employees of the node in its last gossip
+     */
+    public int getIdleEmployees() {
+        return idleEmployees;
+    }
+
+    /**
+     * @return the waiting calls of the node in its last gossip
+     */
+    public int getWaitingCalls() {
+        return waitingCalls;
+    }
+
+    public int getCallsInFlight() {
+        return callsInFlight.get();
+    }
+
+    /**
+     * @return the idle employees of the node that no call handed off from this node is expected to take
+     */
+    int getAvailableEmployees() {
+        return idleEmployees - callsInFlight.get();
+    }
+
+    void update(int idleEmployees, int waitingCalls) {
+        this.idleEmployees = idleEmployees;
+        this.waitingCalls = waitingCalls;
+    }
+
+    void callSent() {
+        callsInFlight.incrementAndGet();
+    }
+
+    void callAcknowledged() {
+        callsInFlight.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return address.getHostString() + ":" + address.getPort();
+    }
+}
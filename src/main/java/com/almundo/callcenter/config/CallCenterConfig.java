@@ -0,0 +1,284 @@
+package com.almundo.callcenter.config;
+
+import com.almundo.callcenter.process.Dispatcher;
+import com.almundo.callcenter.process.OverflowPolicy;
+import com.almundo.callcenter.process.ShardedDispatcher;
+import com.almundo.callcenter.util.Constants;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validated values of the tuning knobs of the call center, read from a properties file and from system properties so a limit can be changed without a rebuild.
+ * A system property named callcenter. followed by the key overrides the file, and the keys missing in both take the defaults of the Constants class.
+ * The instances are immutable, a new configuration is read each time the file changes
+ */
+public final class CallCenterConfig {
+
+    /**
+     * Prefix of the system properties overriding the keys of the file
+     */
+    public static final String PROPERTY_PREFIX = "callcenter.";
+
+    public static final String CALL_MIN_DURATION = "callMinDuration";
+    public static final String CALL_MAX_DURATION = "callMaxDuration";
+    public static final String NUMBER_OF_OPERATORS = "numberOfOperators";
+    public static final String NUMBER_OF_SUPERVISORS = "numberOfSupervisors";
+    public static final String NUMBER_OF_DIRECTORS = "numberOfDirectors";
+    public static final String CONCURRENCY_LIMIT = "concurrencyLimit";
+    public static final String MAX_WAITING_CALLS = "maxWaitingCalls";
+    public static final String OVERFLOW_POLICY = "overflowPolicy";
+    public static final String BLOCK_TIMEOUT_MILLIS = "blockTimeoutMillis";
+    public static final String SERVICE_LEVEL_TARGET_SECONDS = "serviceLevelTargetSeconds";
+    public static final String PATIENCE_SECONDS = "patienceSeconds";
+    public static final String ESCALATION_THRESHOLD = "escalationThreshold";
+
+    private final int callMinDuration;
+    private final int callMaxDuration;
+    private final int numberOfOperators;
+    private final int numberOfSupervisors;
+    private final int numberOfDirectors;
+
+    /**
+     * Max number of calls answered at the same time, zero to follow the size of the staff
+     */
+    private final int concurrencyLimit;
+
+    private final int maxWaitingCalls;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private final long serviceLevelTargetSeconds;
+    private final long patienceSeconds;
+    private final double escalationThreshold;
+
+    /**
+     * Reads and validates the values of the properties, the system properties override them
+     *
+     * @param properties the values by key
+     * @throws IllegalArgumentException if a value isn't valid
+     */
+    public CallCenterConfig(Properties properties) {
+        callMinDuration = intValue(properties, CALL_MIN_DURATION, Constants.CALL_MIN_DURATION, 1);
+        callMaxDuration = intValue(properties, CALL_MAX_DURATION, Constants.CALL_MAX_DURATION, callMinDuration);
+        numberOfOperators = intValue(properties, NUMBER_OF_OPERATORS, Constants.NUMBER_OF_OPERATORS, 0);
+        numberOfSupervisors = intValue(properties, NUMBER_OF_SUPERVISORS, Constants.NUMBER_OF_SUPERVISORS, 0);
+        numberOfDirectors = intValue(properties, NUMBER_OF_DIRECTORS, Constants.NUMBER_OF_DIRECTORS, 0);
+        concurrencyLimit = intValue(properties, CONCURRENCY_LIMIT, 0, 0);
+        maxWaitingCalls = intValue(properties, MAX_WAITING_CALLS, Constants.MAX_WAITING_CALLS, 1);
+        String policy = value(properties, OVERFLOW_POLICY, OverflowPolicy.REJECT.name());
+        try {
+            overflowPolicy = OverflowPolicy.valueOf(policy.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw invalid(OVERFLOW_POLICY, policy);
+        }
+        blockTimeoutMillis = longValue(properties, BLOCK_TIMEOUT_MILLIS, 0, 0);
+        serviceLevelTargetSeconds = longValue(properties, SERVICE_LEVEL_TARGET_SECONDS, Constants.SERVICE_LEVEL_TARGET_SECONDS, 1);
+        patienceSeconds = longValue(properties, PATIENCE_SECONDS, 0, 0);
+        String threshold = value(properties, ESCALATION_THRESHOLD, "0");
+        try {
+            escalationThreshold = Double.parseDouble(threshold);
+        } catch (NumberFormatException e) {
+            throw invalid(ESCALATION_THRESHOLD, threshold);
+        }
+        if (!(escalationThreshold >= 0 && escalationThreshold <= 1)) {
+            throw invalid(ESCALATION_THRESHOLD, threshold);
+        }
+        if (numberOfOperators + numberOfSupervisors + numberOfDirectors == 0) {
+            throw new IllegalArgumentException("The staff must have at least one employee");
+        }
+    }
+
+    /**
+     * @return the defaults of the Constants class overridden by the system properties
+     */
+    public static CallCenterConfig defaults() {
+        return new CallCenterConfig(new Properties());
+    }
+
+    /**
+     * Reads the configuration of a properties file, a missing file is taken as an empty one
+     *
+     * @param file the file
+     * @return the configuration
+     * @throws IOException              if the file can't be read
+     * @throws IllegalArgumentException if a value isn't valid
+     */
+    public static CallCenterConfig load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (NoSuchFileException e) {
+            //Only the system properties and the defaults apply
+        }
+        return new CallCenterConfig(properties);
+    }
+
+    /**
+     * Pushes the values that can be changed while calls are being answered to a dispatcher: the concurrency limit, the queue bounds, the wait deadlines and the call durations.
+     * The headcounts are only used when the staff is created
+     *
+     * @param dispatcher the dispatcher
+     */
+    public void applyTo(Dispatcher dispatcher) {
+        if (concurrencyLimit > 0) {
+            dispatcher.setSemaphoreCount(concurrencyLimit);
+        } else {
+            dispatcher.resetSemaphoreCount();
+        }
+        dispatcher.setQueueCapacity(maxWaitingCalls);
+        dispatcher.setOverflowPolicy(overflowPolicy, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+        dispatcher.setServiceLevel(serviceLevelTargetSeconds, patienceSeconds, escalationThreshold, TimeUnit.SECONDS);
+        dispatcher.setCallDurations(this::nextCallDuration);
+    }
+
+    /**
+     * Pushes the same values to a group of shards, the concurrency limit and the queue capacity are split among them
+     *
+     * @param dispatcher the sharded dispatcher
+     */
+    public void applyTo(ShardedDispatcher dispatcher) {
+        if (concurrencyLimit > 0) {
+            dispatcher.setSemaphoreCount(concurrencyLimit);
+        } else {
+            dispatcher.resetSemaphoreCount();
+        }
+        dispatcher.setQueueCapacity(maxWaitingCalls);
+        dispatcher.setOverflowPolicy(overflowPolicy, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+        dispatcher.setServiceLevel(serviceLevelTargetSeconds, patienceSeconds, escalationThreshold, TimeUnit.SECONDS);
+        dispatcher.setCallDurations(this::nextCallDuration);
+    }
+
+    /**
+     * @return a random duration in seconds between the min and the max call durations
+     */
+    public int nextCallDuration() {
+        return ThreadLocalRandom.current().nextInt(callMinDuration, callMaxDuration + 1);
+    }
+
+    public int getCallMinDuration() {
+        return callMinDuration;
+    }
+
+    public int getCallMaxDuration() {
+        return callMaxDuration;
+    }
+
+    public int getNumberOfOperators() {
+        return numberOfOperators;
+    }
+
+    public int getNumberOfSupervisors() {
+        return numberOfSupervisors;
+    }
+
+    public int getNumberOfDirectors() {
+        return numberOfDirectors;
+    }
+
+    /**
+     * @return the max number of calls answered at the same time, zero to follow the size of the staff
+     */
+    public int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    public int getMaxWaitingCalls() {
+        return maxWaitingCalls;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    public long getServiceLevelTargetSeconds() {
+        return serviceLevelTargetSeconds;
+    }
+
+    public long getPatienceSeconds() {
+        return patienceSeconds;
+    }
+
+    public double getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    private static String value(Properties properties, String key, String defaultValue) {
+        String value = System.getProperty(PROPERTY_PREFIX + key, properties.getProperty(key));
+        return value == null ? defaultValue : value.trim();
+    }
+
+    private static int intValue(Properties properties, String key, int defaultValue, int min) {
+        long value = longValue(properties, key, defaultValue, min);
+        if (value > Integer.MAX_VALUE) {
+            throw invalid(key, String.valueOf(value));
+        }
+        return (int) value;
+    }
+
+    private static long longValue(Properties properties, String key, long defaultValue, long min) {
+        String value = value(properties, key, String.valueOf(defaultValue));
+        long parsed;
+        try {
+            parsed = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw invalid(key, value);
+        }
+        if (parsed < min) {
+            throw new IllegalArgumentException("Value of " + key + " must be at least " + min + ": " + value);
+        }
+        return parsed;
+    }
+
+    private static IllegalArgumentException invalid(String key, String value) {
+        return new IllegalArgumentException("Invalid value of " + key + ": " + value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        CallCenterConfig that = (CallCenterConfig) o;
+        return callMinDuration == that.callMinDuration && callMaxDuration == that.callMaxDuration && numberOfOperators == that.numberOfOperators
+                && numberOfSupervisors == that.numberOfSupervisors && numberOfDirectors == that.numberOfDirectors && concurrencyLimit == that.concurrencyLimit
+                && maxWaitingCalls == that.maxWaitingCalls && overflowPolicy == that.overflowPolicy && blockTimeoutMillis == that.blockTimeoutMillis
+                && serviceLevelTargetSeconds == that.serviceLevelTargetSeconds && patienceSeconds == that.patienceSeconds
+                && Double.compare(escalationThreshold, that.escalationThreshold) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(callMinDuration, callMaxDuration, numberOfOperators, numberOfSupervisors, numberOfDirectors, concurrencyLimit, maxWaitingCalls,
+                overflowPolicy, blockTimeoutMillis, serviceLevelTargetSeconds, patienceSeconds, escalationThreshold);
+    }
+
+    @Override
+    public String toString() {
+        return "CallCenterConfig{" +
+                "callDuration=" + callMinDuration + "-" + callMaxDuration +
+                ", staff=" + numberOfOperators + "/" + numberOfSupervisors + "/" + numberOfDirectors +
+                ", concurrencyLimit=" + concurrencyLimit +
+                ", maxWaitingCalls=" + maxWaitingCalls +
+                ", overflowPolicy=" + overflowPolicy +
+                ", blockTimeoutMillis=" + blockTimeoutMillis +
+                ", serviceLevelTargetSeconds=" + serviceLevelTargetSeconds +
+                ", patienceSeconds=" + patienceSeconds +
+                ", escalationThreshold=" + escalationThreshold +
+                '}';
+    }
+}
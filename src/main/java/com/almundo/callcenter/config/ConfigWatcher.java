@@ -0,0 +1,129 @@
+package com.almundo.callcenter.config;
+
+import com.almundo.callcenter.util.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a configuration file and pushes each valid change to the listeners, so the limits of a running dispatcher are tuned by editing the file.
+ * A thread waits for the events of the directory of the file and reads it again when it's written; a change that doesn't pass the validation is logged and ignored, and the last valid configuration stays in force
+ */
+public class ConfigWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigWatcher.class);
+
+    private final Path file;
+    private final WatchService watchService;
+    private final Thread watchThread;
+    private final List<Consumer<CallCenterConfig>> listeners;
+    private volatile CallCenterConfig config;
+
+    /**
+     * Reads the file and starts watching it
+     *
+     * @param file the configuration file, it may not exist yet
+     * @throws IOException              if the file or its directory can't be read
+     * @throws IllegalArgumentException if a value of the file isn't valid
+     */
+    public ConfigWatcher(Path file) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.config = CallCenterConfig.load(this.file);
+        this.listeners = new CopyOnWriteArrayList<>();
+        watchService = this.file.getFileSystem().newWatchService();
+        this.file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchThread = new Thread(this::watch, "config-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    /**
+     * @return the last valid configuration read from the file
+     */
+    public CallCenterConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Adds a listener of the changes of the configuration, it receives the current configuration straight away
+     *
+     * @param listener the listener, called in the watcher thread for the changes
+     */
+    public void addListener(Consumer<CallCenterConfig> listener) {
+        listeners.add(listener);
+        listener.accept(config);
+    }
+
+    /**
+     * Reads the file again and pushes the configuration to the listeners if it changed
+     *
+     * @return true if a new configuration was pushed, false if it didn't change or isn't valid
+     */
+    public synchronized boolean reload() {
+        CallCenterConfig loaded;
+        try {
+            loaded = CallCenterConfig.load(file);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Configuration {} ignored: {}", file, e.getMessage());
+            return false;
+        }
+        if (loaded.equals(config)) {
+            return false;
+        }
+        config = loaded;
+        logger.info("Configuration changed: {}", loaded);
+        for (Consumer<CallCenterConfig> listener : listeners) {
+            try {
+                listener.accept(loaded);
+            } catch (RuntimeException e) {
+                logger.warn("Configuration change not applied: {}", e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops watching the file
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warn("Error closing configuration watcher: {}", e.getMessage());
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                //Editors write a file in several steps, the events are collected until the file settles so a half written file isn't read
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        //An overflow may hide an event of the file
+                        changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context());
+                    }
+                    key.reset();
+                    key = watchService.poll(Constants.CONFIG_SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //The watcher was closed
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.almundo.callcenter.ingest;
+
+import com.almundo.callcenter.process.Call;
+import com.almundo.callcenter.process.DispatchResult;
+import com.almundo.callcenter.process.Dispatcher;
+import com.almundo.callcenter.util.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Network endpoint where the switches push the arrival of new calls.
+ * A single thread runs a NIO selector: each read is decoded straight from the connection buffer, all the messages received are dispatched as a batch, one for each run of messages with the same priority, and their acks are sent back with a single write.
+ * When a client doesn't read its acks the server stops reading from it until they are written, and with the BLOCK overflow policy the calls that don't fit in the queue are rejected instead of blocking the thread of all the connections
+ */
+public class IngestionServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionServer.class);
+
+    /**
+     * Space for the separator, the result and the line end of a NEWLINE ack besides the call id
+     */
+    private static final int ACK_OVERHEAD = 16;
+
+    private static final byte[][] RESULT_NAMES;
+
+    static {
+        DispatchResult[] results = DispatchResult.values();
+        RESULT_NAMES = new byte[results.length][];
+        for (DispatchResult result : results) {
+            RESULT_NAMES[result.ordinal()] = (' ' + result.name() + '\n').getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final Dispatcher dispatcher;
+    private final MessageFraming framing;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread ioThread;
+    private volatile boolean running;
+
+    private final AtomicLong callsReceived;
+    private final AtomicLong callsRejected;
+    private final AtomicLong invalidMessages;
+
+    /**
+     * Creates a server listening on localhost
+     *
+     * @param dispatcher the dispatcher the calls are dispatched to
+     * @param port       the port, zero to use any free port
+     * @param framing    how the messages are delimited
+     * @throws IOException if the port can't be opened
+     */
+    public IngestionServer(Dispatcher dispatcher, int port, MessageFraming framing) throws IOException {
+        this(dispatcher, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), framing);
+    }
+
+    /**
+     * Creates a server and starts its IO thread
+     *
+     * @param dispatcher  the dispatcher the calls are dispatched to
+     * @param bindAddress the address the server listens on
+     * @param framing     how the messages are delimited
+     * @throws IOException if the address can't be opened
+     */
+    public IngestionServer(Dispatcher dispatcher, InetSocketAddress bindAddress, MessageFraming framing) throws IOException {
+        this.dispatcher = dispatcher;
+        this.framing = framing;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(bindAddress);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        callsReceived = new AtomicLong(0);
+        callsRejected = new AtomicLong(0);
+        invalidMessages = new AtomicLong(0);
+        running = true;
+        ioThread = new Thread(this::run, "call-ingestion-" + getPort());
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public MessageFraming getFraming() {
+        return framing;
+    }
+
+    public long getCallsReceived() {
+        return callsReceived.get();
+    }
+
+    /**
+     * @return the calls rejected by the dispatcher, because its queue was full or it was stopped
+     */
+    public long getCallsRejected() {
+        return callsRejected.get();
+    }
+
+    /**
+     * @return the messages that couldn't be decoded, they are acknowledged as rejected
+     */
+    public long getInvalidMessages() {
+        return invalidMessages.get();
+    }
+
+    /**
+     * Closes the server and all its connections, the calls already dispatched are answered by the dispatcher
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            logger.error("Interrupted Exception", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    process(key);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Ingestion server stopped", e);
+        } finally {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            } catch (IOException e) {
+                logger.warn("Error closing ingestion server: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void process(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            SocketChannel channel = server.accept();
+            if (channel != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.register(selector, SelectionKey.OP_READ, new Connection());
+            }
+            return;
+        }
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            if (key.isReadable()) {
+                int read = channel.read(connection.input);
+                decode(connection);
+                flush(key, connection);
+                if (read < 0) {
+                    channel.close();
+                }
+            } else if (key.isWritable() && flush(key, connection)) {
+                //The acks were written, so the messages left in the input buffer can be processed
+                decode(connection);
+                flush(key, connection);
+            }
+        } catch (IOException e) {
+            logger.warn("Ingestion connection closed: {}", e.getMessage());
+            channel.close();
+        }
+    }
+
+    /**
+     * Dispatches all the complete messages of the input buffer while there is room for their acks
+     */
+    private void decode(Connection connection) throws IOException {
+        ByteBuffer input = connection.input;
+        input.flip();
+        try {
+            if (framing == MessageFraming.NEWLINE) {
+                decodeLines(input, connection);
+            } else {
+                decodeFrames(input, connection);
+            }
+        } finally {
+            input.compact();
+            //The messages decoded before an invalid one were received, so they are dispatched even if the connection is closed
+            dispatch(connection);
+        }
+    }
+
+    private void decodeLines(ByteBuffer input, Connection connection) throws IOException {
+        byte[] bytes = input.array();
+        int offset = input.arrayOffset();
+        while (input.hasRemaining()) {
+            int start = offset + input.position();
+            int limit = offset + input.limit();
+            int end = indexOf(bytes, (byte) '\n', start, limit);
+            if (end < 0) {
+                if (input.remaining() == input.capacity()) {
+                    throw new IOException("Message too long");
+                }
+                return;
+            }
+            if (connection.output.remaining() - connection.reserved < end - start + ACK_OVERHEAD) {
+                return;
+            }
+            input.position(end + 1 - offset);
+            int lineEnd = end > start && bytes[end - 1] == '\r' ? end - 1 : end;
+            if (lineEnd == start) {
+                continue;
+            }
+            int comma = indexOf(bytes, (byte) ',', start, lineEnd);
+            int idEnd = comma < 0 ? lineEnd : comma;
+            int priority = comma < 0 ? Call.DEFAULT_PRIORITY : parseInt(bytes, comma + 1, lineEnd);
+            connection.add(new String(bytes, start, idEnd - start, StandardCharsets.US_ASCII), priority, priority != Integer.MIN_VALUE, end - start + ACK_OVERHEAD);
+        }
+    }
+
+    private void decodeFrames(ByteBuffer input, Connection connection) throws IOException {
+        byte[] bytes = input.array();
+        int offset = input.arrayOffset();
+        while (input.remaining() >= 4 && connection.output.remaining() > connection.reserved) {
+            int position = input.position();
+            int length = input.getInt(position);
+            if (length < 4 || length > input.capacity() - 4) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            if (input.remaining() < 4 + length) {
+                return;
+            }
+            int priority = input.getInt(position + 4);
+            String callId = new String(bytes, offset + position + 8, length - 4, StandardCharsets.US_ASCII);
+            input.position(position + 4 + length);
+            connection.add(callId, priority, !callId.isEmpty(), 1);
+        }
+    }
+
+    /**
+     * Dispatches the messages decoded from the input buffer, each run of valid messages with the same priority as a single batch, and puts their acks in the output buffer in the order the messages arrived
+     */
+    private void dispatch(Connection connection) {
+        List<String> callIds = connection.callIds;
+        DispatchResult[] results = connection.results;
+        int count = callIds.size();
+        int from = 0;
+        while (from < count) {
+            if (results[from] != null) {
+                from++;
+                continue;
+            }
+            int priority = connection.priorities[from];
+            int to = from + 1;
+            while (to < count && results[to] == null && connection.priorities[to] == priority) {
+                to++;
+            }
+            dispatch(callIds.subList(from, to), priority, results, from);
+            from = to;
+        }
+        ByteBuffer output = connection.output;
+        for (int i = 0; i < count; i++) {
+            if (framing == MessageFraming.NEWLINE) {
+                String callId = callIds.get(i);
+                for (int c = 0; c < callId.length(); c++) {
+                    output.put((byte) callId.charAt(c));
+                }
+                output.put(RESULT_NAMES[results[i].ordinal()]);
+            } else {
+                output.put((byte) results[i].ordinal());
+            }
+            results[i] = null;
+        }
+        callIds.clear();
+        connection.reserved = 0;
+    }
+
+    private void dispatch(List<String> callIds, int priority, DispatchResult[] results, int offset) {
+        callsReceived.addAndGet(callIds.size());
+        List<DispatchResult> dispatched;
+        try {
+            //The IO thread serves all the connections, so it's never blocked waiting for room in the queue
+            dispatched = dispatcher.dispatchCalls(callIds, priority, false);
+        } catch (RejectedExecutionException e) {
+            dispatched = null;
+        }
+        for (int i = 0; i < callIds.size(); i++) {
+            DispatchResult result = dispatched == null ? DispatchResult.REJECTED : dispatched.get(i);
+            if (result == DispatchResult.REJECTED) {
+                callsRejected.incrementAndGet();
+            }
+            results[offset + i] = result;
+        }
+    }
+
+    private DispatchResult invalid() {
+        invalidMessages.incrementAndGet();
+        return DispatchResult.REJECTED;
+    }
+
+    /**
+     * Writes the pending acks, the connection isn't read again until all of them are written
+     *
+     * @return true if all the acks were written
+     */
+    private boolean flush(SelectionKey key, Connection connection) throws IOException {
+        ByteBuffer output = connection.output;
+        output.flip();
+        ((SocketChannel) key.channel()).write(output);
+        boolean flushed = !output.hasRemaining();
+        output.compact();
+        if (key.isValid()) {
+            key.interestOps(flushed ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+        }
+        return flushed;
+    }
+
+    private static int indexOf(byte[] bytes, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a decimal number without creating a string
+     *
+     * @return the number or Integer.MIN_VALUE if it isn't a valid number
+     */
+    private static int parseInt(byte[] bytes, int from, int to) {
+        boolean negative = from < to && bytes[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to || to - i > 9) {
+            return Integer.MIN_VALUE;
+        }
+        int value = 0;
+        for (; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Buffers of a connection and the messages decoded from the last read, only used by the IO thread
+     */
+    private final class Connection {
+
+        private final ByteBuffer input = ByteBuffer.allocate(Constants.INGESTION_BUFFER_SIZE);
+
+        /**
+         * Big enough for the ack of the longest message
+         */
+        private final ByteBuffer output = ByteBuffer.allocate(Constants.INGESTION_BUFFER_SIZE + ACK_OVERHEAD);
+
+        /**
+         * Ids and priorities of the decoded messages, and the results already known, the ones of the invalid messages
+         */
+        private final List<String> callIds = new ArrayList<>();
+        private int[] priorities = new int[64];
+        private DispatchResult[] results = new DispatchResult[64];
+
+        /**
+         * Space of the output buffer kept for the acks of the decoded messages
+         */
+        private int reserved;
+
+        void add(String callId, int priority, boolean valid, int ackSize) {
+            int index = callIds.size();
+            if (index == priorities.length) {
+                priorities = Arrays.copyOf(priorities, index * 2);
+                results = Arrays.copyOf(results, index * 2);
+            }
+            callIds.add(callId);
+            priorities[index] = priority;
+            results[index] = valid ? null : invalid();
+            reserved += ackSize;
+        }
+    }
+}
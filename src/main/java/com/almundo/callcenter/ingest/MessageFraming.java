@@ -0,0 +1,15 @@
+package com.almundo.callcenter.ingest;
+
+/**
+ * Model representing how the call arrival messages are delimited in the stream of a connection
+ */
+public enum MessageFraming {
+    /**
+     * Text lines with the call id and optionally a comma and the priority, acknowledged with a line with the call id and the dispatch result
+     */
+    NEWLINE,
+    /**
+     * Binary frames with an int length, an int priority and the call id in ASCII, acknowledged with a byte with the ordinal of the dispatch result
+     */
+    LENGTH_PREFIXED
+}
@@ -0,0 +1,346 @@
+package com.almundo.callcenter.journal;
+
+import com.almundo.callcenter.model.SkillSet;
+import com.almundo.callcenter.util.Constants;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Journal of call events backed by a ring buffer of preallocated event records.
+ * The dispatch threads claim a slot with a CAS and fill it without taking any lock, a single background thread drains the slots in batches and writes them to the target sink, flushing the sink after each batch.
+ * Events can be sampled by call, so all the events of a sampled call are written and none of the others.
+ * Numeric call ids are kept as numbers in the slots, so they are formatted by the writer thread
+ */
+public class AsyncCallEventLog implements CallEventSink {
+
+    /**
+     * Max number of events written by the writer before publishing the free slots to the producers
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Time the writer sleeps when there aren't events, it's woken up as soon as a new event is recorded
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Slot[] slots;
+    private final int mask;
+    private final CallEventSink target;
+    private final LogOverflowPolicy overflowPolicy;
+    private final int sampleRate;
+
+    /**
+     * Sequence of the next slot to be claimed by a producer
+     */
+    private final AtomicLong tail;
+
+    /**
+     * Sequence of the next slot to be written, only updated by the writer
+     */
+    private volatile long head;
+
+    /**
+     * A counter for the events discarded because the buffer was full
+     */
+    private final AtomicLong eventsDropped;
+
+    private final AtomicBoolean started;
+    private volatile Thread writer;
+    private volatile boolean writerSleeping;
+    private volatile boolean closed;
+
+    /**
+     * Creates a log with EVENT_LOG_CAPACITY slots that blocks when it's full, writes all the events and writes them to the app log
+     */
+    public AsyncCallEventLog() {
+        this(Constants.EVENT_LOG_CAPACITY, LogOverflowPolicy.BLOCK, 1, CallEventSink.LOGGER);
+    }
+
+    /**
+     * Creates an asynchronous log
+     *
+     * @param capacity       number of slots of the ring buffer, rounded up to a power of two
+     * @param overflowPolicy what happens to new events when the buffer is full
+     * @param sampleRate     one of every sampleRate calls is written, 1 writes all of them
+     * @param target         the sink where the writer thread writes the events
+     */
+    public AsyncCallEventLog(int capacity, LogOverflowPolicy overflowPolicy, int sampleRate, CallEventSink target) {
+        if (capacity <= 0 || sampleRate <= 0) {
+            throw new IllegalArgumentException("Capacity and sample rate must be positive");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        size = Math.max(size, 2);
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+        this.sampleRate = sampleRate;
+        this.target = target;
+        tail = new AtomicLong();
+        eventsDropped = new AtomicLong();
+        started = new AtomicBoolean();
+    }
+
+    @Override
+    public void record(CallEventType type, String callId, String employeeId, int duration, int priority, long time) {
+        record(type, callId, employeeId, duration, priority, SkillSet.NONE, time);
+    }
+
+    @Override
+    public void record(CallEventType type, long callId, String employeeId, int duration, int priority, long time) {
+        record(type, callId, employeeId, duration, priority, SkillSet.NONE, time);
+    }
+
+    @Override
+    public void received(String callId, int duration, int priority, SkillSet requiredSkills, long time) {
+        record(CallEventType.RECEIVED, callId, null, duration, priority, requiredSkills, time);
+    }
+
+    @Override
+    public void received(long callId, int duration, int priority, SkillSet requiredSkills, long time) {
+        record(CallEventType.RECEIVED, callId, null, duration, priority, requiredSkills, time);
+    }
+
+    private void record(CallEventType type, String callId, String employeeId, int duration, int priority, SkillSet requiredSkills, long time) {
+        if (closed) {
+            write(type, callId, employeeId, duration, priority, requiredSkills, time);
+            return;
+        }
+        if (sampleRate > 1 && (callId.hashCode() & Integer.MAX_VALUE) % sampleRate != 0) {
+            return;
+        }
+        long sequence = claimSlot();
+        if (sequence < 0) {
+            if (overflowPolicy == LogOverflowPolicy.CALLER_WRITES) {
+                write(type, callId, employeeId, duration, priority, requiredSkills, time);
+            }
+            return;
+        }
+        Slot slot = slots[(int) sequence & mask];
+        slot.callId = callId;
+        publish(slot, sequence, type, employeeId, duration, priority, requiredSkills, time);
+    }
+
+    private void record(CallEventType type, long callId, String employeeId, int duration, int priority, SkillSet requiredSkills, long time) {
+        if (closed) {
+            write(type, callId, employeeId, duration, priority, requiredSkills, time);
+            return;
+        }
+        if (sampleRate > 1 && (Long.hashCode(callId) & Integer.MAX_VALUE) % sampleRate != 0) {
+            return;
+        }
+        long sequence = claimSlot();
+        if (sequence < 0) {
+            if (overflowPolicy == LogOverflowPolicy.CALLER_WRITES) {
+                write(type, callId, employeeId, duration, priority, requiredSkills, time);
+            }
+            return;
+        }
+        Slot slot = slots[(int) sequence & mask];
+        slot.callId = null;
+        slot.numericId = callId;
+        publish(slot, sequence, type, employeeId, duration, priority, requiredSkills, time);
+    }
+
+    /**
+     * Writes an event to the target, the arrivals with the skills of the call
+     */
+    private void write(CallEventType type, String callId, String employeeId, int duration, int priority, SkillSet requiredSkills, long time) {
+        if (type == CallEventType.RECEIVED) {
+            target.received(callId, duration, priority, requiredSkills, time);
+        } else {
+            target.record(type, callId, employeeId, duration, priority, time);
+        }
+    }
+
+    private void write(CallEventType type, long callId, String employeeId, int duration, int priority, SkillSet requiredSkills, long time) {
+        if (type == CallEventType.RECEIVED) {
+            target.received(callId, duration, priority, requiredSkills, time);
+        } else {
+            target.record(type, callId, employeeId, duration, priority, time);
+        }
+    }
+
+    /**
+     * Claims a slot applying the overflow policy when the buffer is full
+     *
+     * @return the sequence of the slot or -1 if the event must not be buffered
+     */
+    private long claimSlot() {
+        startWriter();
+        long sequence = claim();
+        if (sequence < 0) {
+            if (overflowPolicy == LogOverflowPolicy.DROP) {
+                eventsDropped.incrementAndGet();
+                return -1;
+            }
+            if (overflowPolicy == LogOverflowPolicy.CALLER_WRITES) {
+                return -1;
+            }
+            do {
+                wakeUpWriter();
+                LockSupport.parkNanos(1_000L);
+                sequence = claim();
+            } while (sequence < 0);
+        }
+        return sequence;
+    }
+
+    private void publish(Slot slot, long sequence, CallEventType type, String employeeId, int duration, int priority, SkillSet requiredSkills, long time) {
+        slot.type = type;
+        slot.employeeId = employeeId;
+        slot.requiredSkills = requiredSkills;
+        slot.duration = duration;
+        slot.priority = priority;
+        slot.time = time;
+        //Publishing the sequence makes the values written above visible to the writer
+        slot.published = sequence;
+        if (writerSleeping) {
+            wakeUpWriter();
+        }
+    }
+
+    /**
+     * Writes the pending events and stops the writer thread
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Thread current = writer;
+        if (current == null) {
+            return;
+        }
+        LockSupport.unpark(current);
+        try {
+            current.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        //Events claimed by producers that checked the log just before it was closed
+        while (head != tail.get()) {
+            if (drain() == 0) {
+                Thread.yield();
+            }
+        }
+        target.flush();
+    }
+
+    /**
+     * @return number of events recorded but not written yet
+     */
+    public long getPendingEvents() {
+        return tail.get() - head;
+    }
+
+    public long getEventsDropped() {
+        return eventsDropped.get();
+    }
+
+    /**
+     * Takes the next free slot of the buffer
+     *
+     * @return the sequence of the slot or -1 if the buffer is full
+     */
+    private long claim() {
+        while (true) {
+            long current = tail.get();
+            if (current - head >= slots.length) {
+                return -1;
+            }
+            if (tail.compareAndSet(current, current + 1)) {
+                return current;
+            }
+        }
+    }
+
+    private void startWriter() {
+        if (!started.get() && started.compareAndSet(false, true)) {
+            Thread thread = new Thread(this::writeEvents, "call-event-writer");
+            thread.setDaemon(true);
+            writer = thread;
+            thread.start();
+        }
+    }
+
+    private void wakeUpWriter() {
+        Thread current = writer;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    /**
+     * Loop of the writer thread, it drains the buffer in batches and sleeps while it's empty
+     */
+    private void writeEvents() {
+        while (true) {
+            if (drain() > 0) {
+                continue;
+            }
+            if (closed && head == tail.get()) {
+                return;
+            }
+            writerSleeping = true;
+            if (head == tail.get() && !closed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            writerSleeping = false;
+        }
+    }
+
+    /**
+     * Writes up to BATCH_SIZE published events in order
+     *
+     * @return the number of events written
+     */
+    private int drain() {
+        long next = head;
+        int written = 0;
+        while (written < BATCH_SIZE) {
+            Slot slot = slots[(int) next & mask];
+            if (slot.published != next) {
+                //The slot is empty or the producer that claimed it is still filling it
+                break;
+            }
+            if (slot.callId != null) {
+                write(slot.type, slot.callId, slot.employeeId, slot.duration, slot.priority, slot.requiredSkills, slot.time);
+            } else {
+                write(slot.type, slot.numericId, slot.employeeId, slot.duration, slot.priority, slot.requiredSkills, slot.time);
+            }
+            slot.callId = null;
+            slot.employeeId = null;
+            slot.requiredSkills = null;
+            next++;
+            written++;
+        }
+        if (written > 0) {
+            target.flush();
+            head = next;
+        }
+        return written;
+    }
+
+    /**
+     * Preallocated event record, reused every time the buffer wraps around
+     */
+    private static final class Slot {
+        private CallEventType type;
+        private String callId;
+        /**
+         * Id of the call when callId is null
+         */
+        private long numericId;
+        private String employeeId;
+        private SkillSet requiredSkills;
+        private int duration;
+        private int priority;
+        private long time;
+        private volatile long published = -1;
+    }
+}
@@ -0,0 +1,128 @@
+package com.almundo.callcenter.journal;
+
+import com.almundo.callcenter.model.SkillSet;
+
+/**
+ * Receives the events in the lifecycle of the calls, the values are passed as primitives and references to existing objects so recording an event doesn't need to allocate memory
+ */
+public interface CallEventSink {
+
+    /**
+     * Sink that logs each event synchronously in the thread that records it
+     */
+    CallEventSink LOGGER = new LoggingCallEventSink();
+
+    /**
+     * Records an event of a call
+     *
+     * @param type       the type of the event
+     * @param callId     the id of the call
+     * @param employeeId the id of the employee answering the call, null if it isn't assigned yet
+     * @param duration   the duration of the call in seconds
+     * @param priority   the priority of the call
+     * @param time       time in nanoseconds of the dispatcher clock when the event happened
+     */
+    void record(CallEventType type, String callId, String employeeId, int duration, int priority, long time);
+
+    /**
+     * Records an event of a call with a numeric id, by default the id is formatted and recorded as a string.
+     * Sinks that don't write the id straight away keep it as a number, so it's only formatted if the event is written
+     *
+     * @param type       the type of the event
+     * @param callId     the numeric id of the call
+     * @param employeeId the id of the employee answering the call, null if it isn't assigned yet
+     * @param duration   the duration of the call in seconds
+     * @param priority   the priority of the call
+     * @param time       time in nanoseconds of the dispatcher clock when the event happened
+     */
+    default void record(CallEventType type, long callId, String employeeId, int duration, int priority, long time) {
+        record(type, Long.toString(callId), employeeId, duration, priority, time);
+    }
+
+    /**
+     * Records the arrival of a call together with the skills it requires, so a durable sink can queue the call again with them. By default it's recorded as a RECEIVED event without the skills
+     *
+     * @param callId         the id of the call
+     * @param duration       the duration of the call in seconds
+     * @param priority       the priority of the call
+     * @param requiredSkills the skills the employee needs to answer the call
+     * @param time           time in nanoseconds of the dispatcher clock when the call arrived
+     */
+    default void received(String callId, int duration, int priority, SkillSet requiredSkills, long time) {
+        record(CallEventType.RECEIVED, callId, null, duration, priority, time);
+    }
+
+    /**
+     * Records the arrival of a call with a numeric id together with the skills it requires, by default the id is formatted
+     *
+     * @see #received(String, int, int, SkillSet, long)
+     */
+    default void received(long callId, int duration, int priority, SkillSet requiredSkills, long time) {
+        received(Long.toString(callId), duration, priority, requiredSkills, time);
+    }
+
+    /**
+     * Makes the events recorded so far durable, asynchronous sinks call it after writing each batch of events
+     */
+    default void flush() {
+    }
+
+    /**
+     * Writes the pending events and releases the resources of the sink
+     */
+    default void close() {
+    }
+
+    /**
+     * Creates a sink that records each event in all the given sinks, in order
+     *
+     * @param sinks the sinks
+     * @return the sink
+     */
+    static CallEventSink tee(CallEventSink... sinks) {
+        CallEventSink[] targets = sinks.clone();
+        return new CallEventSink() {
+            @Override
+            public void record(CallEventType type, String callId, String employeeId, int duration, int priority, long time) {
+                for (CallEventSink target : targets) {
+                    target.record(type, callId, employeeId, duration, priority, time);
+                }
+            }
+
+            @Override
+            public void record(CallEventType type, long callId, String employeeId, int duration, int priority, long time) {
+                for (CallEventSink target : targets) {
+                    target.record(type, callId, employeeId, duration, priority, time);
+                }
+            }
+
+            @Override
+            public void received(String callId, int duration, int priority, SkillSet requiredSkills, long time) {
+                for (CallEventSink target : targets) {
+                    target.received(callId, duration, priority, requiredSkills, time);
+                }
+            }
+
+            @Override
+            public void received(long callId, int duration, int priority, SkillSet requiredSkills, long time) {
+                for (CallEventSink target : targets) {
+                    target.received(callId, duration, priority, requiredSkills, time);
+                }
+            }
+
+            @Override
+            public void flush() {
+                for (CallEventSink target : targets) {
+                    target.flush();
+                }
+            }
+
+            @Override
+            public void close() {
+                for (CallEventSink target : targets) {
+                    target.close();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,31 @@
+package com.almundo.callcenter.journal;
+
+/**
+ * Model representing the events in the lifecycle of a call
+ */
+public enum CallEventType {
+    /**
+     * A new call arrived to the dispatcher
+     */
+    RECEIVED,
+    /**
+     * An employee started answering the call
+     */
+    ASSIGNED,
+    /**
+     * The call was answered and the employee is free again
+     */
+    COMPLETED,
+    /**
+     * The call left without being answered, because the queue was full or it was dropped to make room for a newer call
+     */
+    REJECTED,
+    /**
+     * The call was sent to another node of the cluster, which will answer it
+     */
+    HANDED_OFF,
+    /**
+     * The caller hung up after waiting in the queue longer than its patience
+     */
+    ABANDONED
+}
@@ -0,0 +1,19 @@
+package com.almundo.callcenter.journal;
+
+/**
+ * Model representing what happens to a new event when the ring buffer of the asynchronous log is full
+ */
+public enum LogOverflowPolicy {
+    /**
+     * The event is discarded and counted
+     */
+    DROP,
+    /**
+     * The thread recording the event waits until the writer makes room
+     */
+    BLOCK,
+    /**
+     * The event is written synchronously by the thread recording it
+     */
+    CALLER_WRITES
+}
@@ -0,0 +1,65 @@
+package com.almundo.callcenter.journal;
+
+import com.almundo.callcenter.process.Call;
+import com.almundo.callcenter.process.Dispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sink that writes the call events to the log, using the same loggers and messages the dispatcher and the calls have always used
+ */
+public class LoggingCallEventSink implements CallEventSink {
+
+    private static final Logger dispatcherLogger = LoggerFactory.getLogger(Dispatcher.class);
+    private static final Logger callLogger = LoggerFactory.getLogger(Call.class);
+
+    @Override
+    public void record(CallEventType type, String callId, String employeeId, int duration, int priority, long time) {
+        if (!isLogged(type)) {
+            return;
+        }
+        switch (type) {
+            case RECEIVED:
+                dispatcherLogger.info("========New call: {}", callId);
+                break;
+            case ASSIGNED:
+                callLogger.info("++++++++Answering call: {} Employee: {} Duration: {}", callId, employeeId, duration);
+                break;
+            case COMPLETED:
+                callLogger.info("--------Call answered: {} Employee: {} Duration: {}", callId, employeeId, duration);
+                break;
+            case HANDED_OFF:
+                dispatcherLogger.info("========Call handed off: {} Node: {}", callId, employeeId);
+                break;
+            case ABANDONED:
+                dispatcherLogger.info("========Call abandoned: {}", callId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * The numeric id is only formatted if the event is logged
+     */
+    @Override
+    public void record(CallEventType type, long callId, String employeeId, int duration, int priority, long time) {
+        if (isLogged(type)) {
+            record(type, Long.toString(callId), employeeId, duration, priority, time);
+        }
+    }
+
+    private static boolean isLogged(CallEventType type) {
+        switch (type) {
+            case RECEIVED:
+            case HANDED_OFF:
+            case ABANDONED:
+                return dispatcherLogger.isInfoEnabled();
+            case ASSIGNED:
+            case COMPLETED:
+                return callLogger.isInfoEnabled();
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package com.almundo.callcenter.journal;
+
+import com.almundo.callcenter.model.SkillSet;
+import com.almundo.callcenter.util.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Durable append-only journal of call events, written to memory-mapped segment files.
+ * Each record has its length and a CRC32 so a record torn by a crash is detected and ignored when the journal is read again.
+ * The segments are forced to disk in group commits, at most once every commit interval when the events are flushed, so the cost of the fsync is shared by all the events of the interval. A flush that comes before the end of the interval schedules a force for the end of it, so the last events are forced even if no more events arrive.
+ * The arrivals are stored with the skills the calls require, so the pending calls are recovered with them.
+ * The journal keeps the calls that weren't answered while it's written, so every time a segment is full the next one starts with a checkpoint of them and the previous segments are deleted, the same compaction done when a journal is opened after replaying its segments.
+ * It's meant to be the target of an {@link AsyncCallEventLog} so the dispatch threads never wait for the disk
+ */
+public class MappedCallJournal implements CallEventSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedCallJournal.class);
+
+    private static final String SEGMENT_PREFIX = "calls-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    /**
+     * Record type used for the checkpoint written when the journal is compacted, the time of the record holds the calls answered
+     */
+    private static final byte CHECKPOINT = -1;
+
+    /**
+     * Length and CRC32 of each record
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Max number of characters of the ids stored in the journal
+     */
+    private static final int MAX_ID_LENGTH = 256;
+
+    /**
+     * Max number of words of the skills stored in the journal, enough for the skills 0 to 1023
+     */
+    private static final int MAX_SKILL_WORDS = 16;
+
+    private static final int MAX_RECORD_SIZE = 1 + 4 + 4 + 8 + 2 * (2 + 2 * MAX_ID_LENGTH) + 2 + 8 * MAX_SKILL_WORDS;
+
+    private static final CallEventType[] TYPES = CallEventType.values();
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long commitInterval;
+    private final RecoveredCalls recoveredCalls;
+
+    /**
+     * Buffer where each record is encoded before computing its CRC and copying it to the segment, reused to avoid allocations
+     */
+    private final byte[] scratch;
+    private final ByteBuffer scratchBuffer;
+    private final CRC32 crc;
+
+    /**
+     * Calls received and not answered yet in their arrival order, and the calls answered, kept up to date with the events written so they can be checkpointed
+     */
+    private final Map<String, RecoveredCalls.PendingCall> pending;
+    private long answered;
+
+    /**
+     * Whether a checkpoint is being written, a segment filled by the checkpoint itself is followed by a plain new segment
+     */
+    private boolean checkpointing;
+
+    private MappedByteBuffer segment;
+    private int segmentNumber;
+    private long lastCommit;
+    private boolean dirty;
+    private boolean closed;
+
+    /**
+     * Runs the forces scheduled for the end of the commit intervals, created on the first one
+     */
+    private ScheduledExecutorService flusher;
+
+    /**
+     * Whether a force is scheduled for the end of the current commit interval
+     */
+    private boolean flushScheduled;
+
+    /**
+     * Opens the journal in the given folder with segments of JOURNAL_SEGMENT_SIZE bytes and a group commit every JOURNAL_COMMIT_MILLIS milliseconds
+     *
+     * @param directory the folder of the journal, it's created if it doesn't exist
+     */
+    public MappedCallJournal(Path directory) {
+        this(directory, Constants.JOURNAL_SEGMENT_SIZE, Constants.JOURNAL_COMMIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the journal in the given folder, recovering the state stored in it
+     *
+     * @param directory      the folder of the journal, it's created if it doesn't exist
+     * @param segmentSize    size in bytes of each segment file
+     * @param commitInterval min time between two forces of the segment to disk, zero forces it on every flush
+     * @param unit           the unit of the commit interval
+     */
+    public MappedCallJournal(Path directory, int segmentSize, long commitInterval, TimeUnit unit) {
+        if (segmentSize < HEADER_SIZE + MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.commitInterval = unit.toNanos(commitInterval);
+        scratch = new byte[MAX_RECORD_SIZE];
+        scratchBuffer = ByteBuffer.wrap(scratch);
+        crc = new CRC32();
+        pending = new LinkedHashMap<>();
+        try {
+            Files.createDirectories(directory);
+            List<Path> segments = listSegments();
+            recoveredCalls = replay(segments);
+            checkpoint(segments);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open the call journal in " + directory, e);
+        }
+    }
+
+    /**
+     * @return the state stored in the journal when it was opened
+     */
+    public RecoveredCalls getRecoveredCalls() {
+        return recoveredCalls;
+    }
+
+    @Override
+    public synchronized void record(CallEventType type, String callId, String employeeId, int duration, int priority, long time) {
+        if (check(type, callId, employeeId)) {
+            append((byte) type.ordinal(), callId, employeeId, duration, priority, SkillSet.NONE, time);
+            apply((byte) type.ordinal(), callId, priority, duration, SkillSet.NONE, time);
+        }
+    }
+
+    @Override
+    public synchronized void received(String callId, int duration, int priority, SkillSet requiredSkills, long time) {
+        if (!check(CallEventType.RECEIVED, callId, null)) {
+            return;
+        }
+        if (requiredSkills.length() > MAX_SKILL_WORDS * 64) {
+            logger.error("Skills too high to be stored in the journal, call {} recorded without them", callId);
+            requiredSkills = SkillSet.NONE;
+        }
+        append((byte) CallEventType.RECEIVED.ordinal(), callId, null, duration, priority, requiredSkills, time);
+        apply((byte) CallEventType.RECEIVED.ordinal(), callId, priority, duration, requiredSkills, time);
+    }
+
+    /**
+     * @return false if the ids of the event are too long to be stored
+     */
+    private boolean check(CallEventType type, String callId, String employeeId) {
+        if (closed) {
+            throw new IllegalStateException("Journal closed");
+        }
+        if (callId.length() > MAX_ID_LENGTH || (employeeId != null && employeeId.length() > MAX_ID_LENGTH)) {
+            logger.error("Id too long to be stored in the journal, event {} of call {} ignored", type, callId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forces the segment to disk if the commit interval elapsed since the last force, otherwise the force is scheduled for the end of the interval
+     */
+    @Override
+    public synchronized void flush() {
+        if (!dirty || closed) {
+            return;
+        }
+        long now = System.nanoTime();
+        long wait = lastCommit + commitInterval - now;
+        if (wait <= 0) {
+            segment.force();
+            lastCommit = now;
+            dirty = false;
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            if (flusher == null) {
+                flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+                    Thread thread = new Thread(task, "call-journal-flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            flusher.schedule(this::scheduledFlush, wait, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized void scheduledFlush() {
+        flushScheduled = false;
+        flush();
+    }
+
+    /**
+     * Forces the pending records to disk and closes the journal
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        segment.force();
+        closed = true;
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+    }
+
+    private void append(byte type, String callId, String employeeId, int duration, int priority, SkillSet requiredSkills, long time) {
+        //The segment rolls before the record is encoded, the checkpoint written by the roll reuses the scratch buffer
+        if (segment.remaining() < HEADER_SIZE + MAX_RECORD_SIZE) {
+            roll();
+        }
+        scratchBuffer.clear();
+        scratchBuffer.put(type);
+        scratchBuffer.putInt(priority);
+        scratchBuffer.putInt(duration);
+        scratchBuffer.putLong(time);
+        putString(callId);
+        putString(employeeId);
+        long[] words = requiredSkills.toLongArray();
+        scratchBuffer.putShort((short) words.length);
+        for (long word : words) {
+            scratchBuffer.putLong(word);
+        }
+        int length = scratchBuffer.position();
+        crc.reset();
+        crc.update(scratch, 0, length);
+        segment.putInt(length);
+        segment.putInt((int) crc.getValue());
+        segment.put(scratch, 0, length);
+        dirty = true;
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            scratchBuffer.putShort((short) -1);
+            return;
+        }
+        scratchBuffer.putShort((short) value.length());
+        for (int i = 0; i < value.length(); i++) {
+            scratchBuffer.putChar(value.charAt(i));
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar();
+        }
+        return new String(chars);
+    }
+
+    /**
+     * The records written before the skills were stored end after the ids, their calls don't require skills
+     */
+    private static SkillSet getSkills(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            return SkillSet.NONE;
+        }
+        long[] words = new long[buffer.getShort()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buffer.getLong();
+        }
+        return SkillSet.valueOf(words);
+    }
+
+    /**
+     * Forces the current segment and continues writing in a new one that starts with a checkpoint, unless the segment was filled by a checkpoint
+     */
+    private void roll() {
+        segment.force();
+        try {
+            if (checkpointing) {
+                openSegment(segmentNumber + 1);
+            } else {
+                checkpoint(listSegments());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create a new journal segment in " + directory, e);
+        }
+    }
+
+    private void openSegment(int number) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            //The mapping stays valid after the channel is closed
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segmentNumber = number;
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private static int segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Reads all the records of the segments rebuilding the calls answered and the calls pending, a torn record ends the segment
+     */
+    private RecoveredCalls replay(List<Path> segments) throws IOException {
+        long records = 0;
+        for (Path path : segments) {
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE || length > buffer.remaining()) {
+                    break;
+                }
+                buffer.get(scratch, 0, length);
+                crc.reset();
+                crc.update(scratch, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    logger.warn("Torn record found in journal segment {}, the rest of the segment is ignored", path);
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.wrap(scratch, 0, length);
+                byte type = record.get();
+                int priority = record.getInt();
+                int duration = record.getInt();
+                long time = record.getLong();
+                String callId = getString(record);
+                getString(record);
+                SkillSet requiredSkills = getSkills(record);
+                records++;
+                apply(type, callId, priority, duration, requiredSkills, time);
+            }
+        }
+        if (records > 0) {
+            logger.info("Call journal recovered: {} records, {} calls answered, {} calls pending", records, answered, pending.size());
+        }
+        return new RecoveredCalls(answered, new ArrayList<>(pending.values()));
+    }
+
+    /**
+     * Updates the calls pending and answered with an event, the same way when the event is written and when it's replayed
+     */
+    private void apply(byte type, String callId, int priority, int duration, SkillSet requiredSkills, long time) {
+        if (type == CHECKPOINT) {
+            pending.clear();
+            answered = time;
+            return;
+        }
+        switch (TYPES[type]) {
+            case RECEIVED:
+                pending.put(callId, new RecoveredCalls.PendingCall(callId, priority, duration, false, requiredSkills));
+                break;
+            case ASSIGNED:
+                RecoveredCalls.PendingCall received = pending.get(callId);
+                if (received != null) {
+                    pending.put(callId, new RecoveredCalls.PendingCall(callId, priority, duration, true, received.getRequiredSkills()));
+                }
+                break;
+            case COMPLETED:
+                if (pending.remove(callId) != null) {
+                    answered++;
+                }
+                break;
+            case REJECTED:
+            case HANDED_OFF:
+            case ABANDONED:
+                pending.remove(callId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Writes the calls pending and answered in a new segment and deletes the given ones, if the process stops before the old segments are deleted the checkpoint makes the replay ignore them
+     */
+    private void checkpoint(List<Path> segments) throws IOException {
+        int number = segments.isEmpty() ? 0 : segmentNumber(segments.get(segments.size() - 1)) + 1;
+        openSegment(number);
+        if (segments.isEmpty()) {
+            return;
+        }
+        checkpointing = true;
+        try {
+            append(CHECKPOINT, "", null, 0, 0, SkillSet.NONE, answered);
+            for (RecoveredCalls.PendingCall call : pending.values()) {
+                append((byte) CallEventType.RECEIVED.ordinal(), call.getCallId(), null, call.getDuration(), call.getPriority(), call.getRequiredSkills(), 0);
+                if (call.isInProgress()) {
+                    append((byte) CallEventType.ASSIGNED.ordinal(), call.getCallId(), null, call.getDuration(), call.getPriority(), SkillSet.NONE, 0);
+                }
+            }
+        } finally {
+            checkpointing = false;
+        }
+        segment.force();
+        lastCommit = System.nanoTime();
+        dirty = false;
+        for (Path path : segments) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
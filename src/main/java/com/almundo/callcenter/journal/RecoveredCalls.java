@@ -0,0 +1,78 @@
+package com.almundo.callcenter.journal;
+
+import com.almundo.callcenter.model.SkillSet;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * State of the dispatcher rebuilt from a journal or left by a shutdown: the number of calls answered and the calls that weren't answered, in the order they arrived
+ */
+public final class RecoveredCalls {
+
+    private final long callsAnswered;
+    private final List<PendingCall> pendingCalls;
+
+    public RecoveredCalls(long callsAnswered, List<PendingCall> pendingCalls) {
+        this.callsAnswered = callsAnswered;
+        this.pendingCalls = Collections.unmodifiableList(pendingCalls);
+    }
+
+    public long getCallsAnswered() {
+        return callsAnswered;
+    }
+
+    /**
+     * @return the calls that were waiting in the queue or being answered, ordered by arrival
+     */
+    public List<PendingCall> getPendingCalls() {
+        return pendingCalls;
+    }
+
+    /**
+     * A call that was received but not answered completely
+     */
+    public static final class PendingCall {
+
+        private final String callId;
+        private final int priority;
+        private final int duration;
+        private final boolean inProgress;
+        private final SkillSet requiredSkills;
+
+        public PendingCall(String callId, int priority, int duration, boolean inProgress) {
+            this(callId, priority, duration, inProgress, SkillSet.NONE);
+        }
+
+        public PendingCall(String callId, int priority, int duration, boolean inProgress, SkillSet requiredSkills) {
+            this.callId = callId;
+            this.priority = priority;
+            this.duration = duration;
+            this.inProgress = inProgress;
+            this.requiredSkills = requiredSkills;
+        }
+
+        public String getCallId() {
+            return callId;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public int getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return true if an employee was answering the call when the journal or the dispatcher was interrupted
+         */
+        public boolean isInProgress() {
+            return inProgress;
+        }
+
+        public SkillSet getRequiredSkills() {
+            return requiredSkills;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.almundo.callcenter.loadgen;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process generating the arrival times of the calls of a load.
+ * The processes keep their state between arrivals, so each instance must be used to generate a single sequence of arrivals
+ */
+public interface ArrivalProcess {
+
+    /**
+     * Generates the arrival of the next call
+     *
+     * @param time   the arrival time of the previous call in nanoseconds from the start of the load, zero for the first call
+     * @param random the source of randomness
+     * @return the arrival time of the next call in nanoseconds from the start of the load
+     */
+    long nextArrival(long time, Random random);
+
+    /**
+     * Calls arriving independently at a constant rate, the time between arrivals is exponentially distributed
+     *
+     * @param callsPerSecond the mean number of calls per second
+     * @return the process
+     */
+    static ArrivalProcess poisson(double callsPerSecond) {
+        return new PiecewisePoissonArrivals(1, TimeUnit.SECONDS, new double[]{callsPerSecond});
+    }
+
+    /**
+     * Calls arriving in bursts: the process alternates between calm and burst periods of exponentially distributed length, with Poisson arrivals at a different rate in each one.
+     * The rates are set so the long term rate is the given one
+     *
+     * @param callsPerSecond   the long term mean number of calls per second
+     * @param burstFactor      how many times the rate of the bursts is bigger than the calm rate
+     * @param meanBurstSeconds the mean length of the bursts
+     * @param meanCalmSeconds  the mean length of the periods between bursts
+     * @return the process
+     */
+    static ArrivalProcess bursty(double callsPerSecond, double burstFactor, double meanBurstSeconds, double meanCalmSeconds) {
+        return new BurstyArrivals(callsPerSecond, burstFactor, meanBurstSeconds, meanCalmSeconds);
+    }
+
+    /**
+     * Poisson arrivals whose rate follows a curve, like the calls of each hour of the day, repeating the curve once it ends
+     *
+     * @param interval       the length of each point of the curve
+     * @param unit           the unit of the interval
+     * @param callsPerSecond the mean number of calls per second during each interval
+     * @return the process
+     */
+    static ArrivalProcess curve(long interval, TimeUnit unit, double... callsPerSecond) {
+        return new PiecewisePoissonArrivals(interval, unit, callsPerSecond);
+    }
+}
@@ -0,0 +1,60 @@
+package com.almundo.callcenter.loadgen;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Markov modulated Poisson arrivals with two states, calm and burst, each one lasting an exponentially distributed time
+ */
+final class BurstyArrivals implements ArrivalProcess {
+
+    private final double calmRate;
+    private final double burstRate;
+    private final double meanCalm;
+    private final double meanBurst;
+
+    private boolean burst;
+
+    /**
+     * Time when the current state ends, negative until the first arrival is generated
+     */
+    private double stateEnd = -1;
+
+    BurstyArrivals(double callsPerSecond, double burstFactor, double meanBurstSeconds, double meanCalmSeconds) {
+        if (callsPerSecond <= 0 || burstFactor < 1 || meanBurstSeconds <= 0 || meanCalmSeconds <= 0) {
+            throw new IllegalArgumentException("The rate and the lengths must be positive and the burst factor at least one");
+        }
+        double nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+        meanCalm = meanCalmSeconds * nanosPerSecond;
+        meanBurst = meanBurstSeconds * nanosPerSecond;
+        //The long term rate is the mean of the rates of both states weighted by their mean length
+        double calm = callsPerSecond * (meanCalmSeconds + meanBurstSeconds) / (meanCalmSeconds + burstFactor * meanBurstSeconds);
+        calmRate = calm / nanosPerSecond;
+        burstRate = calm * burstFactor / nanosPerSecond;
+    }
+
+    @Override
+    public long nextArrival(long time, Random random) {
+        double now = time;
+        if (stateEnd < 0) {
+            //Starts in each state with the probability of being in it in the long term
+            burst = random.nextDouble() < meanBurst / (meanBurst + meanCalm);
+            stateEnd = now + exponential(burst ? meanBurst : meanCalm, random);
+        }
+        while (true) {
+            double rate = burst ? burstRate : calmRate;
+            double arrival = now + exponential(1 / rate, random);
+            if (arrival < stateEnd) {
+                return (long) Math.ceil(arrival);
+            }
+            //Both states are memoryless, so the arrival is drawn again from the start of the next state
+            now = stateEnd;
+            burst = !burst;
+            stateEnd = now + exponential(burst ? meanBurst : meanCalm, random);
+        }
+    }
+
+    private static double exponential(double mean, Random random) {
+        return -Math.log(1 - random.nextDouble()) * mean;
+    }
+}
@@ -0,0 +1,158 @@
+package com.almundo.callcenter.loadgen;
+
+import com.almundo.callcenter.model.SkillSet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls of a load ordered by arrival time, generated from an arrival process and a duration distribution or recorded in a CSV file.
+ * The CSV files have a header and a line per call with the columns arrival_seconds (decimal seconds from the start of the load), call_id, priority, duration_seconds and skills (separated by ';', optional)
+ */
+public final class CallTrace implements Iterable<TraceCall> {
+
+    private static final String HEADER = "arrival_seconds,call_id,priority,duration_seconds,skills";
+
+    private final List<TraceCall> calls;
+
+    /**
+     * @param calls the calls of the load in any order, calls arriving at the same time keep their order
+     */
+    public CallTrace(List<TraceCall> calls) {
+        List<TraceCall> sorted = new ArrayList<>(calls);
+        sorted.sort(Comparator.comparingLong(TraceCall::getArrivalTime));
+        this.calls = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * Generates the calls arriving during the given length of time, with the default priority and without skills
+     *
+     * @param arrivals  the arrival process
+     * @param durations the distribution of the durations
+     * @param length    the length of the load
+     * @param unit      the unit of the length
+     * @param seed      the seed of the random generator, the same seed generates the same calls
+     * @return the trace
+     */
+    public static CallTrace generate(ArrivalProcess arrivals, DurationDistribution durations, long length, TimeUnit unit, long seed) {
+        Random random = new Random(seed);
+        long end = unit.toNanos(length);
+        List<TraceCall> calls = new ArrayList<>();
+        for (long time = arrivals.nextArrival(0, random); time < end; time = arrivals.nextArrival(time, random)) {
+            calls.add(new TraceCall(time, String.valueOf(calls.size()), 0, SkillSet.NONE, durations.sampleSeconds(random)));
+        }
+        return new CallTrace(calls);
+    }
+
+    /**
+     * Reads a trace recorded in a CSV file, blank lines and lines starting with # are ignored
+     *
+     * @param file the file
+     * @return the trace
+     * @throws IOException if the file can't be read or a line isn't valid
+     */
+    public static CallTrace read(Path file) throws IOException {
+        List<TraceCall> calls = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            int number = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || (number == 1 && line.startsWith("arrival"))) {
+                    continue;
+                }
+                try {
+                    calls.add(parse(line));
+                } catch (IllegalArgumentException | ArithmeticException e) {
+                    throw new IOException("Invalid call in line " + number + " of " + file + ": " + line, e);
+                }
+            }
+        }
+        return new CallTrace(calls);
+    }
+
+    /**
+     * Writes the trace in CSV, so a generated load can be replayed or edited
+     *
+     * @param file the file, it's replaced if it exists
+     * @throws IOException if the file can't be written
+     */
+    public void write(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            long nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+            for (TraceCall call : calls) {
+                writer.write(String.format("%d.%09d,%s,%d,%d,%s", call.getArrivalTime() / nanosPerSecond, call.getArrivalTime() % nanosPerSecond,
+                        call.getCallId(), call.getPriority(), call.getDuration(), formatSkills(call.getRequiredSkills())));
+                writer.newLine();
+            }
+        }
+    }
+
+    public List<TraceCall> getCalls() {
+        return calls;
+    }
+
+    public int size() {
+        return calls.size();
+    }
+
+    /**
+     * @return the arrival time of the last call in nanoseconds from the start of the load
+     */
+    public long getLength() {
+        return calls.isEmpty() ? 0 : calls.get(calls.size() - 1).getArrivalTime();
+    }
+
+    @Override
+    public Iterator<TraceCall> iterator() {
+        return calls.iterator();
+    }
+
+    private static TraceCall parse(String line) {
+        String[] fields = line.split(",", -1);
+        if (fields.length < 4 || fields.length > 5) {
+            throw new IllegalArgumentException("Expected 4 or 5 columns but found " + fields.length);
+        }
+        long arrivalTime = new BigDecimal(fields[0].trim()).movePointRight(9).setScale(0, RoundingMode.HALF_UP).longValueExact();
+        SkillSet skills = fields.length == 5 ? parseSkills(fields[4].trim()) : SkillSet.NONE;
+        return new TraceCall(arrivalTime, fields[1].trim(), Integer.parseInt(fields[2].trim()), skills, Integer.parseInt(fields[3].trim()));
+    }
+
+    private static SkillSet parseSkills(String field) {
+        if (field.isEmpty()) {
+            return SkillSet.NONE;
+        }
+        String[] values = field.split(";");
+        int[] skills = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            skills[i] = Integer.parseInt(values[i].trim());
+        }
+        return SkillSet.of(skills);
+    }
+
+    private static String formatSkills(SkillSet skills) {
+        StringBuilder builder = new StringBuilder();
+        for (int skill = skills.nextSkill(0); skill >= 0; skill = skills.nextSkill(skill + 1)) {
+            if (builder.length() > 0) {
+                builder.append(';');
+            }
+            builder.append(skill);
+        }
+        return builder.toString();
+    }
+}
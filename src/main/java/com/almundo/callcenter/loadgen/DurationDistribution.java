@@ -0,0 +1,76 @@
+package com.almundo.callcenter.loadgen;
+
+import java.util.Random;
+
+/**
+ * Distribution of the duration of the calls of a load
+ */
+@FunctionalInterface
+public interface DurationDistribution {
+
+    /**
+     * @param random the source of randomness
+     * @return a duration in seconds
+     */
+    double sample(Random random);
+
+    /**
+     * The dispatcher handles calls lasting whole seconds, so the durations are rounded to the nearest second
+     *
+     * @param random the source of randomness
+     * @return a duration in whole seconds, never negative
+     */
+    default int sampleSeconds(Random random) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, Math.round(sample(random))));
+    }
+
+    /**
+     * @param seconds the duration of all the calls
+     * @return the distribution
+     */
+    static DurationDistribution constant(double seconds) {
+        return random -> seconds;
+    }
+
+    /**
+     * Durations equally likely between a min and a max, like the default durations of the app
+     *
+     * @param minSeconds the shortest duration
+     * @param maxSeconds the longest duration
+     * @return the distribution
+     */
+    static DurationDistribution uniform(double minSeconds, double maxSeconds) {
+        if (minSeconds > maxSeconds) {
+            throw new IllegalArgumentException("Min must not be greater than max: " + minSeconds + " > " + maxSeconds);
+        }
+        return random -> minSeconds + random.nextDouble() * (maxSeconds - minSeconds);
+    }
+
+    /**
+     * Memoryless durations, most calls are short and a few are long
+     *
+     * @param meanSeconds the mean duration
+     * @return the distribution
+     */
+    static DurationDistribution exponential(double meanSeconds) {
+        if (meanSeconds <= 0) {
+            throw new IllegalArgumentException("Mean must be positive: " + meanSeconds);
+        }
+        return random -> -Math.log(1 - random.nextDouble()) * meanSeconds;
+    }
+
+    /**
+     * Durations whose logarithm is normally distributed, the usual fit of the handle times of a call center
+     *
+     * @param meanSeconds the mean duration
+     * @param sigma       the standard deviation of the logarithm of the durations, the bigger the longer the tail
+     * @return the distribution
+     */
+    static DurationDistribution lognormal(double meanSeconds, double sigma) {
+        if (meanSeconds <= 0 || sigma < 0) {
+            throw new IllegalArgumentException("Mean must be positive and sigma not negative");
+        }
+        double mu = Math.log(meanSeconds) - sigma * sigma / 2;
+        return random -> Math.exp(mu + sigma * random.nextGaussian());
+    }
+}
@@ -0,0 +1,69 @@
+package com.almundo.callcenter.loadgen;
+
+import com.almundo.callcenter.clock.CallClock;
+import com.almundo.callcenter.process.Dispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offers the calls of a trace to a dispatcher at their arrival times and reports how the dispatcher handled them.
+ * The arrivals are scheduled in the clock of the dispatcher, one after the other, so with a simulated clock in EVENT mode a whole day of calls is replayed in seconds.
+ * The dispatcher is stopped once the last call arrives, so it's used for a single load
+ */
+public class LoadGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private final Dispatcher dispatcher;
+    private final CallClock clock;
+
+    /**
+     * @param dispatcher a new dispatcher with its employees set
+     */
+    public LoadGenerator(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        this.clock = dispatcher.getClock();
+    }
+
+    /**
+     * Offers all the calls of the trace and waits until the last one is answered
+     *
+     * @param trace the calls of the load
+     * @return the results of the load
+     */
+    public LoadReport run(CallTrace trace) {
+        long start = clock.nanoTime();
+        Iterator<TraceCall> calls = trace.iterator();
+        if (calls.hasNext()) {
+            schedule(calls.next(), calls, start);
+        } else {
+            dispatcher.stopExecutor();
+        }
+        dispatcher.waitForTermination();
+        LoadReport report = new LoadReport(trace.size(), trace.getLength(), clock.nanoTime() - start, dispatcher.getMetricsSnapshot());
+        logger.debug("Load finished\n{}", report);
+        return report;
+    }
+
+    private void schedule(TraceCall call, Iterator<TraceCall> calls, long start) {
+        long delay = Math.max(0, start + call.getArrivalTime() - clock.nanoTime());
+        clock.schedule(() -> arrive(call, calls, start), delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void arrive(TraceCall call, Iterator<TraceCall> calls, long start) {
+        try {
+            dispatcher.dispatchCall(call.getCallId(), call.getPriority(), call.getRequiredSkills(), call.getDuration());
+        } catch (RejectedExecutionException e) {
+            logger.warn("Call {} arrived after the dispatcher was stopped", call.getCallId());
+        }
+        if (calls.hasNext()) {
+            schedule(calls.next(), calls, start);
+        } else {
+            dispatcher.stopExecutor();
+        }
+    }
+}
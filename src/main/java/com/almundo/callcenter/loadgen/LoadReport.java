@@ -0,0 +1,124 @@
+package com.almundo.callcenter.loadgen;
+
+import com.almundo.callcenter.metrics.HistogramSnapshot;
+import com.almundo.callcenter.metrics.MetricsSnapshot;
+import com.almundo.callcenter.metrics.TrafficEstimator;
+import com.almundo.callcenter.model.EmployeeType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Results of running a load: the calls offered and answered, the rates, the wait of the calls in the queue and the utilization of each employee type
+ */
+public final class LoadReport {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Service level the report sizes the staff for, the usual 80% of the calls within the target
+     */
+    private static final double REPORTED_SERVICE_LEVEL = 0.8;
+
+    private final int callsOffered;
+    private final long arrivalSpan;
+    private final long elapsed;
+    private final MetricsSnapshot metrics;
+
+    /**
+     * @param callsOffered the calls of the load
+     * @param arrivalSpan  nanoseconds from the start of the load to the arrival of the last call
+     * @param elapsed      nanoseconds from the start of the load until the last call was answered
+     * @param metrics      the metrics of the dispatcher at the end of the load
+     */
+    public LoadReport(int callsOffered, long arrivalSpan, long elapsed, MetricsSnapshot metrics) {
+        this.callsOffered = callsOffered;
+        this.arrivalSpan = arrivalSpan;
+        this.elapsed = elapsed;
+        this.metrics = metrics;
+    }
+
+    public int getCallsOffered() {
+        return callsOffered;
+    }
+
+    public long getCallsAnswered() {
+        return metrics.getCallsAnswered();
+    }
+
+    /**
+     * @return the calls rejected or dropped by the queue
+     */
+    public long getCallsLost() {
+        return metrics.getCallsRejected() + metrics.getCallsDropped();
+    }
+
+    /**
+     * @return nanoseconds from the start of the load until the last call was answered
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return calls per second that arrived while the load was being offered
+     */
+    public double getOfferedRate() {
+        return arrivalSpan == 0 ? 0 : callsOffered * NANOS_PER_SECOND / arrivalSpan;
+    }
+
+    /**
+     * @return calls answered per second from the start of the load until the last call was answered
+     */
+    public double getThroughput() {
+        return elapsed == 0 ? 0 : metrics.getCallsAnswered() * NANOS_PER_SECOND / elapsed;
+    }
+
+    /**
+     * @return the percentiles of the time the calls waited in the queue for an employee
+     */
+    public HistogramSnapshot getQueueWait() {
+        return metrics.getQueueWait();
+    }
+
+    /**
+     * @param type the employee type
+     * @return the average fraction of the employees of the type answering a call during the load
+     */
+    public double getUtilization(EmployeeType type) {
+        return metrics.getEmployeeType(type).getUtilization(elapsed);
+    }
+
+    /**
+     * @param serviceLevel fraction of the calls that should be answered within the target of the dispatcher
+     * @return the fewest employees that answer the offered rate with the service level according to Erlang C, given the average handle time of the load
+     */
+    public int getRequiredAgents(double serviceLevel) {
+        double meanHandleTime = metrics.getHandleTime().getMean();
+        double load = getOfferedRate() * meanHandleTime / NANOS_PER_SECOND;
+        return TrafficEstimator.requiredAgents(load, meanHandleTime, serviceLevel, metrics.getServiceLevelTarget());
+    }
+
+    public MetricsSnapshot getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        HistogramSnapshot wait = getQueueWait();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Calls offered: %d (%.2f calls/s)%n", callsOffered, getOfferedRate()));
+        report.append(String.format("Calls answered: %d (%.2f calls/s), lost: %d%n", getCallsAnswered(), getThroughput(), getCallsLost()));
+        report.append(String.format("Elapsed: %.1f s%n", elapsed / NANOS_PER_SECOND));
+        report.append(String.format("Service level: %.1f%% within %.0f s, abandoned: %d (%.1f%%)%n", metrics.getServiceLevel() * 100,
+                metrics.getServiceLevelTarget() / NANOS_PER_SECOND, metrics.getCallsAbandoned(), metrics.getAbandonmentRate() * 100));
+        report.append(String.format("Queue wait (s): mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f%n", wait.getMean() / NANOS_PER_SECOND,
+                wait.getP50() / NANOS_PER_SECOND, wait.getP90() / NANOS_PER_SECOND, wait.getP99() / NANOS_PER_SECOND,
+                wait.getP999() / NANOS_PER_SECOND, wait.getMax() / NANOS_PER_SECOND));
+        for (EmployeeType type : EmployeeType.values()) {
+            report.append(String.format("Utilization %s: %.1f%%%n", type, getUtilization(type) * 100));
+        }
+        report.append(String.format("Employees for %.0f%% within %.0f s: %d%n", REPORTED_SERVICE_LEVEL * 100,
+                metrics.getServiceLevelTarget() / NANOS_PER_SECOND, getRequiredAgents(REPORTED_SERVICE_LEVEL)));
+        return report.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package com.almundo.callcenter.loadgen;
+
+import com.almundo.callcenter.clock.CallClock;
+import com.almundo.callcenter.clock.SimulatedCallClock;
+import com.almundo.callcenter.clock.SystemCallClock;
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.Dispatcher;
+import com.almundo.callcenter.util.Constants;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Command line tool that replays a trace of calls, or a generated load, against a dispatcher and prints the capacity report.
+ * By default the load runs in EVENT mode on a simulated clock, so it answers "can N agents handle this load" in seconds:
+ * <pre>
+ * --trace calls.csv                               replay a trace
+ * --arrivals poisson|bursty|curve --seconds 3600  generate a load (default poisson for an hour)
+ * --rate 2.5                                      mean calls per second (poisson and bursty)
+ * --burst-factor 5 --burst-seconds 60 --calm-seconds 600
+ * --curve 0.5,0.3,...                             calls per second of each hour, repeated (curve)
+ * --durations exponential:300 | lognormal:300,0.8 | uniform:5,10 | constant:10
+ * --operators 10 --supervisors 3 --directors 1 --concurrent 14
+ * --sla 20 --patience 60 --escalation 0.5           service level target and caller patience in seconds, fraction of the target kept for operators
+ * --seed 42 --save calls.csv --realtime
+ * </pre>
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+
+        CallTrace trace;
+        if (options.containsKey("trace")) {
+            trace = CallTrace.read(Paths.get(options.get("trace")));
+        } else {
+            long seconds = Long.parseLong(options.getOrDefault("seconds", "3600"));
+            long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+            trace = CallTrace.generate(arrivals(options), durations(options.getOrDefault("durations", "exponential:300")), seconds, TimeUnit.SECONDS, seed);
+        }
+        if (options.containsKey("save")) {
+            Path file = Paths.get(options.get("save"));
+            trace.write(file);
+            System.out.println("Trace saved to " + file);
+        }
+
+        int operators = Integer.parseInt(options.getOrDefault("operators", String.valueOf(Constants.NUMBER_OF_OPERATORS)));
+        int supervisors = Integer.parseInt(options.getOrDefault("supervisors", String.valueOf(Constants.NUMBER_OF_SUPERVISORS)));
+        int directors = Integer.parseInt(options.getOrDefault("directors", String.valueOf(Constants.NUMBER_OF_DIRECTORS)));
+        List<Employee> employees = new ArrayList<>();
+        IntStream.range(0, operators).forEach(i -> employees.add(new Employee(i + "Op", EmployeeType.OPERADOR)));
+        IntStream.range(0, supervisors).forEach(i -> employees.add(new Employee(i + "Sp", EmployeeType.SUPERVISOR)));
+        IntStream.range(0, directors).forEach(i -> employees.add(new Employee(i + "Dr", EmployeeType.DIRECTOR)));
+
+        //A simulated clock replays the whole load at once, the real clock takes as long as the trace
+        CallClock clock = options.containsKey("realtime") ? new SystemCallClock() : new SimulatedCallClock();
+        Dispatcher dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        dispatcher.setEmployees(employees);
+        dispatcher.setSemaphoreCount(Integer.parseInt(options.getOrDefault("concurrent", String.valueOf(employees.size()))));
+        dispatcher.setServiceLevel(Long.parseLong(options.getOrDefault("sla", String.valueOf(Constants.SERVICE_LEVEL_TARGET_SECONDS))),
+                Long.parseLong(options.getOrDefault("patience", "0")), Double.parseDouble(options.getOrDefault("escalation", "0")), TimeUnit.SECONDS);
+        //The calls of a load aren't logged one by one, the report summarizes them
+        dispatcher.setEventSink((type, callId, employeeId, duration, priority, time) -> {
+        });
+
+        System.out.println(new LoadGenerator(dispatcher).run(trace));
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            //Options without a value, like --realtime, are flags
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "");
+            }
+        }
+        return options;
+    }
+
+    private static ArrivalProcess arrivals(Map<String, String> options) {
+        double rate = Double.parseDouble(options.getOrDefault("rate", "1"));
+        switch (options.getOrDefault("arrivals", "poisson")) {
+            case "poisson":
+                return ArrivalProcess.poisson(rate);
+            case "bursty":
+                return ArrivalProcess.bursty(rate, Double.parseDouble(options.getOrDefault("burst-factor", "5")),
+                        Double.parseDouble(options.getOrDefault("burst-seconds", "60")), Double.parseDouble(options.getOrDefault("calm-seconds", "600")));
+            case "curve":
+                String[] points = options.getOrDefault("curve", String.valueOf(rate)).split(",");
+                double[] rates = new double[points.length];
+                for (int i = 0; i < points.length; i++) {
+                    rates[i] = Double.parseDouble(points[i]);
+                }
+                return ArrivalProcess.curve(1, TimeUnit.HOURS, rates);
+            default:
+                throw new IllegalArgumentException("Unknown arrival process " + options.get("arrivals"));
+        }
+    }
+
+    private static DurationDistribution durations(String spec) {
+        String[] parts = spec.split(":", 2);
+        String[] values = parts.length > 1 ? parts[1].split(",") : new String[0];
+        try {
+            switch (parts[0]) {
+                case "constant":
+                    return DurationDistribution.constant(Double.parseDouble(values[0]));
+                case "uniform":
+                    return DurationDistribution.uniform(Double.parseDouble(values[0]), Double.parseDouble(values[1]));
+                case "exponential":
+                    return DurationDistribution.exponential(Double.parseDouble(values[0]));
+                case "lognormal":
+                    return DurationDistribution.lognormal(Double.parseDouble(values[0]), Double.parseDouble(values[1]));
+                default:
+                    throw new IllegalArgumentException("Unknown duration distribution " + spec);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Missing parameters of the duration distribution " + spec, e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.almundo.callcenter.loadgen;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Poisson arrivals with a rate that is constant during each interval of a repeating curve.
+ * The next arrival is found by consuming an exponentially distributed amount of expected calls across the intervals, so the arrivals follow the curve exactly even across its steps
+ */
+final class PiecewisePoissonArrivals implements ArrivalProcess {
+
+    private final long interval;
+
+    /**
+     * Expected calls per nanosecond in each interval
+     */
+    private final double[] rates;
+
+    PiecewisePoissonArrivals(long interval, TimeUnit unit, double[] callsPerSecond) {
+        this.interval = unit.toNanos(interval);
+        if (this.interval <= 0 || callsPerSecond.length == 0) {
+            throw new IllegalArgumentException("The curve needs at least one interval of positive length");
+        }
+        rates = new double[callsPerSecond.length];
+        boolean positive = false;
+        for (int i = 0; i < callsPerSecond.length; i++) {
+            if (callsPerSecond[i] < 0 || Double.isNaN(callsPerSecond[i])) {
+                throw new IllegalArgumentException("Rates must not be negative: " + callsPerSecond[i]);
+            }
+            rates[i] = callsPerSecond[i] / TimeUnit.SECONDS.toNanos(1);
+            positive |= callsPerSecond[i] > 0;
+        }
+        if (!positive) {
+            throw new IllegalArgumentException("At least one rate must be positive");
+        }
+    }
+
+    @Override
+    public long nextArrival(long time, Random random) {
+        double expected = -Math.log(1 - random.nextDouble());
+        double now = time;
+        while (true) {
+            long index = (long) (now / interval);
+            double rate = rates[(int) (index % rates.length)];
+            double end = (double) (index + 1) * interval;
+            if (rate > 0 && expected <= rate * (end - now)) {
+                return (long) Math.ceil(now + expected / rate);
+            }
+            expected -= rate * (end - now);
+            now = end;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.almundo.callcenter.loadgen;
+
+import com.almundo.callcenter.model.SkillSet;
+
+/**
+ * A call of a load: when it arrives, its id, priority and required skills and how long it lasts
+ */
+public final class TraceCall {
+
+    private final long arrivalTime;
+    private final String callId;
+    private final int priority;
+    private final SkillSet requiredSkills;
+    private final int duration;
+
+    /**
+     * @param arrivalTime    arrival time in nanoseconds from the start of the load
+     * @param callId         the id of the call
+     * @param priority       the priority of the call
+     * @param requiredSkills the skills the employee needs to answer the call
+     * @param duration       the duration of the call in seconds
+     */
+    public TraceCall(long arrivalTime, String callId, int priority, SkillSet requiredSkills, int duration) {
+        if (arrivalTime < 0 || duration < 0) {
+            throw new IllegalArgumentException("Arrival time and duration must not be negative");
+        }
+        this.arrivalTime = arrivalTime;
+        this.callId = callId;
+        this.priority = priority;
+        this.requiredSkills = requiredSkills;
+        this.duration = duration;
+    }
+
+    /**
+     * @return arrival time in nanoseconds from the start of the load
+     */
+    public long getArrivalTime() {
+        return arrivalTime;
+    }
+
+    public String getCallId() {
+        return callId;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public SkillSet getRequiredSkills() {
+        return requiredSkills;
+    }
+
+    /**
+     * @return the duration of the call in seconds
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TraceCall)) {
+            return false;
+        }
+        TraceCall other = (TraceCall) o;
+        return arrivalTime == other.arrivalTime && priority == other.priority && duration == other.duration
+                && callId.equals(other.callId) && requiredSkills.equals(other.requiredSkills);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(arrivalTime) + callId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return callId + "@" + arrivalTime + "ns priority=" + priority + " skills=" + requiredSkills + " duration=" + duration + "s";
+    }
+}
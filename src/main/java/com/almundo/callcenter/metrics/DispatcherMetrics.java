@@ -0,0 +1,347 @@
+package com.almundo.callcenter.metrics;
+
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.util.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of a dispatcher: latency histograms for each stage of the calls, utilization and calls assigned for each employee type, the state of the waiting queue and the service level.
+ * Recording doesn't take locks nor allocate memory, so it's done in the dispatch path. The metrics can be read with {@link #snapshot()} or through JMX once registered
+ */
+public class DispatcherMetrics implements DispatcherMetricsMBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DispatcherMetrics.class);
+
+    private static final EmployeeType[] TYPES = EmployeeType.values();
+
+    private final LatencyHistogram queueWait;
+    private final LatencyHistogram timeToAgent;
+    private final LatencyHistogram handleTime;
+
+    /**
+     * Number of employees of each type, indexed by the ordinal of the type
+     */
+    private final AtomicIntegerArray employees;
+
+    /**
+     * Number of employees of each type answering a call
+     */
+    private final AtomicIntegerArray busy;
+
+    /**
+     * Number of calls assigned to each type
+     */
+    private final AtomicLongArray callsAssigned;
+
+    /**
+     * Time in nanoseconds the employees of each type spent answering the calls that ended
+     */
+    private final AtomicLongArray busyTime;
+
+    private final AtomicLong callsAnswered;
+
+    /**
+     * Calls assigned to an employee within the service level target
+     */
+    private final AtomicLong callsWithinTarget;
+
+    /**
+     * Calls whose callers hung up while waiting in the queue
+     */
+    private final AtomicLong callsAbandoned;
+
+    /**
+     * Max time in nanoseconds a call should wait in the queue, by default SERVICE_LEVEL_TARGET_SECONDS
+     */
+    private volatile long serviceLevelTarget;
+
+    private final IntSupplier queueDepth;
+    private final LongSupplier callsRejected;
+    private final LongSupplier callsDropped;
+
+    private volatile ObjectName objectName;
+
+    /**
+     * Creates the metrics of a dispatcher
+     *
+     * @param queueDepth    supplier of the number of calls waiting in the queue
+     * @param callsRejected supplier of the number of calls rejected by the queue
+     * @param callsDropped  supplier of the number of calls dropped by the queue
+     */
+    public DispatcherMetrics(IntSupplier queueDepth, LongSupplier callsRejected, LongSupplier callsDropped) {
+        this.queueDepth = queueDepth;
+        this.callsRejected = callsRejected;
+        this.callsDropped = callsDropped;
+        queueWait = new LatencyHistogram();
+        timeToAgent = new LatencyHistogram();
+        handleTime = new LatencyHistogram();
+        employees = new AtomicIntegerArray(TYPES.length);
+        busy = new AtomicIntegerArray(TYPES.length);
+        callsAssigned = new AtomicLongArray(TYPES.length);
+        busyTime = new AtomicLongArray(TYPES.length);
+        callsAnswered = new AtomicLong();
+        callsWithinTarget = new AtomicLong();
+        callsAbandoned = new AtomicLong();
+        serviceLevelTarget = TimeUnit.SECONDS.toNanos(Constants.SERVICE_LEVEL_TARGET_SECONDS);
+    }
+
+    /**
+     * Set the max time a call should wait in the queue, the calls assigned from now on are counted against it
+     *
+     * @param target the max wait
+     * @param unit   the unit of the wait
+     */
+    public void setServiceLevelTarget(long target, TimeUnit unit) {
+        this.serviceLevelTarget = unit.toNanos(target);
+    }
+
+    /**
+     * @return max time in nanoseconds a call should wait in the queue
+     */
+    public long getServiceLevelTarget() {
+        return serviceLevelTarget;
+    }
+
+    /**
+     * Updates the number of employees of each type
+     *
+     * @param staff the employees of the dispatcher
+     */
+    public void staffChanged(Collection<Employee> staff) {
+        int[] counts = new int[TYPES.length];
+        for (Employee employee : staff) {
+            counts[employee.getType().ordinal()]++;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            employees.set(i, counts[i]);
+        }
+    }
+
+    /**
+     * Records a call leaving the queue because an employee was assigned to it
+     *
+     * @param type     the type of the employee
+     * @param waitTime time in nanoseconds the call waited in the queue
+     */
+    public void callAssigned(EmployeeType type, long waitTime) {
+        queueWait.record(waitTime);
+        callsAssigned.incrementAndGet(type.ordinal());
+        busy.incrementAndGet(type.ordinal());
+        if (waitTime <= serviceLevelTarget) {
+            callsWithinTarget.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a call interrupted by the shutdown of the dispatcher before its end
+     *
+     * @param type the type of the employee that was answering it
+     */
+    public void callInterrupted(EmployeeType type) {
+        busy.decrementAndGet(type.ordinal());
+    }
+
+    /**
+     * Records a call leaving the queue because its caller hung up
+     */
+    public void callAbandoned() {
+        callsAbandoned.incrementAndGet();
+    }
+
+    /**
+     * Records the employee starting to answer a call
+     *
+     * @param timeToAgent time in nanoseconds from the arrival of the call
+     */
+    public void callStarted(long timeToAgent) {
+        this.timeToAgent.record(timeToAgent);
+    }
+
+    /**
+     * Records the end of a call
+     *
+     * @param type       the type of the employee that answered
+     * @param handleTime time in nanoseconds the employee spent on the call
+     */
+    public void callFinished(EmployeeType type, long handleTime) {
+        this.handleTime.record(handleTime);
+        busyTime.addAndGet(type.ordinal(), handleTime);
+        busy.decrementAndGet(type.ordinal());
+        callsAnswered.incrementAndGet();
+    }
+
+    /**
+     * @return a copy of the current metrics
+     */
+    public MetricsSnapshot snapshot() {
+        EnumMap<EmployeeType, MetricsSnapshot.TypeSnapshot> types = new EnumMap<>(EmployeeType.class);
+        for (EmployeeType type : TYPES) {
+            types.put(type, typeSnapshot(type));
+        }
+        return new MetricsSnapshot(callsAnswered.get(), queueDepth.getAsInt(), callsRejected.getAsLong(), callsDropped.getAsLong(),
+                callsAbandoned.get(), callsWithinTarget.get(), serviceLevelTarget, queueWait.snapshot(), timeToAgent.snapshot(), handleTime.snapshot(), types);
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server as com.almundo.callcenter:type=Dispatcher,name=[name]
+     *
+     * @param name the name of the dispatcher
+     */
+    public void register(String name) {
+        try {
+            ObjectName newName = new ObjectName("com.almundo.callcenter:type=Dispatcher,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(newName)) {
+                server.unregisterMBean(newName);
+            }
+            server.registerMBean(this, newName);
+            objectName = newName;
+        } catch (JMException e) {
+            logger.error("Unable to register the dispatcher metrics", e);
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server if they were registered
+     */
+    public void unregister() {
+        ObjectName current = objectName;
+        if (current == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(current);
+        } catch (JMException e) {
+            logger.error("Unable to unregister the dispatcher metrics", e);
+        }
+        objectName = null;
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public LatencyHistogram getTimeToAgent() {
+        return timeToAgent;
+    }
+
+    public LatencyHistogram getHandleTime() {
+        return handleTime;
+    }
+
+    @Override
+    public long getCallsAnswered() {
+        return callsAnswered.get();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getCallsRejected() {
+        return callsRejected.getAsLong();
+    }
+
+    @Override
+    public long getCallsDropped() {
+        return callsDropped.getAsLong();
+    }
+
+    @Override
+    public long getEscalations() {
+        return callsAssigned.get(EmployeeType.SUPERVISOR.ordinal()) + callsAssigned.get(EmployeeType.DIRECTOR.ordinal());
+    }
+
+    @Override
+    public double getQueueWaitP50Millis() {
+        return toMillis(queueWait.getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getQueueWaitP99Millis() {
+        return toMillis(queueWait.getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getQueueWaitMaxMillis() {
+        return toMillis(queueWait.getMax());
+    }
+
+    @Override
+    public double getTimeToAgentP99Millis() {
+        return toMillis(timeToAgent.getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getHandleTimeP50Millis() {
+        return toMillis(handleTime.getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getHandleTimeP99Millis() {
+        return toMillis(handleTime.getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getOperatorUtilization() {
+        return typeSnapshot(EmployeeType.OPERADOR).getUtilization();
+    }
+
+    @Override
+    public double getSupervisorUtilization() {
+        return typeSnapshot(EmployeeType.SUPERVISOR).getUtilization();
+    }
+
+    @Override
+    public double getDirectorUtilization() {
+        return typeSnapshot(EmployeeType.DIRECTOR).getUtilization();
+    }
+
+    @Override
+    public long getCallsAbandoned() {
+        return callsAbandoned.get();
+    }
+
+    @Override
+    public double getServiceLevel() {
+        return snapshot().getServiceLevel();
+    }
+
+    @Override
+    public double getAbandonmentRate() {
+        return snapshot().getAbandonmentRate();
+    }
+
+    @Override
+    public void resetHistograms() {
+        queueWait.reset();
+        timeToAgent.reset();
+        handleTime.reset();
+    }
+
+    private MetricsSnapshot.TypeSnapshot typeSnapshot(EmployeeType type) {
+        int index = type.ordinal();
+        return new MetricsSnapshot.TypeSnapshot(employees.get(index), busy.get(index), callsAssigned.get(index), busyTime.get(index));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
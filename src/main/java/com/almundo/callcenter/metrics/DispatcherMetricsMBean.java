@@ -0,0 +1,46 @@
+package com.almundo.callcenter.metrics;
+
+/**
+ * JMX view of the dispatcher metrics, latencies are reported in milliseconds
+ */
+public interface DispatcherMetricsMBean {
+
+    long getCallsAnswered();
+
+    int getQueueDepth();
+
+    long getCallsRejected();
+
+    long getCallsDropped();
+
+    long getEscalations();
+
+    double getQueueWaitP50Millis();
+
+    double getQueueWaitP99Millis();
+
+    double getQueueWaitMaxMillis();
+
+    double getTimeToAgentP99Millis();
+
+    double getHandleTimeP50Millis();
+
+    double getHandleTimeP99Millis();
+
+    double getOperatorUtilization();
+
+    double getSupervisorUtilization();
+
+    double getDirectorUtilization();
+
+    long getCallsAbandoned();
+
+    double getServiceLevel();
+
+    double getAbandonmentRate();
+
+    /**
+     * Clears the latency histograms, the counters aren't reset
+     */
+    void resetHistograms();
+}
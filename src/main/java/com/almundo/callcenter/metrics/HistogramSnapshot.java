@@ -0,0 +1,66 @@
+package com.almundo.callcenter.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable copy of the statistics of a latency histogram, all the values are in nanoseconds
+ */
+public final class HistogramSnapshot {
+
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    public HistogramSnapshot(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count
+                + " mean=" + TimeUnit.NANOSECONDS.toMillis((long) mean) + "ms"
+                + " p50=" + TimeUnit.NANOSECONDS.toMillis(p50) + "ms"
+                + " p90=" + TimeUnit.NANOSECONDS.toMillis(p90) + "ms"
+                + " p99=" + TimeUnit.NANOSECONDS.toMillis(p99) + "ms"
+                + " p99.9=" + TimeUnit.NANOSECONDS.toMillis(p999) + "ms"
+                + " max=" + TimeUnit.NANOSECONDS.toMillis(max) + "ms";
+    }
+}
@@ -0,0 +1,211 @@
+package com.almundo.callcenter.metrics;
+
+import com.almundo.callcenter.model.EmployeeType;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Immutable copy of the dispatcher metrics at a given moment
+ */
+public final class MetricsSnapshot {
+
+    private final long callsAnswered;
+    private final int queueDepth;
+    private final long callsRejected;
+    private final long callsDropped;
+    private final long callsAbandoned;
+    private final long callsWithinTarget;
+    private final long serviceLevelTarget;
+    private final HistogramSnapshot queueWait;
+    private final HistogramSnapshot timeToAgent;
+    private final HistogramSnapshot handleTime;
+    private final Map<EmployeeType, TypeSnapshot> employeeTypes;
+
+    MetricsSnapshot(long callsAnswered, int queueDepth, long callsRejected, long callsDropped, long callsAbandoned, long callsWithinTarget,
+                    long serviceLevelTarget, HistogramSnapshot queueWait, HistogramSnapshot timeToAgent, HistogramSnapshot handleTime,
+                    EnumMap<EmployeeType, TypeSnapshot> employeeTypes) {
+        this.callsAnswered = callsAnswered;
+        this.queueDepth = queueDepth;
+        this.callsRejected = callsRejected;
+        this.callsDropped = callsDropped;
+        this.callsAbandoned = callsAbandoned;
+        this.callsWithinTarget = callsWithinTarget;
+        this.serviceLevelTarget = serviceLevelTarget;
+        this.queueWait = queueWait;
+        this.timeToAgent = timeToAgent;
+        this.handleTime = handleTime;
+        this.employeeTypes = Collections.unmodifiableMap(employeeTypes);
+    }
+
+    public long getCallsAnswered() {
+        return callsAnswered;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getCallsRejected() {
+        return callsRejected;
+    }
+
+    public long getCallsDropped() {
+        return callsDropped;
+    }
+
+    /**
+     * @return number of calls whose callers hung up while waiting in the queue
+     */
+    public long getCallsAbandoned() {
+        return callsAbandoned;
+    }
+
+    /**
+     * @return number of calls assigned to an employee within the service level target
+     */
+    public long getCallsWithinTarget() {
+        return callsWithinTarget;
+    }
+
+    /**
+     * @return max time in nanoseconds a call should wait in the queue
+     */
+    public long getServiceLevelTarget() {
+        return serviceLevelTarget;
+    }
+
+    /**
+     * @return number of calls that left the queue, assigned to an employee or abandoned
+     */
+    public long getCallsHandled() {
+        long assigned = callsAbandoned;
+        for (TypeSnapshot type : employeeTypes.values()) {
+            assigned += type.getCallsAssigned();
+        }
+        return assigned;
+    }
+
+    /**
+     * @return fraction of the calls that left the queue that were assigned within the target, the abandoned calls count as missing it, 1 if no call left the queue yet
+     */
+    public double getServiceLevel() {
+        long handled = getCallsHandled();
+        return handled == 0 ? 1 : (double) callsWithinTarget / handled;
+    }
+
+    /**
+     * @return fraction of the calls that left the queue whose callers hung up
+     */
+    public double getAbandonmentRate() {
+        long handled = getCallsHandled();
+        return handled == 0 ? 0 : (double) callsAbandoned / handled;
+    }
+
+    /**
+     * @return time the calls waited in the queue until an employee was assigned
+     */
+    public HistogramSnapshot getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return time from the arrival of the calls until the employee started answering them
+     */
+    public HistogramSnapshot getTimeToAgent() {
+        return timeToAgent;
+    }
+
+    /**
+     * @return time the employees spent answering the calls
+     */
+    public HistogramSnapshot getHandleTime() {
+        return handleTime;
+    }
+
+    public TypeSnapshot getEmployeeType(EmployeeType type) {
+        return employeeTypes.get(type);
+    }
+
+    /**
+     * @return number of calls that were assigned to a Supervisor or a Director because there wasn't a free Operator
+     */
+    public long getEscalations() {
+        return employeeTypes.get(EmployeeType.SUPERVISOR).getCallsAssigned() + employeeTypes.get(EmployeeType.DIRECTOR).getCallsAssigned();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder()
+                .append("answered=").append(callsAnswered)
+                .append(" queueDepth=").append(queueDepth)
+                .append(" rejected=").append(callsRejected)
+                .append(" dropped=").append(callsDropped)
+                .append(" escalations=").append(getEscalations())
+                .append(" abandoned=").append(callsAbandoned)
+                .append(" serviceLevel=").append(String.format("%.3f", getServiceLevel()))
+                .append("\n queueWait: ").append(queueWait)
+                .append("\n timeToAgent: ").append(timeToAgent)
+                .append("\n handleTime: ").append(handleTime);
+        employeeTypes.forEach((type, snapshot) -> result.append("\n ").append(type.type()).append(": ").append(snapshot));
+        return result.toString();
+    }
+
+    /**
+     * Metrics of the employees of one type
+     */
+    public static final class TypeSnapshot {
+
+        private final int employees;
+        private final int busy;
+        private final long callsAssigned;
+        private final long busyTime;
+
+        TypeSnapshot(int employees, int busy, long callsAssigned, long busyTime) {
+            this.employees = employees;
+            this.busy = busy;
+            this.callsAssigned = callsAssigned;
+            this.busyTime = busyTime;
+        }
+
+        public int getEmployees() {
+            return employees;
+        }
+
+        public int getBusy() {
+            return busy;
+        }
+
+        public long getCallsAssigned() {
+            return callsAssigned;
+        }
+
+        /**
+         * @return the fraction of the employees of this type answering a call
+         */
+        public double getUtilization() {
+            return employees == 0 ? 0 : (double) busy / employees;
+        }
+
+        /**
+         * @return the time in nanoseconds the employees of this type spent answering the calls that ended
+         */
+        public long getBusyTime() {
+            return busyTime;
+        }
+
+        /**
+         * @param elapsed a period in nanoseconds during which the staff didn't change
+         * @return the average fraction of the employees of this type answering a call during the period
+         */
+        public double getUtilization(long elapsed) {
+            return employees == 0 || elapsed <= 0 ? 0 : (double) busyTime / ((double) employees * elapsed);
+        }
+
+        @Override
+        public String toString() {
+            return "employees=" + employees + " busy=" + busy + " assigned=" + callsAssigned;
+        }
+    }
+}
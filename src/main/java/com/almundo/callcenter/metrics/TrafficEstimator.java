@@ -0,0 +1,210 @@
+package com.almundo.callcenter.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streaming estimates of the traffic of a dispatcher: the arrival rate and the handle time as exponentially weighted moving averages of the interval between arrivals and of the duration of the calls.
+ * Each event updates them in O(1) with a compare and swap and without allocating, so they are fed from the dispatch path, and the Erlang C model turns them into the expected wait and the staffing needed for a service level.
+ * The averages are kept as the bits of a double in an AtomicLong
+ */
+public class TrafficEstimator {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Time of the last arrival, NO_ARRIVAL until the first one
+     */
+    private static final long NO_ARRIVAL = Long.MIN_VALUE;
+
+    /**
+     * Weight of each new sample in the averages
+     */
+    private final double weight;
+
+    /**
+     * Average time in nanoseconds between arrivals, NaN until the second arrival
+     */
+    private final AtomicLong meanInterval;
+
+    /**
+     * Average time in nanoseconds the employees spend answering a call, it starts with the expected handle time
+     */
+    private final AtomicLong meanHandleTime;
+
+    private final AtomicLong lastArrival;
+
+    /**
+     * @param weight           weight of each new sample in the averages, between 0 and 1, the averages follow roughly the last 1 / weight samples
+     * @param expectedHandle   handle time assumed until the first call ends
+     * @param unit             the unit of the handle time
+     */
+    public TrafficEstimator(double weight, long expectedHandle, TimeUnit unit) {
+        if (weight <= 0 || weight > 1) {
+            throw new IllegalArgumentException("Weight must be between 0 and 1: " + weight);
+        }
+        this.weight = weight;
+        this.meanInterval = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+        this.meanHandleTime = new AtomicLong(Double.doubleToRawLongBits(unit.toNanos(expectedHandle)));
+        this.lastArrival = new AtomicLong(NO_ARRIVAL);
+    }
+
+    /**
+     * Records calls arriving together, a burst counts as that many arrivals evenly spread since the previous one
+     *
+     * @param calls the number of calls
+     * @param time  time in nanoseconds of the clock when they arrived
+     */
+    public void callsArrived(int calls, long time) {
+        if (calls <= 0) {
+            return;
+        }
+        long previous = lastArrival.getAndSet(time);
+        if (previous == NO_ARRIVAL) {
+            return;
+        }
+        double interval = Math.max(0, time - previous) / (double) calls;
+        //The weight of n samples with the same value is 1 - (1 - weight)^n
+        update(meanInterval, interval, calls == 1 ? weight : 1 - Math.pow(1 - weight, calls));
+    }
+
+    /**
+     * Records the end of a call
+     *
+     * @param handleTime time in nanoseconds the employee spent on the call
+     */
+    public void callFinished(long handleTime) {
+        update(meanHandleTime, handleTime, weight);
+    }
+
+    /**
+     * The rate decays while no call arrives, an interval longer than the average is taken as the current one
+     *
+     * @param now time in nanoseconds of the clock
+     * @return calls arriving per second, 0 until two calls arrived
+     */
+    public double getArrivalRate(long now) {
+        double interval = Double.longBitsToDouble(meanInterval.get());
+        if (Double.isNaN(interval)) {
+            return 0;
+        }
+        interval = Math.max(interval, now - lastArrival.get());
+        return interval <= 0 ? Double.POSITIVE_INFINITY : NANOS_PER_SECOND / interval;
+    }
+
+    /**
+     * @return average time in nanoseconds the employees spend answering a call
+     */
+    public double getMeanHandleTime() {
+        return Double.longBitsToDouble(meanHandleTime.get());
+    }
+
+    /**
+     * @param now time in nanoseconds of the clock
+     * @return the offered load in erlangs, the average number of employees the calls keep busy
+     */
+    public double getOfferedLoad(long now) {
+        return getArrivalRate(now) * getMeanHandleTime() / NANOS_PER_SECOND;
+    }
+
+    /**
+     * @param agents the number of employees answering calls
+     * @param now    time in nanoseconds of the clock
+     * @return the Erlang C average time in nanoseconds a new call waits with the current traffic, Long.MAX_VALUE if the load reaches the employees
+     */
+    public long getExpectedWait(int agents, long now) {
+        double load = getOfferedLoad(now);
+        if (load == 0) {
+            return 0;
+        }
+        if (load >= agents) {
+            return Long.MAX_VALUE;
+        }
+        return (long) (erlangC(agents, load) * getMeanHandleTime() / (agents - load));
+    }
+
+    /**
+     * @param agents the number of employees answering calls
+     * @param target max time a call should wait
+     * @param unit   the unit of the target
+     * @param now    time in nanoseconds of the clock
+     * @return the Erlang C fraction of the calls answered within the target with the current traffic
+     */
+    public double getServiceLevel(int agents, long target, TimeUnit unit, long now) {
+        double load = getOfferedLoad(now);
+        if (load == 0) {
+            return 1;
+        }
+        return serviceLevel(agents, load, erlangC(agents, load), getMeanHandleTime(), unit.toNanos(target));
+    }
+
+    /**
+     * @param serviceLevel fraction of the calls that should be answered within the target
+     * @param target       max time a call should wait
+     * @param unit         the unit of the target
+     * @param now          time in nanoseconds of the clock
+     * @return the fewest employees that answer the current traffic with the service level, at least one
+     */
+    public int getRequiredAgents(double serviceLevel, long target, TimeUnit unit, long now) {
+        return requiredAgents(getOfferedLoad(now), getMeanHandleTime(), serviceLevel, unit.toNanos(target));
+    }
+
+    /**
+     * @param load           the offered load in erlangs
+     * @param meanHandleTime average time in nanoseconds the employees spend answering a call
+     * @param serviceLevel   fraction of the calls that should be answered within the target
+     * @param target         max time in nanoseconds a call should wait
+     * @return the fewest employees that answer the load with the service level according to Erlang C, at least one
+     */
+    public static int requiredAgents(double load, double meanHandleTime, double serviceLevel, long target) {
+        if (Double.isInfinite(load) || Double.isNaN(load)) {
+            return Integer.MAX_VALUE;
+        }
+        //Erlang B of one agent, then one agent more at a time until the service level is reached
+        int agents = 1;
+        double erlangB = load / (1 + load);
+        while (agents <= load || serviceLevel(agents, load, toErlangC(agents, load, erlangB), meanHandleTime, target) < serviceLevel) {
+            agents++;
+            erlangB = load * erlangB / (agents + load * erlangB);
+        }
+        return agents;
+    }
+
+    /**
+     * @param agents the number of employees
+     * @param load   the offered load in erlangs, below the agents
+     * @return the probability of a new call having to wait
+     */
+    public static double erlangC(int agents, double load) {
+        if (load >= agents) {
+            return 1;
+        }
+        //Erlang B recursion, it doesn't overflow with thousands of agents as the factorial formula does
+        double erlangB = 1;
+        for (int k = 1; k <= agents; k++) {
+            erlangB = load * erlangB / (k + load * erlangB);
+        }
+        return toErlangC(agents, load, erlangB);
+    }
+
+    private static double toErlangC(int agents, double load, double erlangB) {
+        return agents * erlangB / (agents - load * (1 - erlangB));
+    }
+
+    private static double serviceLevel(int agents, double load, double erlangC, double meanHandleTime, long target) {
+        if (load >= agents) {
+            return 0;
+        }
+        return 1 - erlangC * Math.exp(-(agents - load) * target / meanHandleTime);
+    }
+
+    private static void update(AtomicLong average, double sample, double sampleWeight) {
+        long bits;
+        double updated;
+        do {
+            bits = average.get();
+            double current = Double.longBitsToDouble(bits);
+            updated = Double.isNaN(current) ? sample : current + sampleWeight * (sample - current);
+        } while (!average.compareAndSet(bits, Double.doubleToRawLongBits(updated)));
+    }
+}
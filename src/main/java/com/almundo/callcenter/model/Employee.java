@@ -7,7 +7,18 @@ public class Employee {
 
     private String id;
     private EmployeeType type;
-    private boolean busy;
+    /**
+     * Informative flag kept up to date by the employee pool, the pool free-lists are the ones used to coordinate the calls
+     */
+    private volatile boolean busy;
+    /**
+     * Skills of the employee, the calls that require skills are only answered by employees having all of them
+     */
+    private SkillSet skills = SkillSet.NONE;
+    /**
+     * Slot of the employee in the agent table of the pool it belongs to, -1 when it isn't in a pool. It's kept up to date by the pool like the busy flag
+     */
+    private int slot = -1;
 
     public Employee() {
     }
@@ -23,6 +34,12 @@ public class Employee {
         this.busy = busy;
     }
 
+    public Employee(String id, EmployeeType type, SkillSet skills) {
+        this.id = id;
+        this.type = type;
+        this.skills = skills;
+    }
+
     public String getId() {
         return id;
     }
@@ -46,4 +63,25 @@ public class Employee {
     public void setBusy(boolean busy) {
         this.busy = busy;
     }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    public SkillSet getSkills() {
+        return skills;
+    }
+
+    /**
+     * Set the skills of the employee, they can't be changed while the employee is in a pool
+     *
+     * @param skills the skills
+     */
+    public void setSkills(SkillSet skills) {
+        this.skills = skills;
+    }
 }
@@ -0,0 +1,158 @@
+package com.almundo.callcenter.model;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of skills stored as a bitset mask, each skill is a non negative number.
+ * It's used for the skills of the employees and the skills required by the calls, checking if an employee can answer a call is a bitwise operation over a few words
+ */
+public final class SkillSet {
+
+    /**
+     * The set without skills, calls that require it can be answered by any employee
+     */
+    public static final SkillSet NONE = new SkillSet(new long[0]);
+
+    private final long[] words;
+
+    private SkillSet(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * Creates a set with the given skills
+     *
+     * @param skills the skills, repeated skills are ignored
+     * @return the set of skills
+     */
+    public static SkillSet of(int... skills) {
+        int length = 0;
+        for (int skill : skills) {
+            if (skill < 0) {
+                throw new IllegalArgumentException("Skills must not be negative: " + skill);
+            }
+            length = Math.max(length, (skill >> 6) + 1);
+        }
+        if (length == 0) {
+            return NONE;
+        }
+        long[] words = new long[length];
+        for (int skill : skills) {
+            words[skill >> 6] |= 1L << skill;
+        }
+        return new SkillSet(words);
+    }
+
+    /**
+     * Creates a set from the words of a mask, as returned by {@link #toLongArray()}
+     *
+     * @param words the words of the mask, the lowest skills in the first word
+     * @return the set of skills
+     */
+    public static SkillSet valueOf(long[] words) {
+        int length = words.length;
+        while (length > 0 && words[length - 1] == 0) {
+            length--;
+        }
+        return length == 0 ? NONE : new SkillSet(Arrays.copyOf(words, length));
+    }
+
+    /**
+     * @return a copy of the words of the mask
+     */
+    public long[] toLongArray() {
+        return words.clone();
+    }
+
+    public boolean contains(int skill) {
+        int word = skill >> 6;
+        return skill >= 0 && word < words.length && (words[word] & (1L << skill)) != 0;
+    }
+
+    /**
+     * @param other the skills to check, usually the skills required by a call
+     * @return true if this set has all the skills of the other set
+     */
+    public boolean containsAll(SkillSet other) {
+        if (other.words.length > words.length) {
+            return false;
+        }
+        for (int i = 0; i < other.words.length; i++) {
+            if ((other.words[i] & ~words[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return words.length == 0;
+    }
+
+    /**
+     * @return the number of skills in the set
+     */
+    public int size() {
+        int size = 0;
+        for (long word : words) {
+            size += Long.bitCount(word);
+        }
+        return size;
+    }
+
+    /**
+     * Finds the next skill of the set, used to iterate the skills without allocating
+     *
+     * @param from the first skill to check
+     * @return the lowest skill of the set equal or greater than from, or -1 if there is none
+     */
+    public int nextSkill(int from) {
+        int index = from >> 6;
+        if (index >= words.length) {
+            return -1;
+        }
+        long word = words[index] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (index << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++index == words.length) {
+                return -1;
+            }
+            word = words[index];
+        }
+    }
+
+    /**
+     * @return the highest skill of the set plus one, or zero if the set is empty
+     */
+    public int length() {
+        if (words.length == 0) {
+            return 0;
+        }
+        int last = words.length - 1;
+        return (last << 6) + 64 - Long.numberOfLeadingZeros(words[last]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof SkillSet && Arrays.equals(words, ((SkillSet) o).words));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int skill = nextSkill(0); skill >= 0; skill = nextSkill(skill + 1)) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(skill);
+        }
+        return builder.append(']').toString();
+    }
+}
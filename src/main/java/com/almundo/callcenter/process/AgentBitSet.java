@@ -0,0 +1,191 @@
+package com.almundo.callcenter.process;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bitset over the slots of the agent table, with a summary bit for each word telling whether the word has any bit set.
+ * Looking for the next set bit skips 4096 clear slots with each summary word, so it takes a few nanoseconds even with hundreds of thousands of agents.
+ * The words are kept in a LongBuffer that wraps an array on the heap or a direct buffer off the heap. It's only changed holding the pool lock, the routing threads read it without the lock and check the employee they find.
+ * The words and their summary are published together through a volatile field once a grown copy is filled, and each operation reads that field once, so a reader never mixes the summary of a grown bitset with the words of the old one
+ */
+final class AgentBitSet {
+
+    private final boolean offHeap;
+
+    private volatile Words current;
+
+    /**
+     * Only changed holding the pool lock
+     */
+    private volatile int cardinality;
+
+    /**
+     * @param slots   the initial number of slots
+     * @param offHeap whether the words are kept in a direct buffer
+     */
+    AgentBitSet(int slots, boolean offHeap) {
+        this.offHeap = offHeap;
+        this.current = new Words(allocate(wordsFor(slots)));
+    }
+
+    /**
+     * Grows the bitset so it has at least the given number of slots, the new slots are clear
+     */
+    void ensureCapacity(int slots) {
+        Words old = current;
+        int length = wordsFor(slots);
+        if (length <= old.length) {
+            return;
+        }
+        Words grown = new Words(allocate(Math.max(length, old.length * 2)));
+        for (int index = 0; index < old.length; index++) {
+            long word = old.words.get(index);
+            if (word != 0) {
+                grown.words.put(index, word);
+                grown.summary.set(index >>> 6, grown.summary.get(index >>> 6) | 1L << index);
+            }
+        }
+        current = grown;
+    }
+
+    boolean get(int slot) {
+        Words w = current;
+        int index = slot >>> 6;
+        return index < w.length && (w.words.get(index) & (1L << slot)) != 0;
+    }
+
+    void set(int slot) {
+        Words w = current;
+        int index = slot >>> 6;
+        long word = w.words.get(index);
+        long bit = 1L << slot;
+        if ((word & bit) == 0) {
+            w.words.put(index, word | bit);
+            //Only the pool sets and clears the bits, so the summary word doesn't need a CAS, the atomic array keeps its reads and writes whole and visible
+            w.summary.set(index >>> 6, w.summary.get(index >>> 6) | 1L << index);
+            cardinality++;
+        }
+    }
+
+    void clear(int slot) {
+        Words w = current;
+        int index = slot >>> 6;
+        if (index >= w.length) {
+            return;
+        }
+        long word = w.words.get(index);
+        long bit = 1L << slot;
+        if ((word & bit) != 0) {
+            word &= ~bit;
+            w.words.put(index, word);
+            if (word == 0) {
+                w.summary.set(index >>> 6, w.summary.get(index >>> 6) & ~(1L << index));
+            }
+            cardinality--;
+        }
+    }
+
+    /**
+     * @return the word at the index, zero past the end of the bitset
+     */
+    long word(int index) {
+        Words w = current;
+        return index < w.length ? w.words.get(index) : 0;
+    }
+
+    /**
+     * @return the number of words of the bitset
+     */
+    int wordCount() {
+        return current.length;
+    }
+
+    /**
+     * Finds the next word with any bit set using the summary
+     *
+     * @param from the first word to check
+     * @return the index of the next word that isn't zero, or -1 if there is none
+     */
+    int nextWord(int from) {
+        return nextWord(current, from);
+    }
+
+    /**
+     * @param from the first slot to check
+     * @return the next set slot equal or greater than from, or -1 if there is none
+     */
+    int nextSetBit(int from) {
+        Words w = current;
+        int index = from >>> 6;
+        if (index >= w.length) {
+            return -1;
+        }
+        long word = w.words.get(index) & (-1L << from);
+        if (word != 0) {
+            return (index << 6) + Long.numberOfTrailingZeros(word);
+        }
+        while ((index = nextWord(w, index + 1)) >= 0) {
+            //The summary may still show a word cleared meanwhile
+            word = w.words.get(index);
+            if (word != 0) {
+                return (index << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of set slots
+     */
+    int cardinality() {
+        return cardinality;
+    }
+
+    private static int nextWord(Words w, int from) {
+        int index = from >>> 6;
+        int summaries = w.summary.length();
+        if (index >= summaries) {
+            return -1;
+        }
+        long bits = w.summary.get(index) & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return (index << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++index == summaries) {
+                return -1;
+            }
+            bits = w.summary.get(index);
+        }
+    }
+
+    private LongBuffer allocate(int length) {
+        if (offHeap) {
+            return ByteBuffer.allocateDirect(length * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        return LongBuffer.wrap(new long[length]);
+    }
+
+    private static int wordsFor(int bits) {
+        return Math.max(1, (bits + 63) >>> 6);
+    }
+
+    /**
+     * Words of the bitset and their summary, replaced together when the bitset grows. The buffer is only read and written with absolute indexes, so its position is never shared
+     */
+    private static final class Words {
+
+        private final LongBuffer words;
+        private final int length;
+        private final AtomicLongArray summary;
+
+        Words(LongBuffer words) {
+            this.words = words;
+            this.length = words.capacity();
+            this.summary = new AtomicLongArray(wordsFor(length));
+        }
+    }
+}
@@ -0,0 +1,583 @@
+package com.almundo.callcenter.process;
+
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.model.SkillSet;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * State of the employees of a pool stored as columns indexed by the slot of each employee: the type and flags of each slot, a bitset of idle slots for each type and a bitset of slots for each skill.
+ * Taking an idle employee clears the bit of its slot with a CAS, and the bit is found with Long.numberOfTrailingZeros on three levels (the chunks of the type with idle slots, the words of the chunk with idle slots and the word itself), so routing and releasing never lock and take constant time even with 100k+ employees.
+ * The slots are kept in chunks of 4096 that are never moved, so a CAS racing with the growth of the table isn't lost. Joining, leaving and changing the type of an employee are guarded by the pool lock, the skill bitsets (which can be kept off the heap) are read without it and the routing threads check the employee they claimed
+ */
+final class AgentTable {
+
+    /**
+     * Result of take when there is no idle employee of the type with the skills
+     */
+    static final int NONE = -1;
+
+    /**
+     * Result of take when the slot claimed belonged to an employee that left the pool, the permit counting it is consumed
+     */
+    static final int LEFT = -2;
+
+    private static final EmployeeType[] TYPES = EmployeeType.values();
+
+    private static final int CHUNK_SHIFT = 12;
+
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    /**
+     * Index of the summary word of the bitsets of a chunk, after its 64 words, with a bit for each word that may have a bit set
+     */
+    private static final int SUMMARY = 64;
+
+    /**
+     * The state of a slot keeps the ordinal of the type in the low bits and the flag of an employee that left the pool while answering a call
+     */
+    private static final int TYPE_MASK = 0xFF;
+
+    private static final int RETIRED = 1 << 8;
+
+    private static final int INITIAL_SLOTS = 64;
+
+    private final boolean offHeap;
+
+    private volatile Chunk[] chunks;
+
+    /**
+     * Chunks that may have idle slots of each type, the chunk c sets the bit c % 64 so the routing threads only look at those chunks
+     */
+    private final AtomicLong[] idleChunks;
+
+    /**
+     * Chunks with slots released by employees that left the pool, the chunk c sets the bit c % 64
+     */
+    private final AtomicLong pendingChunks;
+
+    /**
+     * Slots of the employees having each skill, indexed by skill, whether they are idle or not. The array is replaced when a new skill appears
+     */
+    private volatile AgentBitSet[] bySkill;
+
+    /**
+     * Slot after the last one taken for each type, the idle slots of a type are taken round-robin from it. It's only a hint, so it's updated without synchronization
+     */
+    private final int[] cursors;
+
+    private int[] freeSlots;
+    private int freeCount;
+
+    /**
+     * Number of slots ever used, the slots from it to the capacity have never been taken
+     */
+    private int used;
+
+    /**
+     * @param offHeap whether the skill bitsets are kept in direct buffers
+     */
+    AgentTable(boolean offHeap) {
+        this.offHeap = offHeap;
+        chunks = new Chunk[]{new Chunk()};
+        idleChunks = new AtomicLong[TYPES.length];
+        for (int i = 0; i < TYPES.length; i++) {
+            idleChunks[i] = new AtomicLong();
+        }
+        pendingChunks = new AtomicLong();
+        bySkill = new AgentBitSet[0];
+        cursors = new int[TYPES.length];
+        freeSlots = new int[INITIAL_SLOTS];
+    }
+
+    /**
+     * Adds an employee of the pool to a free slot, it isn't idle until it's released or marked as idle
+     *
+     * @return the slot of the employee
+     */
+    int add(Employee employee) {
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : grow();
+        Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+        chunk.agents[slot & CHUNK_MASK] = employee;
+        chunk.states.set(slot & CHUNK_MASK, employee.getType().ordinal());
+        SkillSet skills = employee.getSkills();
+        for (int skill = skills.nextSkill(0); skill >= 0; skill = skills.nextSkill(skill + 1)) {
+            AgentBitSet[] skillSets = bySkill;
+            if (skill >= skillSets.length || skillSets[skill] == null) {
+                skillSets = Arrays.copyOf(skillSets, Math.max(skillSets.length, skill + 1));
+                skillSets[skill] = new AgentBitSet(used, offHeap);
+                bySkill = skillSets;
+            }
+            skillSets[skill].ensureCapacity(used);
+            skillSets[skill].set(slot);
+        }
+        employee.setSlot(slot);
+        return slot;
+    }
+
+    /**
+     * @return true if the employee is in the slot of this table
+     */
+    boolean contains(Employee employee) {
+        int slot = employee.getSlot();
+        return slot >= 0 && slot < used && employee(slot) == employee;
+    }
+
+    /**
+     * @return the employee of the slot
+     */
+    Employee employee(int slot) {
+        return chunks[slot >>> CHUNK_SHIFT].agents[slot & CHUNK_MASK];
+    }
+
+    /**
+     * Marks the slot as idle in the bitset of its type
+     */
+    void setIdle(int slot) {
+        Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+        setIdle(chunk, slot, chunk.states.get(slot & CHUNK_MASK) & TYPE_MASK);
+    }
+
+    /**
+     * Flags the employee of the slot as leaving the pool, an idle employee leaves straight away and a busy one when it's released
+     *
+     * @return true if the employee was idle and its slot is free
+     */
+    boolean retire(int slot) {
+        Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+        int i = slot & CHUNK_MASK;
+        int state = chunk.states.get(i);
+        chunk.states.set(i, state | RETIRED);
+        if (clearBit(chunk.idle[state & TYPE_MASK], i)) {
+            free(slot);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Clears the flag of an employee that comes back to the pool before the call it was answering ends
+     */
+    void rejoin(int slot) {
+        Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+        int i = slot & CHUNK_MASK;
+        chunk.states.set(i, chunk.states.get(i) & ~RETIRED);
+    }
+
+    /**
+     * Changes the type of a slot, moving it to the idle bitset of the new type if it's idle
+     */
+    void setType(int slot, EmployeeType type) {
+        Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+        int i = slot & CHUNK_MASK;
+        int state = chunk.states.get(i);
+        int old = state & TYPE_MASK;
+        chunk.states.set(i, (state & ~TYPE_MASK) | type.ordinal());
+        if (old != type.ordinal() && clearBit(chunk.idle[old], i)) {
+            setIdle(chunk, slot, type.ordinal());
+        }
+    }
+
+    /**
+     * Claims an idle employee of the type with all the required skills, round-robin among the idle slots of the type. The caller must hold a permit of the pool
+     *
+     * @return the slot claimed, no longer idle, {@link #NONE} if there is none or {@link #LEFT} if the permit was consumed by an employee that left the pool
+     */
+    int take(EmployeeType type, SkillSet requiredSkills) {
+        int t = type.ordinal();
+        while (true) {
+            int slot = requiredSkills.isEmpty() ? claim(t, cursors[t], requiredSkills) : claimBySkills(t, requiredSkills, cursors[t]);
+            if (slot < 0) {
+                return NONE;
+            }
+            Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+            int i = slot & CHUNK_MASK;
+            int state = chunk.states.get(i);
+            if ((state & RETIRED) != 0) {
+                markPending(chunk, slot);
+                //An employee coming back to the pool meanwhile keeps the claim, unless the pool already moved it to the idle bitsets
+                if ((chunk.states.get(i) & RETIRED) != 0 || !clearBit(chunk.pending, i)) {
+                    return LEFT;
+                }
+                state = chunk.states.get(i);
+            }
+            if ((state & TYPE_MASK) != t) {
+                //Released with the type it had before changing it, it's moved to the bitset of its type
+                setIdle(chunk, slot, state & TYPE_MASK);
+                continue;
+            }
+            if (!chunk.agents[i].getSkills().containsAll(requiredSkills)) {
+                //The skill bitsets were read while the slot was reused by another employee, the next routing decision sees them up to date
+                setIdle(chunk, slot, t);
+                return NONE;
+            }
+            cursors[t] = slot + 1;
+            return slot;
+        }
+    }
+
+    /**
+     * Marks the slot as idle without locking. If the employee changes its type or leaves the pool while it's released the bit is set again in the bitset of the new type or taken back, unless a routing thread or the pool took it first
+     *
+     * @return true if the employee is idle, false if it left the pool and its slot will be freed by the next change of the staff
+     */
+    boolean release(int slot) {
+        Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+        int i = slot & CHUNK_MASK;
+        while (true) {
+            int state = chunk.states.get(i);
+            if ((state & RETIRED) == 0) {
+                int t = state & TYPE_MASK;
+                setIdle(chunk, slot, t);
+                int now = chunk.states.get(i);
+                if (now == state || !clearBit(chunk.idle[t], i)) {
+                    return true;
+                }
+                if ((now & RETIRED) == 0) {
+                    continue;
+                }
+            }
+            markPending(chunk, slot);
+            if ((chunk.states.get(i) & RETIRED) != 0 || !clearBit(chunk.pending, i)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Frees the slots released by the employees that left the pool, the employees that came back to the pool meanwhile are marked as idle instead
+     *
+     * @return the number of employees marked as idle
+     */
+    int drainPending() {
+        if (pendingChunks.get() == 0) {
+            return 0;
+        }
+        long marked = pendingChunks.getAndSet(0);
+        int idle = 0;
+        Chunk[] all = chunks;
+        for (; marked != 0; marked &= marked - 1) {
+            for (int c = Long.numberOfTrailingZeros(marked); c < all.length; c += 64) {
+                idle += drainPending(all[c], c);
+            }
+        }
+        return idle;
+    }
+
+    private int drainPending(Chunk chunk, int c) {
+        int idle = 0;
+        for (long words = chunk.pending.getAndSet(SUMMARY, 0); words != 0; words &= words - 1) {
+            int word = Long.numberOfTrailingZeros(words);
+            for (long bits = chunk.pending.getAndSet(word, 0); bits != 0; bits &= bits - 1) {
+                int slot = (c << CHUNK_SHIFT) + (word << 6) + Long.numberOfTrailingZeros(bits);
+                int state = chunk.states.get(slot & CHUNK_MASK);
+                if ((state & RETIRED) != 0) {
+                    free(slot);
+                } else {
+                    setIdle(chunk, slot, state & TYPE_MASK);
+                    idle++;
+                }
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * Claims the first idle slot of the type with the skills from the cursor, then in the other chunks with idle slots of the type in order, ending with the start of the chunk of the cursor
+     */
+    private int claim(int t, int cursor, SkillSet requiredSkills) {
+        Chunk[] all = chunks;
+        int first = cursor >>> CHUNK_SHIFT;
+        if (first >= all.length) {
+            first = 0;
+            cursor = 0;
+        }
+        int slot = claim(all[first], first, t, cursor & CHUNK_MASK, requiredSkills);
+        if (slot >= 0) {
+            return slot;
+        }
+        AtomicLong marks = idleChunks[t];
+        for (long marked = Long.rotateRight(marks.get(), first + 1); marked != 0; marked &= marked - 1) {
+            int bit = (Long.numberOfTrailingZeros(marked) + first + 1) & 63;
+            boolean empty = true;
+            for (int c = bit; c < all.length; c += 64) {
+                slot = claim(all[c], c, t, 0, requiredSkills);
+                if (slot >= 0) {
+                    return slot;
+                }
+                empty &= all[c].idle[t].get(SUMMARY) == 0;
+            }
+            if (empty) {
+                unmark(marks, bit, all, t);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Claims the first idle slot of the type with the skills in the chunk from the given slot of the chunk, the summary bits of the words found empty are cleared
+     */
+    private int claim(Chunk chunk, int c, int t, int from, SkillSet requiredSkills) {
+        AtomicLongArray words = chunk.idle[t];
+        int index = from >>> 6;
+        long mask = -1L << from;
+        while (index < SUMMARY) {
+            long summary = words.get(SUMMARY) & (-1L << index);
+            if (summary == 0) {
+                return -1;
+            }
+            if (Long.numberOfTrailingZeros(summary) != index) {
+                index = Long.numberOfTrailingZeros(summary);
+                mask = -1L;
+            }
+            long word = words.get(index);
+            long candidates = word & mask & skillMask((c << 6) + index, requiredSkills);
+            if (candidates == 0) {
+                if (word == 0) {
+                    clearSummary(words, index);
+                }
+                index++;
+                mask = -1L;
+                continue;
+            }
+            long bit = Long.lowestOneBit(candidates);
+            if (words.compareAndSet(index, word, word & ~bit)) {
+                if (word == bit) {
+                    clearSummary(words, index);
+                }
+                return (c << CHUNK_SHIFT) + (index << 6) + Long.numberOfTrailingZeros(bit);
+            }
+            //Another thread changed the word, it's read again
+        }
+        return -1;
+    }
+
+    /**
+     * Walks the words of the sparsest skill bitset when it has fewer slots than the words with idle slots of the type, and intersects each word with the idle slots and the other skills
+     */
+    private int claimBySkills(int t, SkillSet requiredSkills, int cursor) {
+        AgentBitSet[] skillSets = bySkill;
+        AgentBitSet sparsest = null;
+        for (int skill = requiredSkills.nextSkill(0); skill >= 0; skill = requiredSkills.nextSkill(skill + 1)) {
+            AgentBitSet members = skill < skillSets.length ? skillSets[skill] : null;
+            if (members == null || members.cardinality() == 0) {
+                return -1;
+            }
+            if (sparsest == null || members.cardinality() < sparsest.cardinality()) {
+                sparsest = members;
+            }
+        }
+        if (sparsest.cardinality() >= idleWords(t)) {
+            return claim(t, cursor, requiredSkills);
+        }
+        int start = cursor >>> 6;
+        int slot = claimBySkills(sparsest, t, requiredSkills, start, sparsest.wordCount());
+        return slot >= 0 ? slot : claimBySkills(sparsest, t, requiredSkills, 0, start);
+    }
+
+    private int claimBySkills(AgentBitSet sparsest, int t, SkillSet requiredSkills, int from, int to) {
+        Chunk[] all = chunks;
+        for (int index = sparsest.nextWord(from); index >= 0 && index < to && index >>> 6 < all.length; index = sparsest.nextWord(index + 1)) {
+            AtomicLongArray words = all[index >>> 6].idle[t];
+            int local = index & 63;
+            while (true) {
+                long word = words.get(local);
+                long candidates = word & skillMask(index, requiredSkills);
+                if (candidates == 0) {
+                    break;
+                }
+                long bit = Long.lowestOneBit(candidates);
+                if (words.compareAndSet(local, word, word & ~bit)) {
+                    if (word == bit) {
+                        clearSummary(words, local);
+                    }
+                    return (index << 6) + Long.numberOfTrailingZeros(bit);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the slots of the word of the table having all the skills
+     */
+    private long skillMask(int index, SkillSet requiredSkills) {
+        long mask = -1L;
+        AgentBitSet[] skillSets = bySkill;
+        for (int skill = requiredSkills.nextSkill(0); skill >= 0 && mask != 0; skill = requiredSkills.nextSkill(skill + 1)) {
+            mask &= skill < skillSets.length && skillSets[skill] != null ? skillSets[skill].word(index) : 0;
+        }
+        return mask;
+    }
+
+    /**
+     * @return the number of words that may have idle slots of the type
+     */
+    private int idleWords(int t) {
+        int words = 0;
+        for (Chunk chunk : chunks) {
+            words += Long.bitCount(chunk.idle[t].get(SUMMARY));
+        }
+        return words;
+    }
+
+    /**
+     * Sets the bit of the slot before the summary bit of its word and before the bit of its chunk, so a routing thread that sees the upper levels finds the slot
+     */
+    private void setIdle(Chunk chunk, int slot, int t) {
+        int i = slot & CHUNK_MASK;
+        AtomicLongArray words = chunk.idle[t];
+        setBits(words, i >>> 6, 1L << i);
+        setBits(words, SUMMARY, 1L << (i >>> 6));
+        setBits(idleChunks[t], 1L << (slot >>> CHUNK_SHIFT));
+    }
+
+    private void markPending(Chunk chunk, int slot) {
+        int i = slot & CHUNK_MASK;
+        setBits(chunk.pending, i >>> 6, 1L << i);
+        setBits(chunk.pending, SUMMARY, 1L << (i >>> 6));
+        setBits(pendingChunks, 1L << (slot >>> CHUNK_SHIFT));
+    }
+
+    /**
+     * Frees the slot of an employee leaving the pool
+     */
+    private void free(int slot) {
+        Chunk chunk = chunks[slot >>> CHUNK_SHIFT];
+        int i = slot & CHUNK_MASK;
+        Employee employee = chunk.agents[i];
+        SkillSet skills = employee.getSkills();
+        for (int skill = skills.nextSkill(0); skill >= 0; skill = skills.nextSkill(skill + 1)) {
+            bySkill[skill].clear(slot);
+        }
+        chunk.states.set(i, 0);
+        chunk.agents[i] = null;
+        employee.setSlot(-1);
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Takes a slot that has never been used, adding a chunk when the chunks are full. The existing chunks are kept, a thread releasing a slot may still be holding the old array
+     */
+    private int grow() {
+        Chunk[] all = chunks;
+        if (used == all.length << CHUNK_SHIFT) {
+            Chunk[] grown = Arrays.copyOf(all, all.length + 1);
+            grown[all.length] = new Chunk();
+            chunks = grown;
+        }
+        if (used == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, used * 2);
+        }
+        return used++;
+    }
+
+    /**
+     * Clears the bit of the chunks whose bitsets of the type are empty, it's set again if a slot was marked as idle meanwhile
+     */
+    private static void unmark(AtomicLong marks, int bit, Chunk[] all, int t) {
+        clearBits(marks, 1L << bit);
+        for (int c = bit; c < all.length; c += 64) {
+            if (all[c].idle[t].get(SUMMARY) != 0) {
+                setBits(marks, 1L << bit);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Clears the summary bit of a word found empty, it's set again if a bit of the word was set meanwhile
+     */
+    private static void clearSummary(AtomicLongArray words, int index) {
+        long bit = 1L << index;
+        long summary;
+        do {
+            summary = words.get(SUMMARY);
+            if ((summary & bit) == 0) {
+                return;
+            }
+        } while (!words.compareAndSet(SUMMARY, summary, summary & ~bit));
+        if (words.get(index) != 0) {
+            setBits(words, SUMMARY, bit);
+        }
+    }
+
+    /**
+     * @return true if the bit was set and this thread cleared it
+     */
+    private static boolean clearBit(AtomicLongArray words, int i) {
+        int index = i >>> 6;
+        long bit = 1L << i;
+        long word;
+        do {
+            word = words.get(index);
+            if ((word & bit) == 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(index, word, word & ~bit));
+        return true;
+    }
+
+    private static void setBits(AtomicLongArray array, int index, long bits) {
+        long word;
+        do {
+            word = array.get(index);
+            if ((word & bits) == bits) {
+                return;
+            }
+        } while (!array.compareAndSet(index, word, word | bits));
+    }
+
+    private static void setBits(AtomicLong value, long bits) {
+        long word;
+        do {
+            word = value.get();
+            if ((word & bits) == bits) {
+                return;
+            }
+        } while (!value.compareAndSet(word, word | bits));
+    }
+
+    private static void clearBits(AtomicLong value, long bits) {
+        long word;
+        do {
+            word = value.get();
+        } while (!value.compareAndSet(word, word & ~bits));
+    }
+
+    /**
+     * The columns of 4096 slots
+     */
+    private static final class Chunk {
+
+        /**
+         * Employee of each slot, null for the free slots. It's written before the slot is marked as idle, so a thread that claims the slot sees it
+         */
+        final Employee[] agents = new Employee[1 << CHUNK_SHIFT];
+
+        /**
+         * Type and flags of each slot
+         */
+        final AtomicIntegerArray states = new AtomicIntegerArray(1 << CHUNK_SHIFT);
+
+        /**
+         * Idle slots of each type, 64 words and the summary word
+         */
+        final AtomicLongArray[] idle = new AtomicLongArray[TYPES.length];
+
+        /**
+         * Slots released by employees that left the pool, freed by the next change of the staff
+         */
+        final AtomicLongArray pending = new AtomicLongArray(SUMMARY + 1);
+
+        Chunk() {
+            for (int t = 0; t < idle.length; t++) {
+                idle[t] = new AtomicLongArray(SUMMARY + 1);
+            }
+        }
+    }
+}
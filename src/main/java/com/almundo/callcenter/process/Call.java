@@ -1,63 +1,282 @@
 package com.almundo.callcenter.process;
 
+import com.almundo.callcenter.clock.CallClock;
+import com.almundo.callcenter.clock.SystemCallClock;
+import com.almundo.callcenter.journal.CallEventSink;
+import com.almundo.callcenter.journal.CallEventType;
 import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.model.SkillSet;
 import com.almundo.callcenter.util.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.OptionalInt;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Class containing the information of a call and the methods for processing it
+ * Class containing the information of a call and the methods for processing it.
+ * The same record goes from the dispatcher queue to the employee that answers it, keeping its arrival time so the wait of each call can be measured.
+ * The dispatcher reuses the record for a new call once the call ends, and a call can have a numeric id that is only formatted as a string when it's read
  */
 public class Call {
 
     private static final Logger logger = LoggerFactory.getLogger(Call.class);
 
+    /**
+     * Clock used by the calls created without one, it's only used for sleeping so it never creates threads
+     */
+    private static final CallClock DEFAULT_CLOCK = new SystemCallClock();
+
+    /**
+     * Priority of the calls dispatched without one
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
     private int duration;
     private String callId;
-    private Employee employee;
+    /**
+     * Id of the calls dispatched with a numeric id, callId is formatted from it the first time it's read
+     */
+    private long numericId;
+    private boolean numeric;
+    /**
+     * Employee answering the call, it's assigned by the dispatcher when the call leaves the queue
+     */
+    private volatile Employee employee;
+    /**
+     * Type of the employee when it was assigned
+     */
+    private EmployeeType employeeType;
+    private CallClock clock = DEFAULT_CLOCK;
+    private int priority = DEFAULT_PRIORITY;
+    /**
+     * Skills an employee needs to answer the call
+     */
+    private SkillSet requiredSkills = SkillSet.NONE;
+
+    /**
+     * Position of the call in the arrival order of the queue, used to keep the order between calls requiring different skills
+     */
+    private long sequence;
+
+    /**
+     * Where the start and the end of the call are recorded, by default they are logged synchronously
+     */
+    private CallEventSink eventSink = CallEventSink.LOGGER;
+
+    /**
+     * Time in nanoseconds of the clock when the call arrived
+     */
+    private long arrivalTime;
+
+    /**
+     * Time in nanoseconds of the clock when an employee was assigned to the call
+     */
+    private long answerTime;
+
+    /**
+     * Link to the next call in the queue, in the calls ending together or in the records free to be reused, a call is only in one of them at a time
+     */
+    Call next;
+
+    /**
+     * Link to the previous call in the queue, so a call whose caller hung up is removed without walking the queue
+     */
+    Call prev;
+
+    /**
+     * Links to the calls with a deadline in the same bucket of the timing wheel, the tick of the deadline and the generation of the record when it was added, guarded by the wheel lock
+     */
+    Call timerNext;
+    Call timerPrev;
+    long timerTick = TimingWheel.NOT_SCHEDULED;
+    int timerGeneration;
+
+    /**
+     * Last employee type in escalation order that can answer the call, the queue lowers it to keep the higher tiers free until the call nears its service level target
+     */
+    private volatile EmployeeType highestType = EmployeePool.HIGHEST_TYPE;
+
+    /**
+     * Number of times the record has been reused, it tells whether a record still holds the same call
+     */
+    private volatile int generation;
 
     public Call() {
         this.duration = getCallDuration();
     }
 
     public Call(String callId, Employee employee) {
-        this.duration = getCallDuration();
+        this(callId, employee, getCallDuration());
+    }
+
+    public Call(String callId, Employee employee, int duration) {
+        this.duration = duration;
         this.callId = callId;
         this.employee = employee;
     }
 
+    public Call(String callId, Employee employee, int duration, CallClock clock) {
+        this(callId, employee, duration);
+        this.clock = clock;
+        this.arrivalTime = clock.nanoTime();
+    }
+
+    /**
+     * Creates a new incoming call that hasn't been assigned to an employee yet, its arrival time is the current time of the clock
+     *
+     * @param callId   the id of the call
+     * @param priority the priority of the call
+     * @param duration the duration of the call in seconds
+     * @param clock    the clock used for the duration of the call
+     */
+    public Call(String callId, int priority, int duration, CallClock clock) {
+        this(callId, null, duration, clock);
+        this.priority = priority;
+    }
+
+    /**
+     * Resets a reused record for a new incoming call, its arrival time is the current time of the clock
+     */
+    void init(String callId, int priority, int duration, CallClock clock) {
+        reset(priority, duration, clock);
+        this.callId = callId;
+    }
+
+    /**
+     * Resets a reused record for a new incoming call with a numeric id
+     */
+    void init(long callId, int priority, int duration, CallClock clock) {
+        reset(priority, duration, clock);
+        this.numericId = callId;
+        this.numeric = true;
+    }
+
+    private void reset(int priority, int duration, CallClock clock) {
+        //The generation changes before the employee is cleared, so a thread that sees the cleared employee also sees the new generation
+        this.generation++;
+        this.callId = null;
+        this.numeric = false;
+        this.employee = null;
+        this.employeeType = null;
+        this.priority = priority;
+        this.duration = duration;
+        this.clock = clock;
+        this.requiredSkills = SkillSet.NONE;
+        this.eventSink = CallEventSink.LOGGER;
+        this.arrivalTime = clock.nanoTime();
+        this.answerTime = 0;
+        this.next = null;
+        this.prev = null;
+        //The queue cancels the deadline of a call when it leaves it, so a released record is never linked in the wheel
+        this.timerNext = null;
+        this.timerPrev = null;
+        this.timerTick = TimingWheel.NOT_SCHEDULED;
+        this.highestType = EmployeePool.HIGHEST_TYPE;
+    }
+
     /**
      * Process a call  logging the information about the id, the duration and the employee that answered, and waiting for "duration" seconds to finish
+     *
+     * @return true if the call finished, false if the thread was interrupted before, in that case the end of the call isn't recorded
      */
-    public void answerCall() {
+    public boolean answerCall() {
         try {
-            logger.info("++++++++Answering call: {} Employee: {} Duration: {}", callId, employee.getId(), duration);
-            TimeUnit.SECONDS.sleep(duration);
-            logger.info("--------Call answered: {} Employee: {} Duration: {}", callId, employee.getId(), duration);
-            employee.setBusy(false);
+            begin();
+            clock.sleep(duration, TimeUnit.SECONDS);
+            finish();
+            return true;
         } catch (InterruptedException e) {
-            logger.error("Interrupted Exception",e);
+            logger.warn("Call interrupted: {}", getCallId());
             Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Records the start of the call, used by the event dispatch where the call isn't processed by a blocked thread
+     */
+    public void begin() {
+        record(CallEventType.ASSIGNED, employee.getId());
+    }
+
+    /**
+     * Records the end of the call once its duration has elapsed
+     */
+    public void finish() {
+        record(CallEventType.COMPLETED, employee.getId());
+    }
+
+    /**
+     * Records that the call was rejected or dropped by the waiting queue
+     */
+    public void reject() {
+        record(CallEventType.REJECTED, null);
+    }
+
+    /**
+     * Records that the caller hung up while the call was waiting in the queue
+     */
+    public void abandon() {
+        record(CallEventType.ABANDONED, null);
+    }
+
+    /**
+     * Records that the call was sent to another node of the cluster
+     *
+     * @param node the address of the node that will answer the call
+     */
+    public void handOff(String node) {
+        record(CallEventType.HANDED_OFF, node);
+    }
+
+    /**
+     * Records an event passing the numeric id as is, so the sink can format it outside the dispatch threads
+     */
+    private void record(CallEventType type, String employeeId) {
+        if (numeric) {
+            eventSink.record(type, numericId, employeeId, duration, priority, clock.nanoTime());
+        } else {
+            eventSink.record(type, callId, employeeId, duration, priority, clock.nanoTime());
         }
     }
 
     /**
-     * Calculate a random value between CALL_MIN_DURATION and CALL_MAX_DURATION
+     * Assigns the employee that will answer the call
+     *
+     * @param employee   the employee
+     * @param answerTime time in nanoseconds of the clock when the employee was assigned
+     */
+    public void assign(Employee employee, long answerTime) {
+        this.answerTime = answerTime;
+        this.employee = employee;
+        this.employeeType = employee.getType();
+    }
+
+    /**
+     * The type of an employee can change while it answers a call, the metrics count the call in the type it had when it was assigned
+     *
+     * @return the type of the employee when it was assigned, null if the call wasn't assigned
+     */
+    public EmployeeType getEmployeeType() {
+        return employeeType;
+    }
+
+    /**
+     * @return the time in nanoseconds the call waited in the queue until an employee was assigned
+     */
+    public long getWaitTime() {
+        return answerTime - arrivalTime;
+    }
+
+    /**
+     * Calculate a random value between CALL_MIN_DURATION and CALL_MAX_DURATION, using the random generator of the current thread so it doesn't allocate nor contend with other threads
      *
      * @return the value calculated
      */
-    private int getCallDuration() {
-        int minCallDuration = Constants.CALL_MIN_DURATION;
-        int maxCallDuration = Constants.CALL_MAX_DURATION;
-        OptionalInt callDuration;
-        do {
-            callDuration = new Random().ints(minCallDuration, (maxCallDuration + 1)).limit(1).findFirst();
-        } while (!callDuration.isPresent());
-        return callDuration.getAsInt();
+    public static int getCallDuration() {
+        return ThreadLocalRandom.current().nextInt(Constants.CALL_MIN_DURATION, Constants.CALL_MAX_DURATION + 1);
     }
 
     public int getDuration() {
@@ -68,12 +287,84 @@ public class Call {
         this.duration = duration;
     }
 
+    /**
+     * @return the id of the call, a numeric id is formatted the first time it's read
+     */
     public String getCallId() {
+        if (numeric && callId == null) {
+            callId = Long.toString(numericId);
+        }
         return callId;
     }
 
     public void setCallId(String callId) {
         this.callId = callId;
+        this.numeric = false;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public SkillSet getRequiredSkills() {
+        return requiredSkills;
+    }
+
+    /**
+     * Set the skills an employee needs to answer the call, they can't be changed once the call is queued
+     *
+     * @param requiredSkills the skills
+     */
+    public void setRequiredSkills(SkillSet requiredSkills) {
+        this.requiredSkills = requiredSkills;
+    }
+
+    EmployeeType getHighestType() {
+        return highestType;
+    }
+
+    void setHighestType(EmployeeType highestType) {
+        this.highestType = highestType;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public long getArrivalTime() {
+        return arrivalTime;
+    }
+
+    public long getAnswerTime() {
+        return answerTime;
+    }
+
+    public CallEventSink getEventSink() {
+        return eventSink;
+    }
+
+    public void setEventSink(CallEventSink eventSink) {
+        this.eventSink = eventSink;
+    }
+
+    public CallClock getClock() {
+        return clock;
+    }
+
+    public void setClock(CallClock clock) {
+        this.clock = clock;
     }
 
     public Employee getEmployee() {
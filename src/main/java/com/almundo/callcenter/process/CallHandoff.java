@@ -0,0 +1,19 @@
+package com.almundo.callcenter.process;
+
+import com.almundo.callcenter.journal.RecoveredCalls;
+
+/**
+ * Receives the calls waiting in a dispatcher that is shutting down, for example to send them to another node of the cluster
+ */
+@FunctionalInterface
+public interface CallHandoff {
+
+    /**
+     * Takes a waiting call. The handoff gets a copy of the call, the record of the call stays in the dispatcher, which records the handoff on it and reuses it once this returns
+     *
+     * @param call the call removed from the queue
+     * @return the node that will answer the call
+     * @throws RuntimeException if the call can't be taken, the dispatcher then returns it with the calls that weren't answered
+     */
+    String handOff(RecoveredCalls.PendingCall call);
+}
@@ -0,0 +1,50 @@
+package com.almundo.callcenter.process;
+
+/**
+ * Records of the calls that ended, the dispatcher reuses them for the new calls instead of creating a record for each call.
+ * The free records are linked through the records themselves, so taking and returning a record doesn't allocate memory
+ */
+final class CallPool {
+
+    /**
+     * Max number of free records kept, the records returned when the pool is full are left to the garbage collector
+     */
+    private final int capacity;
+
+    private Call free;
+    private int size;
+
+    CallPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return a free record or a new one if there isn't any, it must be initialized before using it
+     */
+    synchronized Call take() {
+        Call call = free;
+        if (call == null) {
+            return new Call();
+        }
+        free = call.next;
+        call.next = null;
+        size--;
+        return call;
+    }
+
+    /**
+     * Returns the record of a call that ended, it must not be referenced by the dispatcher anymore
+     */
+    synchronized void release(Call call) {
+        if (size == capacity) {
+            return;
+        }
+        call.next = free;
+        free = call;
+        size++;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+}
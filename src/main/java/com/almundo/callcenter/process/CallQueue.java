@@ -0,0 +1,724 @@
+package com.almundo.callcenter.process;
+
+import com.almundo.callcenter.clock.CallClock;
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.model.SkillSet;
+import com.almundo.callcenter.util.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue for the calls waiting for an employee, when it's full new calls are handled following its overflow policy.
+ * Calls with a higher priority are answered first and calls with the same priority are answered in arrival order, a call waiting for an employee with skills that are all busy doesn't hold the calls behind it.
+ * The free slots are tracked by a semaphore, so the only lock taken to admit or remove a call is the short lock of its FIFO, and the calls are linked through the call records so the queue doesn't allocate memory for each call.
+ * With wait deadlines set, a timing wheel keeps the calls answered only by the first employee type until they near their service level target and removes the calls whose callers run out of patience
+ */
+public class CallQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallQueue.class);
+
+    /**
+     * First employee type in escalation order, the only one answering the calls that are kept from the higher types
+     */
+    private static final EmployeeType FIRST_TYPE = EmployeeType.values()[0];
+
+    /**
+     * Calls waiting for an employee grouped by priority, from the highest to the lowest
+     */
+    private final ConcurrentSkipListMap<Integer, Lane> lanes;
+
+    /**
+     * The lanes ordered from the highest priority to the lowest, replaced when a new priority arrives so it's iterated without allocating
+     */
+    private volatile Lane[] orderedLanes;
+
+    /**
+     * Counter giving each admitted call its position in the arrival order
+     */
+    private final AtomicLong sequence;
+
+    /**
+     * Max number of calls that can be waiting at the same time
+     */
+    private volatile int capacity;
+
+    /**
+     * Semaphore with a lock for each free slot in the queue, resized with the capacity
+     */
+    private final ResizableSemaphore freeSlots;
+
+    private volatile OverflowPolicy overflowPolicy;
+
+    /**
+     * Max time in nanoseconds a caller is blocked when the policy is BLOCK
+     */
+    private volatile long blockTimeout;
+
+    /**
+     * A counter for the calls that weren't admitted because the queue was full
+     */
+    private final AtomicLong callsRejected;
+
+    /**
+     * A counter for the calls removed from the queue to make room for newer calls
+     */
+    private final AtomicLong callsDropped;
+
+    /**
+     * Deadlines of the waiting calls, null until the wait deadlines are set
+     */
+    private volatile TimingWheel timer;
+
+    /**
+     * Time in nanoseconds a call is only answered by the first employee type, zero if any type can answer it from its arrival
+     */
+    private volatile long escalationWait;
+
+    /**
+     * Time in nanoseconds a caller waits before hanging up, zero if callers never hang up
+     */
+    private volatile long patience;
+
+    private volatile WaitListener waitListener;
+
+    /**
+     * Pool the records of the dropped calls are returned to, null if the records belong to the caller
+     */
+    private volatile CallPool callPool;
+
+    /**
+     * Creates a queue that rejects new calls once it's full
+     *
+     * @param capacity the max number of waiting calls
+     */
+    public CallQueue(int capacity) {
+        this(capacity, OverflowPolicy.REJECT, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates a queue setting what happens with new calls once it's full
+     *
+     * @param capacity       the max number of waiting calls
+     * @param overflowPolicy the policy for new calls when the queue is full
+     * @param blockTimeout   max time a caller is blocked with the BLOCK policy
+     * @param unit           the unit of the timeout
+     */
+    public CallQueue(int capacity, OverflowPolicy overflowPolicy, long blockTimeout, TimeUnit unit) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+        }
+        this.lanes = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+        this.orderedLanes = new Lane[0];
+        this.sequence = new AtomicLong(0);
+        this.capacity = capacity;
+        this.freeSlots = new ResizableSemaphore(capacity, false);
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeout = unit.toNanos(blockTimeout);
+        this.callsRejected = new AtomicLong(0);
+        this.callsDropped = new AtomicLong(0);
+    }
+
+    /**
+     * Adds a call after the calls with the same priority applying the overflow policy if the queue is full
+     *
+     * @param call the new call
+     * @return true if the call was admitted, false if it was rejected
+     */
+    public boolean offer(Call call) {
+        return offer(call, true);
+    }
+
+    /**
+     * Adds a call after the calls with the same priority applying the overflow policy if the queue is full, with the BLOCK policy it can reject the call instead of blocking the caller
+     *
+     * @param call  the new call
+     * @param block whether the caller can be blocked with the BLOCK policy, if not the call is rejected as with the REJECT policy
+     * @return true if the call was admitted, false if it was rejected
+     */
+    public boolean offer(Call call, boolean block) {
+        if (!admit(block)) {
+            callsRejected.incrementAndGet();
+            logger.warn("Waiting queue full, call rejected: {}", call.getCallId());
+            return false;
+        }
+        call.setSequence(sequence.getAndIncrement());
+        restrict(call);
+        CallFifo fifo = lane(call.getPriority()).fifo(call.getRequiredSkills());
+        synchronized (fifo) {
+            fifo.add(call);
+            schedule(call);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a burst of calls taking the free slots for all of them at once, the calls with the same priority and skills are linked to their queue together.
+     * It never blocks nor drops calls, the calls that don't fit are left to the caller
+     *
+     * @param calls the new calls, in arrival order
+     * @return the number of calls admitted, from the first one, the rest must be offered one by one to apply the overflow policy
+     */
+    public int offerAll(List<Call> calls) {
+        int admitted = takeSlots(calls.size());
+        long first = sequence.getAndAdd(admitted);
+        int from = 0;
+        for (int i = 0; i < admitted; i++) {
+            Call call = calls.get(i);
+            call.setSequence(first + i);
+            restrict(call);
+            if (i + 1 == admitted || !sameQueue(call, calls.get(i + 1))) {
+                CallFifo fifo = lane(call.getPriority()).fifo(call.getRequiredSkills());
+                synchronized (fifo) {
+                    fifo.addAll(calls, from, i + 1);
+                    for (int j = from; j <= i; j++) {
+                        schedule(calls.get(j));
+                    }
+                }
+                from = i + 1;
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Removes the call at the head of the queue
+     *
+     * @return the call with the highest priority that has been waiting the longest or null if the queue is empty
+     */
+    public Call poll() {
+        for (Lane lane : orderedLanes) {
+            Call call = lane.poll();
+            if (call != null) {
+                freeSlots.release();
+                cancel(call);
+                return call;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the first call, in priority and arrival order, for which the pool has an idle employee with the required skills, and assigns that employee to it.
+     * Several threads can route calls at the same time, when another thread takes the call first the employee is returned to the pool
+     *
+     * @param pool the pool the employee is taken from
+     * @return the call with the employee set or null if no waiting call can be answered now
+     */
+    public Call poll(EmployeePool pool) {
+        for (Lane lane : orderedLanes) {
+            Call call = lane.poll(pool);
+            if (call != null) {
+                freeSlots.release();
+                cancel(call);
+                return call;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the wait deadlines of the calls admitted from now on, the calls already waiting keep their deadlines.
+     * A call is only answered by the first employee type in escalation order until it has waited the escalation wait, then by any type, and it's removed from the queue once it has waited the patience
+     *
+     * @param clock          the clock the waits are measured with, the one of the dispatcher
+     * @param escalationWait time a call is kept for the first employee type, zero to let any type answer it from its arrival
+     * @param patience       time a caller waits before hanging up, zero if callers never hang up
+     * @param unit           the unit of the times
+     * @param listener       receives the calls that are escalated or abandoned
+     */
+    public synchronized void setWaitDeadlines(CallClock clock, long escalationWait, long patience, TimeUnit unit, WaitListener listener) {
+        if (escalationWait < 0 || patience < 0) {
+            throw new IllegalArgumentException("Wait deadlines must not be negative: " + escalationWait + ", " + patience);
+        }
+        if (timer == null && (escalationWait > 0 || patience > 0)) {
+            //The wheel is kept once created, a deadline longer than a turn of the wheel just waits for more turns
+            timer = new TimingWheel(clock, Constants.SLA_TIMER_TICK_MILLIS, unit.toMillis(Math.max(escalationWait, patience)), TimeUnit.MILLISECONDS, this::expired);
+        }
+        this.waitListener = listener;
+        this.escalationWait = unit.toNanos(escalationWait);
+        this.patience = unit.toNanos(patience);
+    }
+
+    /**
+     * @return time in nanoseconds a call is only answered by the first employee type, zero if any type can answer it from its arrival
+     */
+    public long getEscalationWait() {
+        return escalationWait;
+    }
+
+    /**
+     * @return time in nanoseconds a caller waits before hanging up, zero if callers never hang up
+     */
+    public long getPatience() {
+        return patience;
+    }
+
+    /**
+     * Limits a new call to the first employee type when the higher types are kept for the calls nearing their target
+     */
+    private void restrict(Call call) {
+        if (escalationWait > 0) {
+            call.setHighestType(FIRST_TYPE);
+        }
+    }
+
+    /**
+     * Adds the first deadline of a call while holding the lock of its queue, so the call can't leave the queue and have its deadline cancelled before the deadline is added
+     */
+    private void schedule(Call call) {
+        TimingWheel wheel = timer;
+        if (wheel == null) {
+            return;
+        }
+        if (call.getHighestType() != EmployeePool.HIGHEST_TYPE) {
+            wheel.add(call, call.getArrivalTime() + escalationWait);
+        } else if (patience > 0) {
+            wheel.add(call, call.getArrivalTime() + patience);
+        }
+    }
+
+    private void cancel(Call call) {
+        TimingWheel wheel = timer;
+        if (wheel != null) {
+            wheel.cancel(call);
+        }
+    }
+
+    /**
+     * Called by the timing wheel when a deadline of a call expires: a call kept for the first employee type is escalated, any other call is abandoned.
+     * The record may have left the queue and been reused since the deadline expired, so the call is only changed if it still has the same generation and is still in its queue
+     */
+    private void expired(Call call, int generation) {
+        Lane lane = lanes.get(call.getPriority());
+        if (lane == null || call.getGeneration() != generation) {
+            return;
+        }
+        CallFifo fifo = lane.fifo(call.getRequiredSkills());
+        WaitListener listener = waitListener;
+        if (call.getHighestType() != EmployeePool.HIGHEST_TYPE) {
+            synchronized (fifo) {
+                if (!fifo.escalate(call, generation)) {
+                    return;
+                }
+                long wait = patience;
+                if (wait > 0) {
+                    //Added with the call still in the queue, so the deadline is cancelled when the call leaves it
+                    timer.add(call, call.getArrivalTime() + wait);
+                }
+            }
+            if (listener != null) {
+                listener.callEscalated(call);
+            }
+        } else if (fifo.remove(call, generation)) {
+            freeSlots.release();
+            logger.warn("Caller hung up, call abandoned: {}", call.getCallId());
+            if (listener != null) {
+                listener.callAbandoned(call);
+            }
+        }
+    }
+
+    private Lane lane(int priority) {
+        Lane lane = lanes.get(priority);
+        return lane != null ? lane : addLane(priority);
+    }
+
+    private synchronized Lane addLane(int priority) {
+        Lane lane = lanes.computeIfAbsent(priority, key -> new Lane());
+        orderedLanes = lanes.values().toArray(new Lane[0]);
+        return lane;
+    }
+
+    /**
+     * Takes as many free slots as possible up to the given number in a single acquire
+     */
+    private int takeSlots(int wanted) {
+        while (wanted > 0 && !freeSlots.tryAcquire(wanted)) {
+            wanted = Math.min(wanted - 1, freeSlots.availablePermits());
+        }
+        return Math.max(wanted, 0);
+    }
+
+    private static boolean sameQueue(Call call, Call next) {
+        return call.getPriority() == next.getPriority() && call.getRequiredSkills().equals(next.getRequiredSkills());
+    }
+
+    /**
+     * Takes a free slot for a new call, for DROP_OLDEST the slot of the dropped call is handed over to the new one
+     */
+    private boolean admit(boolean block) {
+        if (freeSlots.tryAcquire()) {
+            return true;
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                if (!block) {
+                    return false;
+                }
+                try {
+                    return freeSlots.tryAcquire(blockTimeout, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case DROP_OLDEST:
+                while (true) {
+                    Call oldest = pollOldest();
+                    if (oldest != null) {
+                        callsDropped.incrementAndGet();
+                        logger.warn("Waiting queue full, call dropped: {}", oldest.getCallId());
+                        oldest.reject();
+                        CallPool pool = callPool;
+                        if (pool != null) {
+                            pool.release(oldest);
+                        }
+                        return true;
+                    }
+                    //The queue was emptied after the slot check, so a slot is about to be released
+                    if (freeSlots.tryAcquire()) {
+                        return true;
+                    }
+                }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Removes the call that has been waiting the longest among the calls with the lowest priority
+     */
+    private Call pollOldest() {
+        Lane[] ordered = orderedLanes;
+        for (int i = ordered.length - 1; i >= 0; i--) {
+            Call call = ordered[i].poll();
+            if (call != null) {
+                cancel(call);
+                return call;
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        for (Lane lane : orderedLanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of calls waiting in the queue
+     */
+    public int getDepth() {
+        return capacity - freeSlots.availablePermits();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Set the pool of the call records, so the records of the calls dropped with the DROP_OLDEST policy are reused
+     */
+    void setCallPool(CallPool callPool) {
+        this.callPool = callPool;
+    }
+
+    /**
+     * Changes the max number of waiting calls while calls are being queued. Shrinking it doesn't remove any call, the new calls are handled following the overflow policy until the calls waiting are below the new capacity
+     *
+     * @param capacity the max number of waiting calls
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+        }
+        synchronized (freeSlots) {
+            freeSlots.resize(capacity);
+            this.capacity = capacity;
+        }
+    }
+
+    public long getCallsRejected() {
+        return callsRejected.get();
+    }
+
+    public long getCallsDropped() {
+        return callsDropped.get();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return max time in nanoseconds a caller is blocked with the BLOCK policy
+     */
+    public long getBlockTimeout() {
+        return blockTimeout;
+    }
+
+    /**
+     * Set what happens to new calls when the queue is full
+     *
+     * @param overflowPolicy the policy
+     * @param blockTimeout   max time a caller is blocked with the BLOCK policy
+     * @param unit           the unit of the timeout
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy, long blockTimeout, TimeUnit unit) {
+        this.blockTimeout = unit.toNanos(blockTimeout);
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * The call records are reused by the dispatcher once the calls end, so they must not be kept after that
+     *
+     * @return a copy of the waiting calls, ordered as they will be answered if employees with the skills are available
+     */
+    public Queue<Call> getCalls() {
+        Queue<Call> calls = new ArrayDeque<>();
+        for (Lane lane : orderedLanes) {
+            List<Call> laneCalls = new ArrayList<>();
+            for (CallFifo fifo : lane.fifos) {
+                fifo.copyTo(laneCalls);
+            }
+            laneCalls.sort(Comparator.comparingLong(Call::getSequence));
+            calls.addAll(laneCalls);
+        }
+        return calls;
+    }
+
+    /**
+     * Receives the calls whose wait reached one of the deadlines, from the thread of the clock
+     */
+    public interface WaitListener {
+
+        /**
+         * The call has waited long enough to be answered by any employee type
+         *
+         * @param call the call, still in the queue
+         */
+        void callEscalated(Call call);
+
+        /**
+         * The caller hung up, the call is no longer in the queue
+         *
+         * @param call the call, its record can be reused once this returns
+         */
+        void callAbandoned(Call call);
+    }
+
+    /**
+     * Calls with the same priority, with a FIFO queue for each set of required skills.
+     * The heads of the queues are compared by their arrival order, so the calls keep their order and a call requiring busy skills is skipped without scanning the calls behind it
+     */
+    private static final class Lane {
+
+        private final Map<SkillSet, CallFifo> callsBySkills = new ConcurrentHashMap<>();
+
+        /**
+         * The queues of the lane, replaced when a new set of skills arrives so it's iterated without allocating
+         */
+        private volatile CallFifo[] fifos = new CallFifo[0];
+
+        CallFifo fifo(SkillSet skills) {
+            CallFifo fifo = callsBySkills.get(skills);
+            return fifo != null ? fifo : addFifo(skills);
+        }
+
+        private synchronized CallFifo addFifo(SkillSet skills) {
+            CallFifo fifo = callsBySkills.get(skills);
+            if (fifo == null) {
+                fifo = new CallFifo();
+                CallFifo[] current = fifos;
+                CallFifo[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = fifo;
+                fifos = updated;
+                callsBySkills.put(skills, fifo);
+            }
+            return fifo;
+        }
+
+        boolean isEmpty() {
+            for (CallFifo fifo : fifos) {
+                if (!fifo.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Removes the call that arrived first
+         */
+        Call poll() {
+            CallFifo first = next(Long.MIN_VALUE);
+            return first == null ? null : first.poll();
+        }
+
+        /**
+         * Tries the queues in the arrival order of their heads until the pool has an employee for one of them
+         */
+        Call poll(EmployeePool pool) {
+            long after = Long.MIN_VALUE;
+            CallFifo calls;
+            while ((calls = next(after)) != null) {
+                Call head = calls.peek();
+                if (head == null) {
+                    continue;
+                }
+                int generation = head.getGeneration();
+                Employee employee = pool.tryAcquire(head.getRequiredSkills(), head.getHighestType());
+                if (employee != null) {
+                    //The employee was chosen for the types the head can be answered by, another call may not accept that type, so only the same head is taken
+                    if (calls.pollHead(head, generation)) {
+                        head.setEmployee(employee);
+                        return head;
+                    }
+                    //Another thread took the head, the queue is checked again with its new head
+                    pool.release(employee);
+                    continue;
+                }
+                after = head.getSequence();
+            }
+            return null;
+        }
+
+        /**
+         * @return the queue whose head arrived first among the heads that arrived after the given position
+         */
+        private CallFifo next(long after) {
+            CallFifo next = null;
+            long nextSequence = Long.MAX_VALUE;
+            for (CallFifo calls : fifos) {
+                Call head = calls.peek();
+                if (head != null && head.getSequence() > after && head.getSequence() <= nextSequence) {
+                    next = calls;
+                    nextSequence = head.getSequence();
+                }
+            }
+            return next;
+        }
+    }
+
+    /**
+     * FIFO of calls doubly linked through the call records, so a call can also leave from the middle. The head can be read without the lock to compare the queues, adding and removing calls takes the lock of the queue
+     */
+    private static final class CallFifo {
+
+        private volatile Call head;
+        private Call tail;
+
+        synchronized void add(Call call) {
+            call.next = null;
+            call.prev = tail;
+            if (tail == null) {
+                head = call;
+            } else {
+                tail.next = call;
+            }
+            tail = call;
+        }
+
+        synchronized void addAll(List<Call> calls, int from, int to) {
+            for (int i = from; i < to; i++) {
+                add(calls.get(i));
+            }
+        }
+
+        Call peek() {
+            return head;
+        }
+
+        boolean isEmpty() {
+            return head == null;
+        }
+
+        synchronized Call poll() {
+            Call call = head;
+            if (call != null) {
+                unlink(call);
+            }
+            return call;
+        }
+
+        /**
+         * Removes the head of the queue if it's still the given call
+         *
+         * @return true if the call was removed
+         */
+        synchronized boolean pollHead(Call call, int generation) {
+            if (head != call || call.getGeneration() != generation) {
+                return false;
+            }
+            unlink(call);
+            return true;
+        }
+
+        /**
+         * Removes a call if the record still holds the same call and it's in this queue
+         *
+         * @return true if the call was removed
+         */
+        synchronized boolean remove(Call call, int generation) {
+            if (!contains(call, generation)) {
+                return false;
+            }
+            unlink(call);
+            return true;
+        }
+
+        /**
+         * Lets any employee type answer a call if the record still holds the same call and it's in this queue
+         *
+         * @return true if the call was escalated
+         */
+        synchronized boolean escalate(Call call, int generation) {
+            if (!contains(call, generation)) {
+                return false;
+            }
+            call.setHighestType(EmployeePool.HIGHEST_TYPE);
+            return true;
+        }
+
+        private boolean contains(Call call, int generation) {
+            return call.getGeneration() == generation && (call.prev != null || head == call);
+        }
+
+        private void unlink(Call call) {
+            if (call.prev == null) {
+                head = call.next;
+            } else {
+                call.prev.next = call.next;
+            }
+            if (call.next == null) {
+                tail = call.prev;
+            } else {
+                call.next.prev = call.prev;
+            }
+            call.next = null;
+            call.prev = null;
+        }
+
+        synchronized void copyTo(List<Call> calls) {
+            for (Call call = head; call != null; call = call.next) {
+                calls.add(call);
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.almundo.callcenter.process;
+
+/**
+ * Model representing the way the dispatcher processes the calls
+ */
+public enum DispatchMode {
+    /**
+     * Each call is submitted to the executor and the thread that answers it is blocked until the call is finished
+     */
+    BLOCKING,
+    /**
+     * Calls wait in a bounded queue and are matched with an employee when one becomes free, the end of each call is a timer callback so no thread is blocked while a call is in progress
+     */
+    EVENT
+}
@@ -0,0 +1,23 @@
+package com.almundo.callcenter.process;
+
+/**
+ * Model representing the outcome of dispatching a call
+ */
+public enum DispatchResult {
+    /**
+     * The call was admitted and an employee was assigned to it straight away
+     */
+    ACCEPTED,
+    /**
+     * The call was admitted and is waiting in the queue for an available employee
+     */
+    QUEUED,
+    /**
+     * The call wasn't admitted because the waiting queue was full, the caller gets a busy signal
+     */
+    REJECTED,
+    /**
+     * The call was sent to another node of the cluster with idle employees
+     */
+    HANDED_OFF
+}
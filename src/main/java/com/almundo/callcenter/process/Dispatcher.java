@@ -1,29 +1,63 @@
 package com.almundo.callcenter.process;
 
+import com.almundo.callcenter.clock.CallClock;
+import com.almundo.callcenter.clock.SystemCallClock;
+import com.almundo.callcenter.journal.AsyncCallEventLog;
+import com.almundo.callcenter.journal.CallEventSink;
+import com.almundo.callcenter.journal.CallEventType;
+import com.almundo.callcenter.journal.LogOverflowPolicy;
+import com.almundo.callcenter.journal.MappedCallJournal;
+import com.almundo.callcenter.journal.RecoveredCalls;
+import com.almundo.callcenter.metrics.DispatcherMetrics;
+import com.almundo.callcenter.metrics.MetricsSnapshot;
+import com.almundo.callcenter.metrics.TrafficEstimator;
 import com.almundo.callcenter.model.Employee;
 import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.model.SkillSet;
 import com.almundo.callcenter.util.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
 
 /**
- * Class that handles incoming calls, it control the threads that are created for each call, contains a queue for the calls and a list of available employees to answer calls
+ * Class that handles incoming calls, it control the threads that are created for each call, contains a queue for the calls and a list of available employees to answer calls.
+ * In {@link DispatchMode#EVENT} mode no thread is used per call, calls are matched with employees when a call arrives or an employee becomes free and the end of each call is a timer callback
  */
 public class Dispatcher {
 
     private static final Logger logger = LoggerFactory.getLogger(Dispatcher.class);
 
     /**
-     * List of available employees to answer calls
+     * List of available employees to answer calls, it's an immutable copy replaced on every staffing change so it's read without locking
      */
-    private List<Employee> employees;
+    private volatile List<Employee> employees;
+
+    /**
+     * Lock serializing the staffing changes, the routing of the calls never takes it
+     */
+    private final Object staffLock = new Object();
+
+    /**
+     * Pool with the idle employees, the staffing changes are applied to it while the calls are being routed
+     */
+    private final EmployeePool employeePool;
+
+    /**
+     * The way calls are processed by this dispatcher
+     */
+    private final DispatchMode mode;
 
     /**
      * The executor for the  threads that will be created for processing calls
@@ -31,130 +65,1232 @@ public class Dispatcher {
     private ExecutorService executor;
 
     /**
-     * Queue to add incoming calls, the queue behaviour is FIFO
+     * Clock used for the duration of the calls, in EVENT mode it also fires the end of the calls
      */
-    private ConcurrentLinkedQueue<String> calls;
+    private final CallClock clock;
 
     /**
-     * Semaphore used for controlling the number of employees that aren't busy, it avoids the case that threads keeps looking for a free employee if there is none
+     * True if the clock was created by this dispatcher and must be stopped with it
      */
-    private Semaphore semaphore;
+    private final boolean ownsClock;
+
+    /**
+     * Released once the dispatcher is stopped and there aren't waiting or active calls
+     */
+    private final CountDownLatch terminated;
+
+    /**
+     * Bounded queue to add incoming calls, the queue behaviour is FIFO
+     */
+    private CallQueue callQueue;
+
+    /**
+     * Semaphore used for controlling the number of employees that aren't busy, it avoids the case that threads keeps looking for a free employee if there is none.
+     * It's resized instead of replaced, so the permits held by the calls in progress keep counting against the new limit
+     */
+    private final ResizableSemaphore semaphore;
+
+    /**
+     * Whether the semaphore count was set explicitly, otherwise it follows the size of the staff. Guarded by the staff lock
+     */
+    private boolean semaphoreCountSet;
 
     /**
      * A counter for the total number of calls processed
      */
     private AtomicInteger callsAnswered;
 
+    /**
+     * Latency histograms and counters of the calls processed by this dispatcher
+     */
+    private final DispatcherMetrics metrics;
+
+    /**
+     * Arrival rate and handle time estimated from the live traffic, used to predict the wait of new calls and the staffing needed
+     */
+    private final TrafficEstimator trafficEstimator;
+
+    /**
+     * Where the events of the calls are recorded: the event log and, with a journal, the writer of the journal
+     */
+    private CallEventSink eventSink;
+
+    /**
+     * Log of the events, by default an asynchronous log so the dispatch threads don't wait for the log to be written
+     */
+    private CallEventSink eventLog;
+
+    /**
+     * True if the event log was created by this dispatcher and must be closed with it
+     */
+    private boolean ownsEventSink;
+
+    /**
+     * Writer of the journal, a thread of its own so the durable events never wait for the text log, null without a journal
+     */
+    private AsyncCallEventLog journalLog;
+
+    /**
+     * Number of calls being answered
+     */
+    private AtomicInteger activeCalls;
+
+    /**
+     * Number of pending requests to match calls with employees, only the thread that moves it from zero runs the matching loop
+     */
+    private AtomicInteger matchRequests;
+
+    /**
+     * Supplier of the duration in seconds of each new call
+     */
+    private IntSupplier callDurations;
+
+    /**
+     * Set once the executor is stopped, the dispatcher terminates when the last call is answered
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Records of the calls that ended, reused for the new calls
+     */
+    private final CallPool callPool;
+
+    /**
+     * Timer callbacks that ended calls, reused for the next calls started, linked through their next field
+     */
+    private CallEnd freeCallEnds;
+
+    /**
+     * Group this dispatcher is a shard of, the employees idle in this shard steal the calls waiting in the other shards
+     */
+    private volatile ShardedDispatcher shards;
+
+    /**
+     * Receives the waiting calls that are escalated or abandoned by the deadlines of the queue
+     */
+    private final CallQueue.WaitListener waitListener = new WaitDeadlines();
+
+    /**
+     * Receives the waiting calls when the dispatcher is shut down, null to answer them in DRAIN mode
+     */
+    private volatile CallHandoff callHandoff;
+
+    /**
+     * How the dispatcher is being shut down, null while it's running or stopped without a mode
+     */
+    private volatile ShutdownMode shutdownMode;
+
+    /**
+     * Calls left unanswered by the shutdown, interrupted or not handed off, returned so they can be recovered
+     */
+    private final Queue<RecoveredCalls.PendingCall> unfinishedCalls = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Timer callbacks scheduled in EVENT mode and not run yet, linked through their activeNext field so an immediate shutdown can end their calls
+     */
+    private CallEnd activeEnds;
+
     /**
      * Default constructor of the class
      */
     public Dispatcher() {
-        employees = new ArrayList<>();
-        //Creates a new Thread Pool based on the number set in MAX_CONCURRENT_CALLS (10 as default)
-        executor = Executors.newFixedThreadPool(Constants.MAX_CONCURRENT_CALLS);
-        calls = new ConcurrentLinkedQueue<>();
-        //Instantiate a new semaphore, setting the max number of available locks as the sum of NUMBER_OF_DIRECTORS, NUMBER_OF_OPERATORS and NUMBER_OF_SUPERVISORS
-        semaphore = new Semaphore(Constants.NUMBER_OF_DIRECTORS + Constants.NUMBER_OF_OPERATORS + Constants.NUMBER_OF_SUPERVISORS, true);
+        this(DispatchMode.BLOCKING);
+    }
+
+    /**
+     * Constructor setting the way the calls will be processed, in BLOCKING mode the calls are answered in the executor of {@link ExecutorStrategy#defaultStrategy()}
+     *
+     * @param mode the dispatch mode
+     */
+    public Dispatcher(DispatchMode mode) {
+        this(mode, ExecutorStrategy.defaultStrategy());
+    }
+
+    /**
+     * Constructor setting the way the calls will be processed and the executor used for answering them in BLOCKING mode
+     *
+     * @param mode             the dispatch mode
+     * @param executorStrategy the kind of executor for the BLOCKING mode, it's ignored in EVENT mode
+     */
+    public Dispatcher(DispatchMode mode, ExecutorStrategy executorStrategy) {
+        this(mode, executorStrategy, new SystemCallClock(), true);
+    }
+
+    /**
+     * Constructor setting the way the calls will be processed and the clock used for the duration of the calls
+     *
+     * @param mode  the dispatch mode
+     * @param clock the clock, it isn't stopped by the dispatcher
+     */
+    public Dispatcher(DispatchMode mode, CallClock clock) {
+        this(mode, ExecutorStrategy.defaultStrategy(), clock, false);
+    }
+
+    /**
+     * Constructor setting the way the calls will be processed, the executor used for answering them in BLOCKING mode and the clock used for the duration of the calls
+     *
+     * @param mode             the dispatch mode
+     * @param executorStrategy the kind of executor for the BLOCKING mode, it's ignored in EVENT mode
+     * @param clock            the clock, it isn't stopped by the dispatcher
+     */
+    public Dispatcher(DispatchMode mode, ExecutorStrategy executorStrategy, CallClock clock) {
+        this(mode, executorStrategy, clock, false);
+    }
+
+    private Dispatcher(DispatchMode mode, ExecutorStrategy executorStrategy, CallClock clock, boolean ownsClock) {
+        this.mode = mode;
+        this.clock = clock;
+        this.ownsClock = ownsClock;
+        employees = Collections.emptyList();
+        employeePool = new EmployeePool(employees, Constants.EMPLOYEE_TABLE_OFF_HEAP);
+        if (mode == DispatchMode.BLOCKING) {
+            //Creates the executor, the number of calls answered at the same time is limited by the semaphore and not by the executor
+            executor = executorStrategy.newExecutor();
+        }
+        terminated = new CountDownLatch(1);
+        eventLog = new AsyncCallEventLog();
+        eventSink = eventLog;
+        ownsEventSink = true;
+        metrics = new DispatcherMetrics(() -> callQueue.getDepth(), () -> callQueue.getCallsRejected(), () -> callQueue.getCallsDropped());
+        callQueue = new CallQueue(Constants.MAX_WAITING_CALLS);
+        //Until a call ends the handle time is assumed to be the middle of the range of durations
+        trafficEstimator = new TrafficEstimator(Constants.TRAFFIC_ESTIMATOR_WEIGHT, (Constants.CALL_MIN_DURATION + Constants.CALL_MAX_DURATION) * 500L, TimeUnit.MILLISECONDS);
+        //Instantiate a new semaphore without locks, it's sized with the employees given to the dispatcher unless its count is set
+        semaphore = new ResizableSemaphore(0, true);
         callsAnswered = new AtomicInteger(0);
+        activeCalls = new AtomicInteger(0);
+        matchRequests = new AtomicInteger(0);
+        callDurations = Call::getCallDuration;
+        callPool = new CallPool(Constants.CALL_POOL_SIZE);
+        callQueue.setCallPool(callPool);
     }
 
     /**
-     * Dispatches incoming calls, for each new call it add the id to the queue and start the process of answering the call in a new thread using the executor
+     * Dispatches incoming calls, for each new call it add the call to the bounded queue and matches the waiting calls with the idle employees.
+     * In BLOCKING mode each matched call is answered in a thread of the executor, in EVENT mode the end of the call is scheduled in the clock.
+     * If the queue is full the call is handled following the overflow policy of the queue
      *
      * @param callId the id of the new incoming call
+     * @return whether the call was answered straight away, queued or rejected
      */
-    public void dispatchCall(String callId) {
-        logger.info("========New call: {}", callId);
-        //Add the call to the queue
-        calls.add(callId);
-        //Process the call in a new thread
-        executor.submit(() -> {
-            try {
-                //If available acquire a lock of the semaphore, if not it waits until a lock is released to continue
-                semaphore.acquire();
-                Optional<Employee> availableEmployee;
-                do {
-                    //Look for an available employee, this is inside a loop to avoid any extraordinary case when an employee is not found caused by an interrupted thread
-                    availableEmployee = findAvailableEmployee();
-                } while (!availableEmployee.isPresent());
-                //Creates a new call using the first id in the queue (removing it from the queue) and the available employee
-                Call call = new Call(calls.poll(), availableEmployee.get());
-                //Process the call
-                call.answerCall();
-                //Increment the total of calls processed
-                callsAnswered.incrementAndGet();
-                //Release the lock on the semaphore, allowing another thread to take it
-                semaphore.release();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+    public DispatchResult dispatchCall(String callId) {
+        return dispatchCall(callId, Call.DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Dispatches an incoming call with the given priority
+     *
+     * @param callId   the id of the new incoming call
+     * @param priority the priority of the call
+     * @return whether the call was answered straight away, queued or rejected
+     * @see #dispatchCall(String)
+     */
+    public DispatchResult dispatchCall(String callId, int priority) {
+        return dispatchCall(callId, priority, SkillSet.NONE);
+    }
+
+    /**
+     * Dispatches an incoming call with the given priority that can only be answered by an employee with all the required skills.
+     * Employee types are still checked in escalation order among the employees having the skills
+     *
+     * @param callId         the id of the new incoming call
+     * @param priority       the priority of the call, calls with a higher priority are answered first
+     * @param requiredSkills the skills the employee needs to answer the call
+     * @return whether the call was answered straight away, queued or rejected
+     * @see #dispatchCall(String)
+     */
+    public DispatchResult dispatchCall(String callId, int priority, SkillSet requiredSkills) {
+        return dispatchCall(callId, priority, requiredSkills, callDurations.getAsInt());
+    }
+
+    /**
+     * Dispatches an incoming call whose duration is already known, like a call handed off by another node of the cluster
+     *
+     * @param callId         the id of the new incoming call
+     * @param priority       the priority of the call, calls with a higher priority are answered first
+     * @param requiredSkills the skills the employee needs to answer the call
+     * @param duration       the duration of the call in seconds
+     * @return whether the call was answered straight away, queued or rejected
+     * @see #dispatchCall(String)
+     */
+    public DispatchResult dispatchCall(String callId, int priority, SkillSet requiredSkills, int duration) {
+        eventSink.received(callId, duration, priority, requiredSkills, clock.nanoTime());
+        if (stopped) {
+            eventSink.record(CallEventType.REJECTED, callId, null, duration, priority, clock.nanoTime());
+            throw new RejectedExecutionException("Dispatcher stopped, call " + callId + " rejected");
+        }
+        //The call record keeps the id together with its arrival time until it's answered, so the wait of each call is measured from its own arrival
+        Call call = callPool.take();
+        call.init(callId, priority, duration, clock);
+        return dispatch(call, requiredSkills);
+    }
+
+    /**
+     * Dispatches an incoming call with a numeric id, the id is only formatted if it's logged or read so the call can be dispatched without allocating memory
+     *
+     * @param callId the numeric id of the new incoming call
+     * @return whether the call was answered straight away, queued or rejected
+     * @see #dispatchCall(String)
+     */
+    public DispatchResult dispatchCall(long callId) {
+        return dispatchCall(callId, Call.DEFAULT_PRIORITY, SkillSet.NONE);
+    }
+
+    /**
+     * Dispatches an incoming call with a numeric id and the given priority that can only be answered by an employee with all the required skills
+     *
+     * @param callId         the numeric id of the new incoming call
+     * @param priority       the priority of the call, calls with a higher priority are answered first
+     * @param requiredSkills the skills the employee needs to answer the call
+     * @return whether the call was answered straight away, queued or rejected
+     * @see #dispatchCall(String, int, SkillSet)
+     */
+    public DispatchResult dispatchCall(long callId, int priority, SkillSet requiredSkills) {
+        int duration = callDurations.getAsInt();
+        eventSink.received(callId, duration, priority, requiredSkills, clock.nanoTime());
+        if (stopped) {
+            eventSink.record(CallEventType.REJECTED, callId, null, duration, priority, clock.nanoTime());
+            throw new RejectedExecutionException("Dispatcher stopped, call " + callId + " rejected");
+        }
+        Call call = callPool.take();
+        call.init(callId, priority, duration, clock);
+        return dispatch(call, requiredSkills);
+    }
+
+    private DispatchResult dispatch(Call call, SkillSet requiredSkills) {
+        int generation = call.getGeneration();
+        trafficEstimator.callsArrived(1, call.getArrivalTime());
+        call.setEventSink(eventSink);
+        call.setRequiredSkills(requiredSkills);
+        if (!callQueue.offer(call)) {
+            call.reject();
+            callPool.release(call);
+            return DispatchResult.REJECTED;
+        }
+        matchCalls();
+        return result(call, generation);
+    }
+
+    /**
+     * A call answered straight away may have already ended when its result is checked, and its record may hold a new call, so a record with a new generation means the call was answered
+     */
+    private static DispatchResult result(Call call, int generation) {
+        boolean assigned = call.getEmployee() != null;
+        return assigned || call.getGeneration() != generation ? DispatchResult.ACCEPTED : DispatchResult.QUEUED;
+    }
+
+    /**
+     * Dispatches a burst of incoming calls with the default priority
+     *
+     * @param callIds the ids of the new incoming calls
+     * @return the result of each call, in the order of the ids
+     * @see #dispatchCalls(Collection, int)
+     */
+    public List<DispatchResult> dispatchCalls(Collection<String> callIds) {
+        return dispatchCalls(callIds, Call.DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Dispatches a burst of incoming calls at once, the calls are admitted to the queue taking all their slots together and matched with the idle employees in a single pass.
+     * When the burst doesn't fit in the queue the matching makes room for the rest, and the calls that still don't fit are handled one by one following its overflow policy.
+     * In EVENT mode the calls answered straight away with the same duration end in a single timer callback
+     *
+     * @param callIds  the ids of the new incoming calls
+     * @param priority the priority of the calls
+     * @return the result of each call, in the order of the ids
+     * @see #dispatchCall(String)
+     */
+    public List<DispatchResult> dispatchCalls(Collection<String> callIds, int priority) {
+        return dispatchCalls(callIds, priority, true);
+    }
+
+    /**
+     * Dispatches a burst of incoming calls at once, choosing whether the caller can be blocked when the burst doesn't fit in the queue and the overflow policy is BLOCK.
+     * A thread that receives the calls of many callers, like the IO thread of the ingestion server, shouldn't be blocked by one of them, so the calls that don't fit are rejected instead
+     *
+     * @param callIds  the ids of the new incoming calls
+     * @param priority the priority of the calls
+     * @param block    whether the caller can be blocked with the BLOCK policy, if not the calls that don't fit are rejected as with the REJECT policy
+     * @return the result of each call, in the order of the ids
+     * @see #dispatchCalls(Collection, int)
+     */
+    public List<DispatchResult> dispatchCalls(Collection<String> callIds, int priority, boolean block) {
+        long arrivalTime = clock.nanoTime();
+        List<Call> calls = new ArrayList<>(callIds.size());
+        int[] generations = new int[callIds.size()];
+        for (String callId : callIds) {
+            int duration = callDurations.getAsInt();
+            eventSink.record(CallEventType.RECEIVED, callId, null, duration, priority, arrivalTime);
+            Call call = callPool.take();
+            call.init(callId, priority, duration, clock);
+            call.setEventSink(eventSink);
+            generations[calls.size()] = call.getGeneration();
+            calls.add(call);
+        }
+        if (stopped) {
+            for (Call call : calls) {
+                call.reject();
+                callPool.release(call);
+            }
+            throw new RejectedExecutionException("Dispatcher stopped, " + calls.size() + " calls rejected");
+        }
+        trafficEstimator.callsArrived(calls.size(), arrivalTime);
+        DispatchResult[] results = new DispatchResult[calls.size()];
+        int offered = callQueue.offerAll(calls);
+        matchCalls();
+        while (offered < results.length) {
+            //The queue was full, the matching made room for more calls or the next one is handled following the overflow policy
+            int admitted = callQueue.offerAll(calls.subList(offered, results.length));
+            if (admitted == 0) {
+                Call call = calls.get(offered);
+                if (!callQueue.offer(call, block)) {
+                    call.reject();
+                    callPool.release(call);
+                    results[offered] = DispatchResult.REJECTED;
+                }
+                admitted = 1;
+            }
+            offered += admitted;
+            matchCalls();
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = result(calls.get(i), generations[i]);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Matches the waiting calls with idle employees while there are free locks in the semaphore.
+     * It's called every time a call arrives or an employee becomes free, only one thread runs the loop at a time and the threads that find it running just leave a request so the loop is repeated.
+     * This is the only place where calls leave the queue, so the calls are answered by priority and then in the order they arrived, each one by an employee with the skills it requires
+     */
+    private void matchCalls() {
+        if (matchRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Semaphore permits = semaphore;
+            EmployeePool pool = employeePool;
+            ShutdownMode shutdown = shutdownMode;
+            if (shutdown != null) {
+                //Only the thread running the loop ends the calls, so no call is started while they are interrupted
+                releaseCalls(shutdown);
+            }
+            //Ends of the calls started in this pass in EVENT mode, one for each duration
+            CallEnd ends = null;
+            while (shutdown != ShutdownMode.IMMEDIATE && (!callQueue.isEmpty() || (shards != null && terminated.getCount() > 0))) {
+                if (!permits.tryAcquire()) {
+                    break;
+                }
+                //The call is counted as active before leaving the queue so the dispatcher is never seen idle in between
+                activeCalls.incrementAndGet();
+                Call call = callQueue.poll(pool);
+                if (call == null && shards != null) {
+                    call = shards.steal(this, pool);
+                }
+                if (call == null) {
+                    //No idle employee has the skills of any waiting call
+                    activeCalls.decrementAndGet();
+                    permits.release();
+                    break;
+                }
+                Employee employee = call.getEmployee();
+                call.assign(employee, clock.nanoTime());
+                metrics.callAssigned(call.getEmployeeType(), call.getWaitTime());
+                if (mode == DispatchMode.BLOCKING) {
+                    startCall(call, pool, permits);
+                    continue;
+                }
+                long start = clock.nanoTime();
+                metrics.callStarted(start - call.getArrivalTime());
+                call.begin();
+                CallEnd end = ends;
+                while (end != null && end.duration != call.getDuration()) {
+                    end = end.next;
+                }
+                if (end == null) {
+                    end = takeCallEnd(call.getDuration(), start, pool, permits);
+                    end.next = ends;
+                    ends = end;
+                }
+                end.add(call);
             }
+            while (ends != null) {
+                CallEnd end = ends;
+                ends = end.next;
+                end.next = null;
+                clock.schedule(end, end.duration, TimeUnit.SECONDS);
+            }
+            shutdownIfIdle();
+            missed = matchRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Starts a matched call in BLOCKING mode, a thread of the executor answers it
+     */
+    private void startCall(Call call, EmployeePool pool, Semaphore permits) {
+        executor.execute(() -> {
+            //A call still waiting for a thread when the dispatcher is shut down immediately is given up before it starts
+            if (shutdownMode != ShutdownMode.IMMEDIATE) {
+                long start = clock.nanoTime();
+                metrics.callStarted(start - call.getArrivalTime());
+                if (call.answerCall()) {
+                    long handleTime = clock.nanoTime() - start;
+                    metrics.callFinished(call.getEmployeeType(), handleTime);
+                    trafficEstimator.callFinished(handleTime);
+                    releaseCall(call, pool, permits);
+                    matchCalls();
+                    return;
+                }
+            }
+            interruptCall(call, pool, permits);
+            matchCalls();
         });
     }
 
     /**
-     * Look for an available employee depending on its type, first it returns all free Operators, then all Supervisors and finally the Directors if there isn't another employee
+     * Called at the end of a call, it frees the employee, the lock and the call record, the caller then matches the next waiting calls
+     */
+    private void releaseCall(Call call, EmployeePool pool, Semaphore permits) {
+        callsAnswered.incrementAndGet();
+        pool.release(call.getEmployee());
+        permits.release();
+        activeCalls.decrementAndGet();
+        callPool.release(call);
+    }
+
+    /**
+     * Stops answering the calls when the dispatcher is shut down: the waiting calls are given to the handoff, or kept as unfinished in IMMEDIATE mode, and in IMMEDIATE mode the calls being answered are interrupted
+     */
+    private void releaseCalls(ShutdownMode shutdown) {
+        CallHandoff handoff = callHandoff;
+        if (handoff != null || shutdown == ShutdownMode.IMMEDIATE) {
+            Call call;
+            while ((call = callQueue.poll()) != null) {
+                handOff(call, handoff);
+            }
+        }
+        if (shutdown != ShutdownMode.IMMEDIATE) {
+            return;
+        }
+        if (executor != null) {
+            if (!executor.isShutdown()) {
+                //The running calls are interrupted and the ones waiting for a thread are given up in this thread
+                for (Runnable waiting : executor.shutdownNow()) {
+                    waiting.run();
+                }
+            }
+            return;
+        }
+        CallEnd end;
+        while ((end = takeActiveEnd()) != null) {
+            Call call = end.first;
+            EmployeePool endPool = end.pool;
+            Semaphore endPermits = end.permits;
+            end.first = null;
+            end.last = null;
+            while (call != null) {
+                Call following = call.next;
+                call.next = null;
+                interruptCall(call, endPool, endPermits);
+                call = following;
+            }
+        }
+    }
+
+    private void handOff(Call call, CallHandoff handoff) {
+        RecoveredCalls.PendingCall pending = new RecoveredCalls.PendingCall(call.getCallId(), call.getPriority(), call.getDuration(), false, call.getRequiredSkills());
+        if (handoff != null) {
+            try {
+                call.handOff(handoff.handOff(pending));
+                callPool.release(call);
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Unable to hand off call " + call.getCallId(), e);
+            }
+        }
+        unfinishedCalls.add(pending);
+        callPool.release(call);
+    }
+
+    /**
+     * Frees the employee, the lock and the record of a call that was being answered when the dispatcher was shut down, the call is kept as unfinished
+     */
+    private void interruptCall(Call call, EmployeePool pool, Semaphore permits) {
+        unfinishedCalls.add(new RecoveredCalls.PendingCall(call.getCallId(), call.getPriority(), call.getDuration(), true));
+        metrics.callInterrupted(call.getEmployeeType());
+        pool.release(call.getEmployee());
+        permits.release();
+        activeCalls.decrementAndGet();
+        callPool.release(call);
+    }
+
+    private synchronized CallEnd takeCallEnd(int duration, long start, EmployeePool pool, Semaphore permits) {
+        CallEnd end = freeCallEnds;
+        if (end == null) {
+            end = new CallEnd();
+        } else {
+            freeCallEnds = end.next;
+            end.next = null;
+        }
+        end.duration = duration;
+        end.start = start;
+        end.pool = pool;
+        end.permits = permits;
+        end.activeNext = activeEnds;
+        if (activeEnds != null) {
+            activeEnds.activePrev = end;
+        }
+        activeEnds = end;
+        end.active = true;
+        return end;
+    }
+
+    /**
+     * Removes a callback from the active ones, its calls are then ended by the caller. A callback taken by an immediate shutdown ends no call when the clock runs it
+     */
+    private synchronized CallEnd takeActiveEnd() {
+        CallEnd end = activeEnds;
+        if (end != null) {
+            unlinkActive(end);
+        }
+        return end;
+    }
+
+    private void unlinkActive(CallEnd end) {
+        if (end.activePrev == null) {
+            activeEnds = end.activeNext;
+        } else {
+            end.activePrev.activeNext = end.activeNext;
+        }
+        if (end.activeNext != null) {
+            end.activeNext.activePrev = end.activePrev;
+        }
+        end.activePrev = null;
+        end.activeNext = null;
+        end.active = false;
+    }
+
+    private synchronized void releaseCallEnd(CallEnd end) {
+        if (end.active) {
+            unlinkActive(end);
+        }
+        end.pool = null;
+        end.permits = null;
+        end.next = freeCallEnds;
+        freeCallEnds = end;
+    }
+
+    /**
+     * Terminates the dispatcher once it's stopped and there aren't waiting or active calls.
+     * It only runs inside the matching loop, so a shard can't terminate while its loop is stealing a call
+     */
+    private void shutdownIfIdle() {
+        if (stopped && activeCalls.get() == 0 && callQueue.isEmpty() && terminated.getCount() > 0) {
+            terminated.countDown();
+            if (executor != null) {
+                executor.shutdown();
+            }
+            if (ownsClock && shutdownMode == ShutdownMode.IMMEDIATE) {
+                //The ends of the interrupted calls are still scheduled
+                clock.shutdownNow();
+            } else if (ownsClock) {
+                clock.shutdown();
+            }
+            if (journalLog != null) {
+                journalLog.close();
+            }
+            if (ownsEventSink) {
+                eventLog.close();
+            }
+        }
+    }
+
+    /**
+     * Look for an available employee depending on its type, first it returns all free Operators, then all Supervisors and finally the Directors if there isn't another employee.
+     * The employee is taken from the pool without locking and must be released to the pool once the call is finished
      *
      * @return An employee that isn't busy
      */
-    public synchronized Optional<Employee> findAvailableEmployee() {
-        Optional<Employee> result = employees.stream()
-                .filter(employee -> !employee.isBusy() && employee.getType() == EmployeeType.OPERADOR)
-                .findFirst();
-        if (!result.isPresent()) {
-            result = employees.stream()
-                    .filter(employee -> !employee.isBusy() && employee.getType() == EmployeeType.SUPERVISOR)
-                    .findFirst();
-            if (!result.isPresent()) {
-                result = employees.stream()
-                        .filter(employee -> !employee.isBusy() && employee.getType() == EmployeeType.DIRECTOR)
-                        .findFirst();
-            }
+    public Optional<Employee> findAvailableEmployee() {
+        return Optional.ofNullable(employeePool.tryAcquire());
+    }
+
+    /**
+     * Removes a waiting call that an employee of another shard can answer, assigning that employee to it
+     *
+     * @param pool the pool of the shard stealing the call
+     * @return the stolen call or null if there isn't any call the pool can answer
+     */
+    Call stealCall(EmployeePool pool) {
+        Call call = callQueue.poll(pool);
+        if (call != null) {
+            //The stolen call may have been the last one this shard was waiting for
+            matchCalls();
+        }
+        return call;
+    }
+
+    /**
+     * Removes from the queue the call that would be answered next so it can be handed off to another dispatcher, recording the handoff and releasing the record of the call
+     *
+     * @param node the address of the node that will answer the call
+     * @return a copy of the call or null if there are no waiting calls
+     */
+    public RecoveredCalls.PendingCall takeWaitingCall(String node) {
+        Call call = callQueue.poll();
+        if (call == null) {
+            return null;
         }
-        result.ifPresent(employee -> employee.setBusy(true));
-        return result;
+        RecoveredCalls.PendingCall pending = new RecoveredCalls.PendingCall(call.getCallId(), call.getPriority(), call.getDuration(), false, call.getRequiredSkills());
+        call.handOff(node);
+        callPool.release(call);
+        //The call taken may have been the last one this dispatcher was waiting for
+        matchCalls();
+        return pending;
     }
 
     /**
-     * Stops the executor waiting until all its threads are free
+     * Matches the waiting calls, used by the group to wake up an idle shard so it steals calls queued in other shards
+     */
+    void matchWaitingCalls() {
+        matchCalls();
+    }
+
+    void setShards(ShardedDispatcher shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Stops the executor waiting until all its threads are free, no new calls are accepted but the calls already in the queue are answered before the executor is shut down, or given to the handoff if there is one.
+     * It's a DRAIN shutdown without a deadline, {@link #waitForTermination()} waits for it
      */
     public void stopExecutor() {
-        executor.shutdown();
+        beginShutdown(ShutdownMode.DRAIN);
+    }
+
+    /**
+     * Shuts the dispatcher down waiting at most the timeout, so a loaded dispatcher can be restarted in seconds.
+     * In DRAIN mode the calls being answered are finished and the waiting calls are given to the handoff, or answered if there is none, and if they aren't done by the deadline they are interrupted.
+     * In IMMEDIATE mode the calls being answered are interrupted straight away
+     *
+     * @param mode    the shutdown mode
+     * @param timeout max time to wait for the calls to end
+     * @param unit    the unit of the timeout
+     * @return the calls answered and the calls that weren't answered nor handed off, they can be recovered by another dispatcher
+     */
+    public RecoveredCalls shutdown(ShutdownMode mode, long timeout, TimeUnit unit) {
+        beginShutdown(mode);
+        awaitShutdown(unit.toNanos(timeout));
+        return getUnfinishedCalls();
+    }
+
+    /**
+     * Stops accepting calls and starts ending the current ones, a later IMMEDIATE shutdown interrupts a DRAIN in progress
+     */
+    void beginShutdown(ShutdownMode mode) {
+        if (shutdownMode != ShutdownMode.IMMEDIATE) {
+            shutdownMode = mode;
+        }
+        stopped = true;
+        matchCalls();
     }
 
     /**
-     * Waits for the executor to be stopped
+     * Waits for the calls to end, when the timeout elapses the calls left are interrupted
+     *
+     * @param timeout max time in nanoseconds to wait
+     * @return true if the dispatcher terminated
+     */
+    boolean awaitShutdown(long timeout) {
+        try {
+            boolean done = clock.await(terminated, Math.max(0, timeout), TimeUnit.NANOSECONDS);
+            if (!done && shutdownMode != ShutdownMode.IMMEDIATE) {
+                logger.warn("Shutdown deadline expired, interrupting {} calls", activeCalls.get());
+                beginShutdown(ShutdownMode.IMMEDIATE);
+                done = clock.await(terminated, Constants.SHUTDOWN_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            if (done && executor != null) {
+                done = executor.awaitTermination(Constants.SHUTDOWN_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            if (!done) {
+                logger.error("Dispatcher not terminated, {} calls still active", activeCalls.get());
+            }
+            return done;
+        } catch (InterruptedException e) {
+            logger.error("Interrupted Exception",e);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return the calls answered and the calls left unanswered by the shutdown so far
+     */
+    public RecoveredCalls getUnfinishedCalls() {
+        return new RecoveredCalls(callsAnswered.get(), new ArrayList<>(unfinishedCalls));
+    }
+
+    /**
+     * Set where the waiting calls go when the dispatcher is shut down
+     *
+     * @param callHandoff the handoff, null to answer the waiting calls in DRAIN mode and return them in IMMEDIATE mode
+     */
+    public void setCallHandoff(CallHandoff callHandoff) {
+        this.callHandoff = callHandoff;
+    }
+
+    /**
+     * Waits for the executor to be stopped, without a deadline
      */
     public void waitForTermination() {
         try {
-            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            //With a simulated clock this runs the pending calls until the last one is answered
+            clock.await(terminated);
+            if (executor != null) {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
         } catch (InterruptedException e) {
             logger.error("Interrupted Exception",e);
             Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * @return the employees answering calls, an immutable copy that isn't updated by later staffing changes
+     */
     public List<Employee> getEmployees() {
         return employees;
     }
 
+    /**
+     * Replaces the staff while calls are being answered: the employees that aren't in the list leave, once their calls end if they are busy, and the new ones join.
+     * The employees in both the current staff and the list keep answering their calls
+     *
+     * @param employees the employees that will answer calls
+     */
     public void setEmployees(List<Employee> employees) {
-        this.employees = employees;
+        synchronized (staffLock) {
+            Set<Employee> current = Collections.newSetFromMap(new IdentityHashMap<>());
+            current.addAll(this.employees);
+            Set<Employee> staying = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<Employee> staff = new ArrayList<>();
+            for (Employee employee : employees) {
+                if (staying.add(employee)) {
+                    staff.add(employee);
+                }
+            }
+            for (Employee employee : this.employees) {
+                if (!staying.contains(employee)) {
+                    employeePool.remove(employee);
+                }
+            }
+            //Added in the order of the list, so the employees of a type that join together are taken in that order
+            for (Employee employee : staff) {
+                if (!current.contains(employee)) {
+                    employeePool.add(employee);
+                }
+            }
+            staffChanged(staff);
+        }
+        matchCalls();
+    }
+
+    /**
+     * Adds an employee to the staff, the calls waiting in the queue are matched with it straight away
+     *
+     * @param employee the employee joining the staff
+     * @throws IllegalArgumentException if the employee is already part of the staff
+     */
+    public void addEmployee(Employee employee) {
+        synchronized (staffLock) {
+            if (isStaff(employee)) {
+                throw new IllegalArgumentException("Employee " + employee.getId() + " is already part of the staff");
+            }
+            employeePool.add(employee);
+            List<Employee> staff = new ArrayList<>(employees);
+            staff.add(employee);
+            staffChanged(staff);
+        }
+        matchCalls();
+    }
+
+    /**
+     * Removes an employee from the staff, a busy employee finishes its call and then leaves
+     *
+     * @param employee the employee leaving the staff
+     * @return false if the employee wasn't part of the staff
+     */
+    public boolean removeEmployee(Employee employee) {
+        synchronized (staffLock) {
+            if (!isStaff(employee)) {
+                return false;
+            }
+            employeePool.remove(employee);
+            List<Employee> staff = new ArrayList<>(employees);
+            staff.removeIf(member -> member == employee);
+            staffChanged(staff);
+            return true;
+        }
+    }
+
+    /**
+     * Changes the type of an employee of the staff, it's checked in the escalation order of its new type from its next call
+     *
+     * @param employee the employee
+     * @param type     the new type of the employee
+     * @throws IllegalArgumentException if the employee isn't part of the staff
+     */
+    public void changeEmployeeType(Employee employee, EmployeeType type) {
+        synchronized (staffLock) {
+            if (!isStaff(employee)) {
+                throw new IllegalArgumentException("Employee " + employee.getId() + " isn't part of the staff");
+            }
+            employeePool.changeType(employee, type);
+            staffChanged(employees);
+        }
+        matchCalls();
+    }
+
+    private boolean isStaff(Employee employee) {
+        for (Employee member : employees) {
+            if (member == employee) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Publishes a new copy of the staff, called holding the staff lock
+     */
+    private void staffChanged(List<Employee> staff) {
+        employees = Collections.unmodifiableList(staff);
+        metrics.staffChanged(staff);
+        if (!semaphoreCountSet) {
+            semaphore.resize(staff.size());
+        }
+    }
+
+    public EmployeePool getEmployeePool() {
+        return employeePool;
     }
 
     public int getCallsAnswered() {
         return callsAnswered.get();
     }
 
-    public Queue<String> getCalls() {
-        return calls;
+    /**
+     * The records of the calls are reused once the calls end, so they must not be kept after that
+     *
+     * @return a copy of the waiting calls, ordered as they will be answered
+     */
+    public Queue<Call> getCalls() {
+        return callQueue.getCalls();
+    }
+
+    public CallQueue getCallQueue() {
+        return callQueue;
+    }
+
+    /**
+     * @return the number of calls waiting for an employee
+     */
+    public int getQueueDepth() {
+        return callQueue.getDepth();
+    }
+
+    public long getCallsRejected() {
+        return callQueue.getCallsRejected();
+    }
+
+    public long getCallsDropped() {
+        return callQueue.getCallsDropped();
     }
 
     /**
-     * Set the semaphore count to a number different than the default (sum of  employees defined in Constants class)
+     * Set the max number of calls that can wait for an employee, it can be changed while calls are waiting
+     *
+     * @param capacity the capacity of the queue
+     * @see CallQueue#setCapacity(int)
+     */
+    public void setQueueCapacity(int capacity) {
+        callQueue.setCapacity(capacity);
+    }
+
+    /**
+     * @return the max number of calls that can wait for an employee
+     */
+    public int getQueueCapacity() {
+        return callQueue.getCapacity();
+    }
+
+    /**
+     * Set what happens to new calls when the waiting queue is full
+     *
+     * @param overflowPolicy the policy
+     * @param blockTimeout   max time the caller is blocked with the BLOCK policy
+     * @param unit           the unit of the timeout
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy, long blockTimeout, TimeUnit unit) {
+        callQueue.setOverflowPolicy(overflowPolicy, blockTimeout, unit);
+    }
+
+    /**
+     * Set the service level of the waiting calls, it applies to the calls that arrive from now on.
+     * The calls are only answered by Operators until they have waited the escalation threshold of the target, then by any employee type, and the callers hang up once they have waited their patience
+     *
+     * @param target              max time a call should wait in the queue, the service level is the fraction of calls answered within it
+     * @param patience            time a caller waits before hanging up, zero if callers never hang up
+     * @param escalationThreshold fraction of the target a call waits before Supervisors and Directors can answer it, zero to let them answer any call as usual
+     * @param unit                the unit of the target and the patience
+     */
+    public void setServiceLevel(long target, long patience, double escalationThreshold, TimeUnit unit) {
+        if (escalationThreshold < 0 || escalationThreshold > 1) {
+            throw new IllegalArgumentException("Escalation threshold must be between 0 and 1: " + escalationThreshold);
+        }
+        metrics.setServiceLevelTarget(target, unit);
+        long escalationWait = (long) (unit.toNanos(target) * escalationThreshold);
+        callQueue.setWaitDeadlines(clock, escalationWait, unit.toNanos(patience), TimeUnit.NANOSECONDS, waitListener);
+    }
+
+    public DispatchMode getMode() {
+        return mode;
+    }
+
+    public CallClock getClock() {
+        return clock;
+    }
+
+    public CallEventSink getEventSink() {
+        return eventSink;
+    }
+
+    /**
+     * Set where the events of the calls are recorded, the sink isn't closed by the dispatcher. It must be set before dispatching calls
+     *
+     * @param eventSink the sink, {@link CallEventSink#LOGGER} logs the events synchronously
+     */
+    public void setEventSink(CallEventSink eventSink) {
+        if (ownsEventSink) {
+            eventLog.close();
+        }
+        this.eventLog = eventSink;
+        this.ownsEventSink = false;
+        this.eventSink = journalLog == null ? eventSink : CallEventSink.tee(eventSink, journalLog);
+    }
+
+    /**
+     * Makes the calls durable: their events are written to the journal by an asynchronous writer of its own, apart from the event log, and the calls recovered by the journal are dispatched again.
+     * The writer never drops events so they are recovered in order, and the text log, sampled or slow, never holds the journal back. It must be set before dispatching calls, the journal isn't closed by the dispatcher
+     *
+     * @param journal the journal opened in the folder of the previous run
+     */
+    public void setJournal(MappedCallJournal journal) {
+        if (journalLog != null) {
+            journalLog.close();
+        }
+        journalLog = new AsyncCallEventLog(Constants.EVENT_LOG_CAPACITY, LogOverflowPolicy.BLOCK, 1, journal);
+        eventSink = CallEventSink.tee(eventLog, journalLog);
+        recover(journal.getRecoveredCalls());
+    }
+
+    /**
+     * Restores the state of a previous run: the calls answered are added to the count and the pending calls are queued again in their arrival order, with their original priority, duration and required skills.
+     * The calls that were being answered are answered again from the start
+     *
+     * @param recoveredCalls the state recovered from a journal
+     */
+    public void recover(RecoveredCalls recoveredCalls) {
+        callsAnswered.addAndGet((int) recoveredCalls.getCallsAnswered());
+        for (RecoveredCalls.PendingCall pending : recoveredCalls.getPendingCalls()) {
+            Call call = callPool.take();
+            call.init(pending.getCallId(), pending.getPriority(), pending.getDuration(), clock);
+            call.setEventSink(eventSink);
+            call.setRequiredSkills(pending.getRequiredSkills());
+            if (!callQueue.offer(call)) {
+                call.reject();
+                callPool.release(call);
+            }
+        }
+        logger.info("Recovered {} calls answered and {} calls pending", recoveredCalls.getCallsAnswered(), recoveredCalls.getPendingCalls().size());
+        matchCalls();
+    }
+
+    public DispatcherMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return a copy of the current metrics: latencies of the calls, utilization of each employee type and state of the queue
+     */
+    public MetricsSnapshot getMetricsSnapshot() {
+        return metrics.snapshot();
+    }
+
+    public TrafficEstimator getTrafficEstimator() {
+        return trafficEstimator;
+    }
+
+    /**
+     * @return the number of calls that can be answered at the same time, the employees or the concurrency limit if it's lower
+     */
+    public int getStaffing() {
+        return Math.min(employees.size(), semaphore.getPermits());
+    }
+
+    /**
+     * Estimates the wait of a call arriving now behind the calls already waiting, so it can be announced to the caller.
+     * With all the employees busy one of them becomes free on average every handle time divided by the staffing, and the call waits for one for each call ahead of it and one more for itself.
+     * The priority and the skills of the call aren't taken into account
+     *
+     * @return the expected wait in nanoseconds, zero if an employee can answer it straight away, Long.MAX_VALUE if there's no staff
+     */
+    public long getExpectedWait() {
+        int depth = callQueue.getDepth();
+        if (depth == 0 && employeePool.idleCount() > 0 && semaphore.availablePermits() > 0) {
+            return 0;
+        }
+        int staffing = getStaffing();
+        if (staffing == 0) {
+            return Long.MAX_VALUE;
+        }
+        return (long) ((depth + 1) * trafficEstimator.getMeanHandleTime() / staffing);
+    }
+
+    /**
+     * @return the Erlang C average wait in nanoseconds of the calls with the current traffic and staffing, Long.MAX_VALUE if the traffic exceeds the staffing
+     */
+    public long getSteadyStateWait() {
+        return trafficEstimator.getExpectedWait(getStaffing(), clock.nanoTime());
+    }
+
+    /**
+     * Set the supplier of the call durations in seconds, by default a random value between CALL_MIN_DURATION and CALL_MAX_DURATION is used
+     *
+     * @param callDurations the supplier of the durations
+     */
+    public void setCallDurations(IntSupplier callDurations) {
+        this.callDurations = callDurations;
+    }
+
+    /**
+     * Set the semaphore count to a number different than the default (the number of employees of the staff), from then on it doesn't follow the changes of the staff.
+     * It can be changed while calls are being answered, the calls in progress count against the new limit and no new call is started until they are below it
      *
      * @param count the number of  locks that will be available in the semaphore
      */
     public void setSemaphoreCount(int count) {
-        this.semaphore = new Semaphore(count, true);
+        synchronized (staffLock) {
+            semaphore.resize(count);
+            semaphoreCountSet = true;
+        }
+        matchCalls();
+    }
+
+    /**
+     * Sets the semaphore count back to the number of employees of the staff, following the changes of the staff from then on
+     */
+    public void resetSemaphoreCount() {
+        synchronized (staffLock) {
+            semaphoreCountSet = false;
+            semaphore.resize(employees.size());
+        }
+        matchCalls();
+    }
+
+    /**
+     * @return the max number of calls answered at the same time
+     */
+    public int getSemaphoreCount() {
+        return semaphore.getPermits();
+    }
+
+    /**
+     * @return the locks of the semaphore not held by calls, negative while the calls in progress exceed a count that was reduced
+     */
+    public int getAvailablePermits() {
+        return semaphore.availablePermits();
+    }
+
+    /**
+     * Handles the deadlines of the waiting calls, it runs in the thread of the clock
+     */
+    private final class WaitDeadlines implements CallQueue.WaitListener {
+
+        @Override
+        public void callEscalated(Call call) {
+            //The higher employee types may be idle, waiting for calls to be escalated
+            matchCalls();
+        }
+
+        @Override
+        public void callAbandoned(Call call) {
+            call.abandon();
+            metrics.callAbandoned();
+            callPool.release(call);
+            //The queue may have been emptied by the abandoned call
+            matchCalls();
+        }
+    }
+
+    /**
+     * Timer callback that ends the calls with the same duration started in a matching pass, in the order they were assigned.
+     * It's reused once it runs, so scheduling the end of the calls doesn't allocate a callback for each call
+     */
+    private final class CallEnd implements Runnable {
+
+        private int duration;
+        private long start;
+        private EmployeePool pool;
+        private Semaphore permits;
+        private Call first;
+        private Call last;
+        private CallEnd next;
+        private CallEnd activePrev;
+        private CallEnd activeNext;
+        private boolean active;
+
+        void add(Call call) {
+            call.next = null;
+            if (last == null) {
+                first = call;
+            } else {
+                last.next = call;
+            }
+            last = call;
+        }
+
+        @Override
+        public void run() {
+            Call call;
+            EmployeePool endPool;
+            Semaphore endPermits;
+            long elapsed;
+            //Taken with the lock so an immediate shutdown either ends these calls or leaves none to end
+            synchronized (Dispatcher.this) {
+                call = first;
+                first = null;
+                last = null;
+                endPool = pool;
+                endPermits = permits;
+                elapsed = clock.nanoTime() - start;
+                releaseCallEnd(this);
+            }
+            while (call != null) {
+                Call following = call.next;
+                call.next = null;
+                call.finish();
+                metrics.callFinished(call.getEmployeeType(), elapsed);
+                trafficEstimator.callFinished(elapsed);
+                releaseCall(call, endPool, endPermits);
+                call = following;
+            }
+            matchCalls();
+        }
     }
 }
@@ -0,0 +1,220 @@
+package com.almundo.callcenter.process;
+
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.model.SkillSet;
+
+import java.util.Collection;
+
+/**
+ * Pool of idle employees and routing engine of the calls. The idle employees are kept in an {@link AgentTable}, a bitset of idle slots for each type and one for each skill, so routing a call claims a set bit with a CAS following the escalation order (first Operators, then Supervisors and finally Directors) in a few nanoseconds even with 100k+ employees.
+ * Taking and releasing an employee are lock-free and never allocate memory, only the changes of the staff take the pool lock.
+ * Employees can join, leave or change their type while calls are being routed, an employee leaving while answering a call leaves the pool when the call ends
+ */
+public class EmployeePool {
+
+    /**
+     * Order in which the employee types are checked when looking for an idle employee, cached to avoid cloning the enum values on every lookup
+     */
+    private static final EmployeeType[] ESCALATION_ORDER = EmployeeType.values();
+
+    /**
+     * Last type in escalation order, a call limited to it can be answered by any employee
+     */
+    public static final EmployeeType HIGHEST_TYPE = ESCALATION_ORDER[ESCALATION_ORDER.length - 1];
+
+    /**
+     * State of the employees of the pool, its membership is guarded by the pool lock
+     */
+    private final AgentTable agents;
+
+    /**
+     * Semaphore counting the idle employees in the table. A permit is only released after the idle bit of the employee is set, and the permit of an employee that left the pool is consumed by the thread that finds its slot
+     */
+    private final ResizableSemaphore available;
+
+    /**
+     * Creates a pool with all the employees that aren't busy
+     *
+     * @param employees the employees that will answer calls
+     */
+    public EmployeePool(Collection<Employee> employees) {
+        this(employees, false);
+    }
+
+    /**
+     * Creates a pool with all the employees that aren't busy
+     *
+     * @param employees the employees that will answer calls
+     * @param offHeap   whether the skill bitsets of the employees are kept in direct buffers, off the heap, the idle and type state is always kept in atomic arrays on the heap
+     */
+    public EmployeePool(Collection<Employee> employees, boolean offHeap) {
+        agents = new AgentTable(offHeap);
+        available = new ResizableSemaphore(0, false);
+        for (Employee employee : employees) {
+            add(employee);
+        }
+    }
+
+    /**
+     * Takes an idle employee without waiting
+     *
+     * @return the employee taken from the pool or null if all employees are busy
+     */
+    public Employee tryAcquire() {
+        return tryAcquire(SkillSet.NONE);
+    }
+
+    /**
+     * Takes an idle employee having all the required skills without waiting
+     *
+     * @param requiredSkills the skills required by the call
+     * @return the employee taken from the pool or null if there is no idle employee with the skills
+     */
+    public Employee tryAcquire(SkillSet requiredSkills) {
+        return tryAcquire(requiredSkills, HIGHEST_TYPE);
+    }
+
+    /**
+     * Takes an idle employee having all the required skills without waiting, only from the types up to the given one in escalation order
+     *
+     * @param requiredSkills the skills required by the call
+     * @param highestType    the last type in escalation order that can answer the call
+     * @return the employee taken from the pool or null if there is no idle employee with the skills in those types
+     */
+    public Employee tryAcquire(SkillSet requiredSkills, EmployeeType highestType) {
+        while (available.tryAcquire()) {
+            int slot = take(requiredSkills, highestType);
+            if (slot >= 0) {
+                return taken(slot);
+            }
+            if (slot == AgentTable.NONE) {
+                available.release();
+                return null;
+            }
+            //The permit counted an employee that left the pool, another one is needed
+        }
+        return null;
+    }
+
+    /**
+     * Takes an idle employee, waiting until one is released if all of them are busy
+     *
+     * @return the employee taken from the pool
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public Employee acquire() throws InterruptedException {
+        while (true) {
+            available.acquire();
+            //Holding a permit there is an idle employee in the table, unless it left the pool after the permit was taken
+            int slot = take(SkillSet.NONE, HIGHEST_TYPE);
+            if (slot >= 0) {
+                return taken(slot);
+            }
+            if (slot == AgentTable.NONE) {
+                available.release();
+            }
+        }
+    }
+
+    /**
+     * Returns an employee to the pool so it can answer another call
+     *
+     * @param employee the employee that finished a call
+     */
+    public void release(Employee employee) {
+        employee.setBusy(false);
+        if (agents.release(employee.getSlot())) {
+            available.release();
+        }
+    }
+
+    /**
+     * Adds an employee to the pool, it can answer calls straight away unless it's busy, in that case it's marked as idle once released.
+     * An employee can be moved to another pool once it left this one, but not while it's answering a call for this pool
+     *
+     * @param employee the employee joining the pool
+     */
+    public synchronized void add(Employee employee) {
+        drainPending();
+        if (agents.contains(employee)) {
+            //An employee that comes back before the call it was answering ends is released as usual
+            agents.rejoin(employee.getSlot());
+            return;
+        }
+        int slot = agents.add(employee);
+        if (!employee.isBusy()) {
+            agents.setIdle(slot);
+            available.release();
+        }
+    }
+
+    /**
+     * Removes an employee from the pool, an idle employee can't be taken anymore and a busy one isn't marked as idle when its call ends
+     *
+     * @param employee the employee leaving the pool
+     */
+    public synchronized void remove(Employee employee) {
+        drainPending();
+        if (!agents.contains(employee)) {
+            return;
+        }
+        //A busy employee is freed by the next change of the staff after its call ends
+        if (agents.retire(employee.getSlot())) {
+            available.reducePermits(1);
+        }
+    }
+
+    /**
+     * Changes the type of an employee of the pool, an idle employee is moved to the idle bitset of its new type
+     *
+     * @param employee the employee
+     * @param type     the new type of the employee
+     */
+    public synchronized void changeType(Employee employee, EmployeeType type) {
+        drainPending();
+        if (agents.contains(employee)) {
+            //A busy employee is marked as idle in its new type when released
+            agents.setType(employee.getSlot(), type);
+        }
+        employee.setType(type);
+    }
+
+    /**
+     * @return the number of employees that are currently idle
+     */
+    public int idleCount() {
+        return available.availablePermits();
+    }
+
+    /**
+     * Routes a call without locking: checks the employee types in escalation order up to the highest type allowed and claims the next idle employee with the required skills, round-robin among the employees of the type
+     *
+     * @return the slot claimed, {@link AgentTable#NONE} or {@link AgentTable#LEFT}
+     */
+    private int take(SkillSet requiredSkills, EmployeeType highestType) {
+        for (int i = 0; i <= highestType.ordinal(); i++) {
+            int slot = agents.take(ESCALATION_ORDER[i], requiredSkills);
+            if (slot != AgentTable.NONE) {
+                return slot;
+            }
+        }
+        return AgentTable.NONE;
+    }
+
+    private Employee taken(int slot) {
+        Employee employee = agents.employee(slot);
+        employee.setBusy(true);
+        return employee;
+    }
+
+    /**
+     * Frees the slots of the employees that left the pool while answering a call, the ones that came back meanwhile get their permits back
+     */
+    private void drainPending() {
+        int idle = agents.drainPending();
+        if (idle > 0) {
+            available.release(idle);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.almundo.callcenter.process;
+
+import com.almundo.callcenter.util.Constants;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Model representing the kind of executor used to answer calls in BLOCKING mode.
+ * The number of concurrent calls is always limited by the semaphore of the dispatcher, the executor only decides how much a blocked call costs
+ */
+public enum ExecutorStrategy {
+    /**
+     * Thread Pool based on the number set in MAX_CONCURRENT_CALLS, the calls over that number wait for a thread even if the semaphore of the dispatcher lets them in
+     */
+    FIXED_POOL {
+        @Override
+        public ExecutorService newExecutor() {
+            return Executors.newFixedThreadPool(Constants.MAX_CONCURRENT_CALLS);
+        }
+    },
+    /**
+     * Thread Pool that creates platform threads as needed and reuses idle ones, the default when virtual threads aren't available
+     */
+    CACHED_POOL {
+        @Override
+        public ExecutorService newExecutor() {
+            return Executors.newCachedThreadPool();
+        }
+    },
+    /**
+     * A new virtual thread for each call, available on JDK 21 or newer, the default when they are.
+     * The factory method is looked up at runtime so the app can still be built and run with Java 8
+     */
+    VIRTUAL_THREADS {
+        @Override
+        public ExecutorService newExecutor() {
+            if (VIRTUAL_THREAD_FACTORY == null) {
+                throw new UnsupportedOperationException("Virtual threads require JDK 21 or newer, running on " + System.getProperty("java.version"));
+            }
+            try {
+                return (ExecutorService) VIRTUAL_THREAD_FACTORY.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to create virtual thread executor", e);
+            }
+        }
+
+        @Override
+        public boolean isSupported() {
+            return VIRTUAL_THREAD_FACTORY != null;
+        }
+    };
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() if the running JDK has it, null otherwise
+     */
+    private static final Method VIRTUAL_THREAD_FACTORY = findVirtualThreadFactory();
+
+    /**
+     * The executor grows with the calls let in by the semaphore of the dispatcher, so the concurrency limit can be raised without creating a new executor
+     *
+     * @return VIRTUAL_THREADS if the running JDK has them, CACHED_POOL otherwise
+     */
+    public static ExecutorStrategy defaultStrategy() {
+        return VIRTUAL_THREADS.isSupported() ? VIRTUAL_THREADS : CACHED_POOL;
+    }
+
+    /**
+     * Creates a new executor for answering calls
+     *
+     * @return the executor
+     */
+    public abstract ExecutorService newExecutor();
+
+    /**
+     * @return true if the executor can be created on the running JDK
+     */
+    public boolean isSupported() {
+        return true;
+    }
+
+    private static Method findVirtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
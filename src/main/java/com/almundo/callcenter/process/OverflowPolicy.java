@@ -0,0 +1,19 @@
+package com.almundo.callcenter.process;
+
+/**
+ * Model representing what happens to a new call when the waiting queue is full
+ */
+public enum OverflowPolicy {
+    /**
+     * The new call is rejected and the caller gets a busy signal
+     */
+    REJECT,
+    /**
+     * The caller is blocked until there is room in the queue, the call is rejected if the timeout elapses first
+     */
+    BLOCK,
+    /**
+     * The call that has been waiting the longest is dropped to make room for the new one
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,55 @@
+package com.almundo.callcenter.process;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Semaphore whose number of permits can be changed while some of them are held.
+ * Shrinking it doesn't wait for the permits to be returned: the available permits may go negative and the permits returned by the holders bring them back to the new count
+ */
+final class ResizableSemaphore extends Semaphore {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Total number of permits, guarded by the semaphore lock
+     */
+    private int permits;
+
+    ResizableSemaphore(int permits, boolean fair) {
+        super(permits, fair);
+        this.permits = permits;
+    }
+
+    /**
+     * Changes the total number of permits, the permits held keep counting against the new number
+     *
+     * @param permits the new number of permits
+     */
+    synchronized void resize(int permits) {
+        if (permits < 0) {
+            throw new IllegalArgumentException("Number of permits must not be negative: " + permits);
+        }
+        int delta = permits - this.permits;
+        this.permits = permits;
+        if (delta > 0) {
+            release(delta);
+        } else if (delta < 0) {
+            reducePermits(-delta);
+        }
+    }
+
+    /**
+     * @return the total number of permits, including the ones held
+     */
+    synchronized int getPermits() {
+        return permits;
+    }
+
+    /**
+     * Removes permits without waiting for them to be available, used when the counted resource is gone
+     */
+    @Override
+    protected void reducePermits(int reduction) {
+        super.reducePermits(reduction);
+    }
+}
@@ -0,0 +1,421 @@
+package com.almundo.callcenter.process;
+
+import com.almundo.callcenter.clock.CallClock;
+import com.almundo.callcenter.journal.RecoveredCalls;
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.SkillSet;
+import com.almundo.callcenter.util.Constants;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * Group of dispatchers (shards) that answer calls together so the dispatching scales with the cores.
+ * Each shard owns a partition of the employees, its own queue, semaphore and executor, and the calls are spread among the shards round-robin.
+ * A shard with idle employees and no waiting calls steals the calls waiting in the other shards, so no employee stays idle while a call waits
+ */
+public class ShardedDispatcher {
+
+    private final Dispatcher[] shards;
+
+    /**
+     * Counter used to spread the incoming calls among the shards
+     */
+    private final AtomicInteger nextShard;
+
+    /**
+     * Concurrency limit of the whole group split among the shards, zero while each shard follows the number of its employees
+     */
+    private int semaphoreCount;
+
+    /**
+     * Creates the shards in BLOCKING mode
+     *
+     * @param shardCount the number of shards
+     */
+    public ShardedDispatcher(int shardCount) {
+        this(shardCount, DispatchMode.BLOCKING);
+    }
+
+    /**
+     * Creates the shards, each one with its own clock so the end of the calls in EVENT mode is also fired by different threads
+     *
+     * @param shardCount the number of shards
+     * @param mode       the dispatch mode of the shards
+     */
+    public ShardedDispatcher(int shardCount, DispatchMode mode) {
+        this(shardCount, mode, null);
+    }
+
+    /**
+     * Creates the shards sharing the given clock
+     *
+     * @param shardCount the number of shards
+     * @param mode       the dispatch mode of the shards
+     * @param clock      the clock for all the shards
+     */
+    public ShardedDispatcher(int shardCount, DispatchMode mode, CallClock clock) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Number of shards must be positive: " + shardCount);
+        }
+        shards = new Dispatcher[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = clock == null ? new Dispatcher(mode) : new Dispatcher(mode, clock);
+            shards[i].setShards(this);
+        }
+        nextShard = new AtomicInteger(0);
+        setQueueCapacity(Constants.MAX_WAITING_CALLS);
+    }
+
+    /**
+     * Part of a limit of the whole group that goes to a shard, the first shards get one more when the limit isn't a multiple of the shards and every shard gets at least one
+     */
+    private int share(int total, int shard) {
+        return Math.max(1, total / shards.length + (shard < total % shards.length ? 1 : 0));
+    }
+
+    /**
+     * Dispatches an incoming call to the next shard
+     *
+     * @param callId the id of the new incoming call
+     * @return whether the call was answered straight away, queued or rejected
+     * @see Dispatcher#dispatchCall(String)
+     */
+    public DispatchResult dispatchCall(String callId) {
+        return dispatchCall(callId, Call.DEFAULT_PRIORITY, SkillSet.NONE);
+    }
+
+    /**
+     * Dispatches an incoming call with the given priority to the next shard
+     *
+     * @param callId   the id of the new incoming call
+     * @param priority the priority of the call
+     * @return whether the call was answered straight away, queued or rejected
+     */
+    public DispatchResult dispatchCall(String callId, int priority) {
+        return dispatchCall(callId, priority, SkillSet.NONE);
+    }
+
+    /**
+     * Dispatches an incoming call to the next shard, if it has to wait there the shards with idle employees are woken up to steal it
+     *
+     * @param callId         the id of the new incoming call
+     * @param priority       the priority of the call
+     * @param requiredSkills the skills the employee needs to answer the call
+     * @return whether the call was answered straight away, queued or rejected
+     * @see Dispatcher#dispatchCall(String, int, SkillSet)
+     */
+    public DispatchResult dispatchCall(String callId, int priority, SkillSet requiredSkills) {
+        Dispatcher shard = shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)];
+        DispatchResult result = shard.dispatchCall(callId, priority, requiredSkills);
+        if (result == DispatchResult.QUEUED) {
+            for (Dispatcher idle : shards) {
+                if (idle != shard && idle.getEmployeePool().idleCount() > 0) {
+                    idle.matchWaitingCalls();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Dispatches a burst of incoming calls with the default priority
+     *
+     * @param callIds the ids of the new incoming calls
+     * @return the result of each call, in the order of the ids
+     * @see #dispatchCalls(Collection, int)
+     */
+    public List<DispatchResult> dispatchCalls(Collection<String> callIds) {
+        return dispatchCalls(callIds, Call.DEFAULT_PRIORITY);
+    }
+
+    /**
+     * Dispatches a burst of incoming calls splitting it in consecutive slices, one for each shard, so every shard admits its slice at once.
+     * If some calls have to wait the shards with idle employees are woken up to steal them
+     *
+     * @param callIds  the ids of the new incoming calls
+     * @param priority the priority of the calls
+     * @return the result of each call, in the order of the ids
+     * @see Dispatcher#dispatchCalls(Collection, int)
+     */
+    public List<DispatchResult> dispatchCalls(Collection<String> callIds, int priority) {
+        List<String> ids = new ArrayList<>(callIds);
+        List<DispatchResult> results = new ArrayList<>(ids.size());
+        int first = nextShard.getAndAdd(ids.size());
+        int from = 0;
+        for (int i = 0; i < shards.length && from < ids.size(); i++) {
+            //The first slices get one more call when the burst isn't a multiple of the shards
+            int to = from + ids.size() / shards.length + (i < ids.size() % shards.length ? 1 : 0);
+            results.addAll(shards[Math.floorMod(first + i, shards.length)].dispatchCalls(ids.subList(from, to), priority));
+            from = to;
+        }
+        if (results.contains(DispatchResult.QUEUED)) {
+            for (Dispatcher idle : shards) {
+                if (idle.getEmployeePool().idleCount() > 0) {
+                    idle.matchWaitingCalls();
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Steals a waiting call for an idle employee of the thief, the victims are checked from a random shard to spread the thieves
+     */
+    Call steal(Dispatcher thief, EmployeePool pool) {
+        if (pool.idleCount() == 0) {
+            return null;
+        }
+        int start = ThreadLocalRandom.current().nextInt(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            Dispatcher victim = shards[(start + i) % shards.length];
+            if (victim == thief || victim.getQueueDepth() == 0) {
+                continue;
+            }
+            Call call = victim.stealCall(pool);
+            if (call != null) {
+                return call;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Partitions the employees among the shards round-robin, so each shard gets a similar number of employees of each type.
+     * Without a concurrency limit set for the group the limit of each shard follows the number of its employees
+     *
+     * @param employees the employees that will answer calls
+     */
+    public void setEmployees(List<Employee> employees) {
+        List<List<Employee>> partitions = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < employees.size(); i++) {
+            partitions.get(i % shards.length).add(employees.get(i));
+        }
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].setEmployees(partitions.get(i));
+            if (semaphoreCount == 0) {
+                shards[i].resetSemaphoreCount();
+            }
+        }
+    }
+
+    /**
+     * Adds an employee to the shard with the fewest employees while calls are being answered, the concurrency limit of the shard grows with it unless a limit was set for the group
+     *
+     * @param employee the employee joining the staff
+     */
+    public synchronized void addEmployee(Employee employee) {
+        Dispatcher smallest = shards[0];
+        for (Dispatcher shard : shards) {
+            if (shard.getEmployees().size() < smallest.getEmployees().size()) {
+                smallest = shard;
+            }
+        }
+        smallest.addEmployee(employee);
+    }
+
+    /**
+     * Removes an employee from the shard it belongs to, a busy employee finishes its call and then leaves
+     *
+     * @param employee the employee leaving the staff
+     * @return false if the employee wasn't part of any shard
+     */
+    public synchronized boolean removeEmployee(Employee employee) {
+        for (Dispatcher shard : shards) {
+            if (shard.removeEmployee(employee)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops all the shards, the waiting calls are answered before each shard terminates
+     */
+    public void stopExecutor() {
+        for (Dispatcher shard : shards) {
+            shard.stopExecutor();
+        }
+    }
+
+    /**
+     * Shuts all the shards down at the same time, waiting at most the timeout for all of them
+     *
+     * @return the calls answered and the calls left unanswered by all the shards
+     * @see Dispatcher#shutdown(ShutdownMode, long, TimeUnit)
+     */
+    public RecoveredCalls shutdown(ShutdownMode mode, long timeout, TimeUnit unit) {
+        for (Dispatcher shard : shards) {
+            shard.beginShutdown(mode);
+        }
+        CallClock clock = shards[0].getClock();
+        long deadline = clock.nanoTime() + unit.toNanos(timeout);
+        long callsAnswered = 0;
+        List<RecoveredCalls.PendingCall> unfinished = new ArrayList<>();
+        for (Dispatcher shard : shards) {
+            shard.awaitShutdown(deadline - clock.nanoTime());
+        }
+        for (Dispatcher shard : shards) {
+            RecoveredCalls shardCalls = shard.getUnfinishedCalls();
+            callsAnswered += shardCalls.getCallsAnswered();
+            unfinished.addAll(shardCalls.getPendingCalls());
+        }
+        return new RecoveredCalls(callsAnswered, unfinished);
+    }
+
+    /**
+     * Set where the waiting calls of all the shards go when they are shut down
+     *
+     * @see Dispatcher#setCallHandoff(CallHandoff)
+     */
+    public void setCallHandoff(CallHandoff callHandoff) {
+        for (Dispatcher shard : shards) {
+            shard.setCallHandoff(callHandoff);
+        }
+    }
+
+    /**
+     * Waits until all the shards are terminated
+     */
+    public void waitForTermination() {
+        for (Dispatcher shard : shards) {
+            shard.waitForTermination();
+        }
+    }
+
+    public void setCallDurations(IntSupplier callDurations) {
+        for (Dispatcher shard : shards) {
+            shard.setCallDurations(callDurations);
+        }
+    }
+
+    /**
+     * Set the concurrency limit of the whole group, split among the shards, from then on the limits of the shards don't follow the changes of the staff
+     *
+     * @param count the max number of calls answered at the same time by all the shards
+     * @see Dispatcher#setSemaphoreCount(int)
+     */
+    public synchronized void setSemaphoreCount(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Concurrency limit must be positive: " + count);
+        }
+        semaphoreCount = count;
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].setSemaphoreCount(share(count, i));
+        }
+    }
+
+    /**
+     * Sets the concurrency limit of each shard back to the number of its employees, following the changes of the staff from then on
+     */
+    public synchronized void resetSemaphoreCount() {
+        semaphoreCount = 0;
+        for (Dispatcher shard : shards) {
+            shard.resetSemaphoreCount();
+        }
+    }
+
+    /**
+     * Set the max number of calls that can wait in the whole group, split among the shards
+     *
+     * @param capacity the capacity of the queues of all the shards
+     * @see Dispatcher#setQueueCapacity(int)
+     */
+    public void setQueueCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+        }
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].setQueueCapacity(share(capacity, i));
+        }
+    }
+
+    /**
+     * Set what happens to new calls when the waiting queue of a shard is full
+     *
+     * @see Dispatcher#setOverflowPolicy(OverflowPolicy, long, TimeUnit)
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy, long blockTimeout, TimeUnit unit) {
+        for (Dispatcher shard : shards) {
+            shard.setOverflowPolicy(overflowPolicy, blockTimeout, unit);
+        }
+    }
+
+    /**
+     * Set the service level of the waiting calls of all the shards
+     *
+     * @see Dispatcher#setServiceLevel(long, long, double, TimeUnit)
+     */
+    public void setServiceLevel(long target, long patience, double escalationThreshold, TimeUnit unit) {
+        for (Dispatcher shard : shards) {
+            shard.setServiceLevel(target, patience, escalationThreshold, unit);
+        }
+    }
+
+    /**
+     * @return the shards, in the order the calls are spread
+     */
+    public List<Dispatcher> getShards() {
+        return Collections.unmodifiableList(Arrays.asList(shards));
+    }
+
+    /**
+     * @return the calls answered by all the shards, a stolen call is counted by the shard that answered it
+     */
+    public int getCallsAnswered() {
+        int callsAnswered = 0;
+        for (Dispatcher shard : shards) {
+            callsAnswered += shard.getCallsAnswered();
+        }
+        return callsAnswered;
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Dispatcher shard : shards) {
+            depth += shard.getQueueDepth();
+        }
+        return depth;
+    }
+
+    public long getCallsRejected() {
+        long rejected = 0;
+        for (Dispatcher shard : shards) {
+            rejected += shard.getCallsRejected();
+        }
+        return rejected;
+    }
+
+    public long getCallsDropped() {
+        long dropped = 0;
+        for (Dispatcher shard : shards) {
+            dropped += shard.getCallsDropped();
+        }
+        return dropped;
+    }
+
+    /**
+     * @return a copy of the calls waiting in all the shards, ordered by priority and then by arrival time
+     */
+    public Queue<Call> getCalls() {
+        List<Call> calls = new ArrayList<>();
+        for (Dispatcher shard : shards) {
+            calls.addAll(shard.getCalls());
+        }
+        calls.sort(Comparator.comparingInt(Call::getPriority).reversed().thenComparingLong(Call::getArrivalTime));
+        return new ArrayDeque<>(calls);
+    }
+}
@@ -0,0 +1,16 @@
+package com.almundo.callcenter.process;
+
+/**
+ * Model representing the ways a dispatcher can be shut down, in both of them no new calls are accepted
+ */
+public enum ShutdownMode {
+    /**
+     * The calls being answered are finished and the waiting calls are given to the handoff, or answered if there is none.
+     * If they aren't done by the deadline the remaining calls are interrupted as in IMMEDIATE
+     */
+    DRAIN,
+    /**
+     * The calls being answered are interrupted and the waiting calls are given to the handoff, the calls not handed off are returned so they can be recovered later
+     */
+    IMMEDIATE
+}
@@ -0,0 +1,200 @@
+package com.almundo.callcenter.process;
+
+import com.almundo.callcenter.clock.CallClock;
+
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel for the deadlines of the waiting calls. Each bucket holds the calls whose deadline falls in one tick, linked through the call records, so adding and cancelling a deadline is O(1) and doesn't allocate memory even with millions of waiting calls.
+ * The wheel is sized so the longest deadline fits in a single turn and it's advanced by a single clock task that is only scheduled while there are deadlines, so a simulated clock isn't kept busy by an empty wheel.
+ * The deadlines never expire early, they expire on the first tick at or after them
+ */
+final class TimingWheel implements Runnable {
+
+    /**
+     * Value of {@link Call#timerTick} of the calls that aren't in the wheel
+     */
+    static final long NOT_SCHEDULED = -1;
+
+    /**
+     * Receives the calls whose deadline expired, outside the wheel lock
+     */
+    interface Expiry {
+
+        /**
+         * @param call       the call
+         * @param generation the generation of the record when the deadline was added, the record may have been reused for another call since then
+         */
+        void expired(Call call, int generation);
+    }
+
+    private final CallClock clock;
+    private final Expiry expiry;
+    private final long tickNanos;
+    private final Call[] buckets;
+    private final int mask;
+
+    /**
+     * Time of the clock of the tick zero
+     */
+    private final long origin;
+
+    /**
+     * Last tick whose bucket was expired
+     */
+    private long currentTick;
+
+    private int size;
+
+    /**
+     * Whether the clock task is scheduled or running, it's only scheduled while there are deadlines
+     */
+    private boolean scheduled;
+
+    /**
+     * Calls expired by the clock task and the generations they had when their deadlines were added, handed to the expiry outside the lock. Only the clock task uses them and there's never more than one running
+     */
+    private Call[] expired = new Call[16];
+    private int[] generations = new int[16];
+
+    /**
+     * @param clock     the clock the deadlines are measured and the wheel is advanced with
+     * @param tick      the resolution of the deadlines
+     * @param maxDelay  the longest deadline from now that will be added, the wheel has enough buckets to hold it in one turn
+     * @param unit      the unit of the tick and the max delay
+     * @param expiry    receives the expired calls
+     */
+    TimingWheel(CallClock clock, long tick, long maxDelay, TimeUnit unit, Expiry expiry) {
+        this.clock = clock;
+        this.expiry = expiry;
+        this.tickNanos = unit.toNanos(tick);
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("Tick must be positive: " + tick);
+        }
+        long ticks = unit.toNanos(maxDelay) / tickNanos + 2;
+        int length = Integer.highestOneBit((int) Math.min(ticks, 1 << 22) - 1) << 1;
+        this.buckets = new Call[Math.max(64, length)];
+        this.mask = buckets.length - 1;
+        this.origin = clock.nanoTime();
+    }
+
+    /**
+     * Sets the deadline of a call, replacing the one it had if it's in the wheel
+     *
+     * @param call     the call
+     * @param deadline the time of the clock when the call expires
+     */
+    synchronized void add(Call call, long deadline) {
+        if (call.timerTick != NOT_SCHEDULED) {
+            //The call already had a deadline, the new one replaces it
+            unlink(call);
+        }
+        if (!scheduled) {
+            //The wheel was empty, it starts again from the current tick
+            currentTick = Math.max(currentTick, (clock.nanoTime() - origin) / tickNanos);
+        }
+        long tick = Math.max(ceilTick(deadline), currentTick + 1);
+        call.timerTick = tick;
+        call.timerGeneration = call.getGeneration();
+        int bucket = (int) (tick & mask);
+        Call head = buckets[bucket];
+        call.timerPrev = null;
+        call.timerNext = head;
+        if (head != null) {
+            head.timerPrev = call;
+        }
+        buckets[bucket] = call;
+        size++;
+        if (!scheduled) {
+            scheduled = true;
+            scheduleNextTick();
+        }
+    }
+
+    /**
+     * Removes the deadline of a call, it does nothing if the call isn't in the wheel
+     */
+    synchronized void cancel(Call call) {
+        if (call.timerTick != NOT_SCHEDULED) {
+            unlink(call);
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Clock task: expires the buckets of the ticks elapsed since the last run and schedules itself for the next tick while there are deadlines
+     */
+    @Override
+    public void run() {
+        int count = 0;
+        synchronized (this) {
+            long nowTick = (clock.nanoTime() - origin) / tickNanos;
+            while (currentTick < nowTick && size > 0) {
+                currentTick++;
+                Call call = buckets[(int) (currentTick & mask)];
+                while (call != null) {
+                    Call following = call.timerNext;
+                    if (call.timerTick <= currentTick) {
+                        unlink(call);
+                        if (count == expired.length) {
+                            expired = Arrays.copyOf(expired, count * 2);
+                            generations = Arrays.copyOf(generations, count * 2);
+                        }
+                        expired[count] = call;
+                        generations[count] = call.timerGeneration;
+                        count++;
+                    }
+                    call = following;
+                }
+            }
+            currentTick = Math.max(currentTick, nowTick);
+        }
+        for (int i = 0; i < count; i++) {
+            Call call = expired[i];
+            expired[i] = null;
+            expiry.expired(call, generations[i]);
+        }
+        synchronized (this) {
+            if (size > 0) {
+                scheduleNextTick();
+            } else {
+                scheduled = false;
+            }
+        }
+    }
+
+    private void unlink(Call call) {
+        if (call.timerPrev == null) {
+            buckets[(int) (call.timerTick & mask)] = call.timerNext;
+        } else {
+            call.timerPrev.timerNext = call.timerNext;
+        }
+        if (call.timerNext != null) {
+            call.timerNext.timerPrev = call.timerPrev;
+        }
+        call.timerNext = null;
+        call.timerPrev = null;
+        call.timerTick = NOT_SCHEDULED;
+        size--;
+    }
+
+    private void scheduleNextTick() {
+        long next = origin + (currentTick + 1) * tickNanos;
+        try {
+            clock.schedule(this, Math.max(0, next - clock.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException | IllegalStateException e) {
+            //The clock was stopped with the dispatcher, the deadlines left can't expire anymore
+            scheduled = false;
+        }
+    }
+
+    private long ceilTick(long deadline) {
+        long elapsed = deadline - origin;
+        return elapsed <= 0 ? 0 : (elapsed + tickNanos - 1) / tickNanos;
+    }
+}
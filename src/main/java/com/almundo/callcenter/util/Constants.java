@@ -1,7 +1,7 @@
 package com.almundo.callcenter.util;
 
 /**
- * Class containing all constants used in the app
+ * Class containing all constants used in the app, the tuning knobs among them are the defaults of the values read by CallCenterConfig
  */
 public final class Constants {
 
@@ -11,6 +11,22 @@ public final class Constants {
     public static final int NUMBER_OF_OPERATORS = 3;
     public static final int NUMBER_OF_SUPERVISORS = 2;
     public static final int NUMBER_OF_DIRECTORS = 1;
+    public static final int MAX_WAITING_CALLS = 1_000_000;
+    public static final int EVENT_DISPATCH_THREADS = 2;
+    public static final int EVENT_LOG_CAPACITY = 65_536;
+    public static final int JOURNAL_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final long JOURNAL_COMMIT_MILLIS = 10;
+    public static final long CLUSTER_GOSSIP_MILLIS = 50;
+    public static final int INGESTION_BUFFER_SIZE = 64 * 1024;
+    public static final int CALL_POOL_SIZE = 4_096;
+    public static final boolean EMPLOYEE_TABLE_OFF_HEAP = false;
+    public static final long SLA_TIMER_TICK_MILLIS = 100;
+    public static final int SERVICE_LEVEL_TARGET_SECONDS = 20;
+    public static final long SHUTDOWN_GRACE_MILLIS = 1_000;
+    public static final int SHUTDOWN_TIMEOUT_SECONDS = 30;
+    public static final double TRAFFIC_ESTIMATOR_WEIGHT = 0.02;
+    public static final String CONFIG_FILE = "callcenter.properties";
+    public static final long CONFIG_SETTLE_MILLIS = 100;
 
     /**
      * A private constructor to avoid exposing the public one
@@ -1,22 +1,44 @@
 package com.almundo.callcenter;
 
+import com.almundo.callcenter.clock.SimulatedCallClock;
+import com.almundo.callcenter.journal.RecoveredCalls;
+import com.almundo.callcenter.metrics.MetricsSnapshot;
 import com.almundo.callcenter.model.Employee;
 import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.model.SkillSet;
 import com.almundo.callcenter.process.Call;
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.DispatchResult;
 import com.almundo.callcenter.process.Dispatcher;
+import com.almundo.callcenter.process.EmployeePool;
+import com.almundo.callcenter.process.ExecutorStrategy;
+import com.almundo.callcenter.process.OverflowPolicy;
+import com.almundo.callcenter.process.ShardedDispatcher;
+import com.almundo.callcenter.process.ShutdownMode;
 import com.almundo.callcenter.util.Constants;
 import org.junit.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class CallCenterTest {
 
@@ -193,6 +215,626 @@ public class CallCenterTest {
         });
     }
 
+    /**
+     * Employees taken from the pool shouldn't be returned again until they are released, and once released they should be available again
+     */
+    @Test
+    public void releasedEmployeeShouldBeAvailableAgain() {
+        logger.info("##########Testing releasedEmployeeShouldBeAvailableAgain");
+
+        employees.add(new Employee("0Dr", EmployeeType.DIRECTOR));
+        employees.add(new Employee("0Op", EmployeeType.OPERADOR));
+
+        //Set the employees list in the dispatcher
+        dispatcher.setEmployees(employees);
+
+        Employee operator = dispatcher.findAvailableEmployee().orElseThrow(IllegalStateException::new);
+        Employee director = dispatcher.findAvailableEmployee().orElseThrow(IllegalStateException::new);
+        assertEquals("Available operator", EmployeeType.OPERADOR, operator.getType());
+        assertEquals("Available director", EmployeeType.DIRECTOR, director.getType());
+        assertTrue("Operator busy", operator.isBusy());
+
+        //All employees are busy, no employee should be returned
+        assertFalse("No available employee", dispatcher.findAvailableEmployee().isPresent());
+
+        //Once released the operator should be taken again before the director
+        dispatcher.getEmployeePool().release(director);
+        dispatcher.getEmployeePool().release(operator);
+        assertEquals("Idle employees", 2, dispatcher.getEmployeePool().idleCount());
+        assertEquals("Available operator", operator, dispatcher.findAvailableEmployee().orElse(null));
+    }
+
+    /**
+     * A pool of thousands of employees kept off the heap should take them in escalation order and by skills, and reuse the slots of the employees that leave
+     */
+    @Test
+    public void largeOffHeapPoolShouldRouteEmployees() {
+        logger.info("##########Testing largeOffHeapPoolShouldRouteEmployees");
+
+        int numberOfOperators = 6_000;
+        int numberOfSupervisors = 3_000;
+        //Only one supervisor has the skill 70, so it's found by intersecting the bitsets of the idle supervisors and the skill
+        IntStream.range(0, numberOfOperators).forEach(i -> employees.add(new Employee(i + "Op", EmployeeType.OPERADOR, SkillSet.of(i % 64))));
+        IntStream.range(0, numberOfSupervisors).forEach(i -> employees.add(new Employee(i + "Sp", EmployeeType.SUPERVISOR, i == 2_500 ? SkillSet.of(3, 70) : SkillSet.of(3))));
+        EmployeePool pool = new EmployeePool(employees, true);
+        assertEquals("Idle employees", numberOfOperators + numberOfSupervisors, pool.idleCount());
+
+        Employee skilled = pool.tryAcquire(SkillSet.of(70));
+        assertEquals("Employee with the skill", "2500Sp", skilled == null ? null : skilled.getId());
+        assertEquals("No other employee with the skill", null, pool.tryAcquire(SkillSet.of(70)));
+
+        List<Employee> taken = new ArrayList<>();
+        for (Employee employee = pool.tryAcquire(); employee != null; employee = pool.tryAcquire()) {
+            //All the operators are taken before the first supervisor
+            assertEquals("Employee type", taken.size() < numberOfOperators ? EmployeeType.OPERADOR : EmployeeType.SUPERVISOR, employee.getType());
+            taken.add(employee);
+        }
+        assertEquals("Employees taken", numberOfOperators + numberOfSupervisors - 1, taken.size());
+
+        //An employee leaving while busy isn't returned to the pool, its slot is reused by the next employee that joins
+        Employee leaving = taken.get(0);
+        int slot = leaving.getSlot();
+        pool.remove(leaving);
+        taken.forEach(pool::release);
+        Employee joining = new Employee("newOp", EmployeeType.OPERADOR);
+        pool.add(joining);
+        assertEquals("Slot freed", -1, leaving.getSlot());
+        assertEquals("Slot reused", slot, joining.getSlot());
+        //The skilled supervisor is still busy
+        assertEquals("Idle employees", numberOfOperators + numberOfSupervisors - 1, pool.idleCount());
+    }
+
+    /**
+     * Routing threads taking employees by skills while the pool grows should never fail nor take an employee without the skills, and every employee should be idle at the end, both with the skill bitsets on the heap and off it
+     */
+    @Test
+    public void poolShouldGrowWhileRouting() throws InterruptedException {
+        logger.info("##########Testing poolShouldGrowWhileRouting");
+
+        for (boolean offHeap : new boolean[]{false, true}) {
+            EmployeePool pool = new EmployeePool(Collections.singletonList(new Employee("seed", EmployeeType.OPERADOR, SkillSet.of(5))), offHeap);
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> routers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Thread router = new Thread(() -> {
+                    try {
+                        while (!done.get()) {
+                            Employee employee = pool.tryAcquire(SkillSet.of(5));
+                            if (employee != null) {
+                                if (!employee.getSkills().contains(5)) {
+                                    throw new IllegalStateException("Employee without the skill: " + employee.getId());
+                                }
+                                pool.release(employee);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+                router.start();
+                routers.add(router);
+            }
+            int added = 20_000;
+            for (int i = 0; i < added; i++) {
+                pool.add(new Employee(i + "Op", EmployeeType.OPERADOR, SkillSet.of(i % 2 == 0 ? 5 : 6)));
+            }
+            done.set(true);
+            for (Thread router : routers) {
+                router.join();
+            }
+            assertEquals("Routing failure", null, failure.get());
+            assertEquals("Idle employees", added + 1, pool.idleCount());
+            int skilled = 0;
+            while (pool.tryAcquire(SkillSet.of(5)) != null) {
+                skilled++;
+            }
+            assertEquals("Employees with the skill", added / 2 + 1, skilled);
+        }
+    }
+
+    /**
+     * Process six calls in EVENT mode with only four employees available
+     * The calls that can't be answered wait in the queue and are matched when an employee finishes a call, without any thread waiting for them
+     */
+    @Test
+    public void eventDispatchShouldAnswerAllCalls() {
+        logger.info("##########Testing eventDispatchShouldAnswerAllCalls");
+
+        //Set the number of each type of employee and the number of calls to process
+        int callsToProcess = 6;
+        int numberOfOperators = 2;
+        int numberOfSupervisors = 1;
+        int numberOfDirectors = 1;
+        dispatcher = new Dispatcher(DispatchMode.EVENT);
+
+        //Add employees to the list
+        IntStream.range(0, numberOfOperators).forEach(i -> employees.add(new Employee(i + "Op", EmployeeType.OPERADOR)));
+        IntStream.range(0, numberOfSupervisors).forEach(i -> employees.add(new Employee(i + "Sp", EmployeeType.SUPERVISOR)));
+        IntStream.range(0, numberOfDirectors).forEach(i -> employees.add(new Employee(i + "Dr", EmployeeType.DIRECTOR)));
+
+        //Set the employees list in the dispatcher
+        dispatcher.setEmployees(employees);
+
+        //Process the calls, only four of them can be answered at the beginning
+        IntStream.range(0, callsToProcess).forEach(i -> dispatcher.dispatchCall(UUID.randomUUID().toString().substring(0, 8)));
+        assertEquals("Calls waiting", callsToProcess - employees.size(), dispatcher.getCalls().size());
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        assertEquals("Calls processed", callsToProcess, dispatcher.getCallsAnswered());
+        assertTrue("Queue empty", dispatcher.getCalls().isEmpty());
+        assertEquals("Idle employees", employees.size(), dispatcher.getEmployeePool().idleCount());
+    }
+
+    /**
+     * The virtual thread executor should only be created when the running JDK supports it, on older JDKs it should fail fast
+     */
+    @Test
+    public void virtualThreadExecutorShouldDependOnJdk() throws Exception {
+        logger.info("##########Testing virtualThreadExecutorShouldDependOnJdk");
+
+        ExecutorStrategy strategy = ExecutorStrategy.VIRTUAL_THREADS;
+        logger.info("******Virtual threads supported: {}", strategy.isSupported());
+        if (!strategy.isSupported()) {
+            try {
+                new Dispatcher(DispatchMode.BLOCKING, strategy);
+                fail("Virtual threads shouldn't be available");
+            } catch (UnsupportedOperationException e) {
+                return;
+            }
+        }
+        ExecutorService executor = strategy.newExecutor();
+        assertTrue("Task executed", executor.submit(() -> true).get());
+        executor.shutdown();
+    }
+
+    /**
+     * Process ten calls of five seconds with four employees using a simulated clock
+     * The calls are answered in three rounds, so the simulated time should be fifteen seconds while no real time is spent waiting
+     */
+    @Test
+    public void simulatedClockShouldNotConsumeWallTime() {
+        logger.info("##########Testing simulatedClockShouldNotConsumeWallTime");
+
+        //Set the number of each type of employee and the number of calls to process
+        int callsToProcess = 10;
+        int numberOfOperators = 2;
+        int numberOfSupervisors = 1;
+        int numberOfDirectors = 1;
+        SimulatedCallClock clock = new SimulatedCallClock();
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        dispatcher.setCallDurations(() -> 5);
+
+        //Add employees to the list
+        IntStream.range(0, numberOfOperators).forEach(i -> employees.add(new Employee(i + "Op", EmployeeType.OPERADOR)));
+        IntStream.range(0, numberOfSupervisors).forEach(i -> employees.add(new Employee(i + "Sp", EmployeeType.SUPERVISOR)));
+        IntStream.range(0, numberOfDirectors).forEach(i -> employees.add(new Employee(i + "Dr", EmployeeType.DIRECTOR)));
+
+        //Set the employees list in the dispatcher
+        dispatcher.setEmployees(employees);
+
+        long start = System.nanoTime();
+        IntStream.range(0, callsToProcess).forEach(i -> dispatcher.dispatchCall(String.valueOf(i)));
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        assertEquals("Calls processed", callsToProcess, dispatcher.getCallsAnswered());
+        assertEquals("Simulated time", TimeUnit.SECONDS.toNanos(15), clock.nanoTime());
+        assertTrue("Wall time", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    /**
+     * Each queued call should be answered in the order it arrived, by the employee assigned to it, and its wait should be measured from its own arrival
+     */
+    @Test
+    public void queuedCallsShouldBeAnsweredInArrivalOrder() {
+        logger.info("##########Testing queuedCallsShouldBeAnsweredInArrivalOrder");
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        Employee operator = new Employee("0Op", EmployeeType.OPERADOR);
+        employees.add(operator);
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        dispatcher.setEmployees(employees);
+        dispatcher.setCallDurations(() -> 5);
+
+        //The first call is answered and the other two wait in the queue
+        IntStream.range(0, 3).forEach(i -> dispatcher.dispatchCall(String.valueOf(i)));
+        Call second = dispatcher.getCalls().peek();
+        assertEquals("Second call waiting", "1", second.getCallId());
+        assertEquals("Arrival time", 0, second.getArrivalTime());
+
+        //Once the first call ends the second one is assigned to the operator
+        clock.advance(5, TimeUnit.SECONDS);
+        assertEquals("Employee assigned", operator, second.getEmployee());
+        assertEquals("Wait time", TimeUnit.SECONDS.toNanos(5), second.getWaitTime());
+        assertEquals("Third call waiting", "2", dispatcher.getCalls().peek().getCallId());
+
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        assertEquals("Calls processed", 3, dispatcher.getCallsAnswered());
+    }
+
+    /**
+     * With one employee and room for two waiting calls, the fourth call should be handled following the overflow policy of the queue
+     */
+    @Test
+    public void fullQueueShouldApplyOverflowPolicy() {
+        logger.info("##########Testing fullQueueShouldApplyOverflowPolicy");
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        employees.add(new Employee("0Op", EmployeeType.OPERADOR));
+
+        //Reject the new calls once the queue is full
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        dispatcher.setEmployees(employees);
+        dispatcher.setQueueCapacity(2);
+        assertEquals("First call", DispatchResult.ACCEPTED, dispatcher.dispatchCall("0"));
+        assertEquals("Second call", DispatchResult.QUEUED, dispatcher.dispatchCall("1"));
+        assertEquals("Third call", DispatchResult.QUEUED, dispatcher.dispatchCall("2"));
+        assertEquals("Fourth call", DispatchResult.REJECTED, dispatcher.dispatchCall("3"));
+        assertEquals("Queue depth", 2, dispatcher.getQueueDepth());
+        assertEquals("Calls rejected", 1, dispatcher.getCallsRejected());
+
+        //Block the caller until the timeout elapses, nobody frees an employee so the call is rejected
+        dispatcher.setOverflowPolicy(OverflowPolicy.BLOCK, 10, TimeUnit.MILLISECONDS);
+        assertEquals("Blocked call", DispatchResult.REJECTED, dispatcher.dispatchCall("4"));
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        assertEquals("Calls processed", 3, dispatcher.getCallsAnswered());
+
+        //Drop the call that has been waiting the longest to make room for the new one
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        dispatcher.setEmployees(employees);
+        dispatcher.setQueueCapacity(2);
+        dispatcher.setOverflowPolicy(OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS);
+        IntStream.range(0, 3).forEach(i -> dispatcher.dispatchCall(String.valueOf(i)));
+        assertEquals("Fourth call", DispatchResult.QUEUED, dispatcher.dispatchCall("3"));
+        assertEquals("Oldest waiting call", "2", dispatcher.getCalls().peek().getCallId());
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        assertEquals("Calls dropped", 1, dispatcher.getCallsDropped());
+        assertEquals("Calls processed", 3, dispatcher.getCallsAnswered());
+    }
+
+    /**
+     * Calls should be answered by employees with the skills they require, following the escalation order among them, and waiting calls with a higher priority should be answered first
+     */
+    @Test
+    public void callsShouldBeRoutedByPriorityAndSkills() {
+        logger.info("##########Testing callsShouldBeRoutedByPriorityAndSkills");
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        Employee operator = new Employee("0Op", EmployeeType.OPERADOR, SkillSet.of(1));
+        Employee supervisor = new Employee("0Sp", EmployeeType.SUPERVISOR, SkillSet.of(2, 70));
+        Employee director = new Employee("0Dr", EmployeeType.DIRECTOR);
+        employees.add(operator);
+        employees.add(supervisor);
+        employees.add(director);
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        dispatcher.setEmployees(employees);
+        dispatcher.setCallDurations(() -> 5);
+
+        //The operator doesn't have the skills of the first call, so it escalates to the supervisor
+        dispatcher.dispatchCall("0", Call.DEFAULT_PRIORITY, SkillSet.of(2, 70));
+        dispatcher.dispatchCall("1", Call.DEFAULT_PRIORITY, SkillSet.of(1));
+        dispatcher.dispatchCall("2");
+        assertEquals("Employees busy", 0, dispatcher.getEmployeePool().idleCount());
+
+        dispatcher.dispatchCall("3", Call.DEFAULT_PRIORITY, SkillSet.of(70));
+        dispatcher.dispatchCall("4");
+        dispatcher.dispatchCall("5", 5, SkillSet.of(1));
+        assertEquals("Call with highest priority first", "5", dispatcher.getCalls().peek().getCallId());
+
+        //Each employee released takes the first waiting call it has the skills for
+        List<Call> waiting = new ArrayList<>(dispatcher.getCalls());
+        clock.advance(5, TimeUnit.SECONDS);
+        assertEquals("Priority call", operator, waiting.get(0).getEmployee());
+        assertEquals("Call requiring skills", supervisor, waiting.get(1).getEmployee());
+        assertEquals("Call without skills", director, waiting.get(2).getEmployee());
+
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        assertEquals("Calls processed", 6, dispatcher.getCallsAnswered());
+    }
+
+    /**
+     * A burst of thirteen calls dispatched at once should get the same results as dispatching them one by one: ten calls are answered, the queue takes two and the last one is rejected
+     */
+    @Test
+    public void burstOfCallsShouldBeDispatchedAtOnce() {
+        logger.info("##########Testing burstOfCallsShouldBeDispatchedAtOnce");
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        IntStream.range(0, 8).forEach(i -> employees.add(new Employee(i + "Op", EmployeeType.OPERADOR)));
+        IntStream.range(0, 3).forEach(i -> employees.add(new Employee(i + "Sp", EmployeeType.SUPERVISOR)));
+        employees.add(new Employee("0Dr", EmployeeType.DIRECTOR));
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        dispatcher.setEmployees(employees);
+        dispatcher.setSemaphoreCount(Constants.MAX_CONCURRENT_CALLS);
+        dispatcher.setQueueCapacity(2);
+        dispatcher.setCallDurations(() -> 5);
+
+        List<String> callIds = new ArrayList<>();
+        IntStream.range(0, 13).forEach(i -> callIds.add(String.valueOf(i)));
+        List<DispatchResult> results = dispatcher.dispatchCalls(callIds);
+        assertEquals("Results", 13, results.size());
+        assertEquals("Calls answered", 10, results.stream().filter(result -> result == DispatchResult.ACCEPTED).count());
+        assertEquals("Calls waiting", Arrays.asList("10", "11"), Arrays.asList(dispatcher.getCalls().stream().map(Call::getCallId).toArray()));
+        assertEquals("Last call", DispatchResult.REJECTED, results.get(12));
+
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        assertEquals("Calls processed", 12, dispatcher.getCallsAnswered());
+        assertEquals("Simulated time", TimeUnit.SECONDS.toNanos(10), clock.nanoTime());
+    }
+
+    /**
+     * Calls with numeric ids should keep their ids while they wait, even though the records of the calls that ended are reused for the new calls
+     */
+    @Test
+    public void numericCallIdsShouldSurviveRecordReuse() {
+        logger.info("##########Testing numericCallIdsShouldSurviveRecordReuse");
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        employees.add(new Employee("0Op", EmployeeType.OPERADOR));
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        dispatcher.setEmployees(employees);
+        dispatcher.setCallDurations(() -> 5);
+
+        assertEquals("First call", DispatchResult.ACCEPTED, dispatcher.dispatchCall(0L));
+        clock.advance(5, TimeUnit.SECONDS);
+        //The record of the first call is free again, so the next calls reuse it
+        assertEquals("Second call", DispatchResult.ACCEPTED, dispatcher.dispatchCall(1L));
+        assertEquals("Third call", DispatchResult.QUEUED, dispatcher.dispatchCall(2L));
+        assertEquals("Waiting call", "2", dispatcher.getCalls().peek().getCallId());
+
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        assertEquals("Calls processed", 3, dispatcher.getCallsAnswered());
+        assertEquals("Simulated time", TimeUnit.SECONDS.toNanos(15), clock.nanoTime());
+    }
+
+    /**
+     * A waiting call taken to be handed off should be returned as a copy that keeps its values after its record is reused by a new call
+     */
+    @Test
+    public void takenWaitingCallShouldBeCopied() {
+        logger.info("##########Testing takenWaitingCallShouldBeCopied");
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        employees.add(new Employee("0Op", EmployeeType.OPERADOR));
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        dispatcher.setEmployees(employees);
+        dispatcher.setCallDurations(() -> 5);
+
+        assertEquals("First call", DispatchResult.ACCEPTED, dispatcher.dispatchCall(0L));
+        assertEquals("Second call", DispatchResult.QUEUED, dispatcher.dispatchCall(1L, 2, SkillSet.NONE));
+        RecoveredCalls.PendingCall taken = dispatcher.takeWaitingCall("standby");
+        assertEquals("Calls waiting", 0, dispatcher.getQueueDepth());
+        //The record of the taken call is free again, so the next call reuses it
+        assertEquals("Third call", DispatchResult.QUEUED, dispatcher.dispatchCall(2L));
+        assertEquals("Taken call", "1", taken.getCallId());
+        assertEquals("Priority", 2, taken.getPriority());
+        assertEquals("Duration", 5, taken.getDuration());
+        assertFalse("Call waiting", taken.isInProgress());
+        assertEquals("Next call taken", "2", dispatcher.takeWaitingCall("standby").getCallId());
+        assertNull("No more calls to take", dispatcher.takeWaitingCall("standby"));
+
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        assertEquals("Calls processed", 1, dispatcher.getCallsAnswered());
+    }
+
+    /**
+     * The staff and the concurrency limit should change while calls are being answered without interrupting the calls in progress nor losing permits
+     */
+    @Test
+    public void staffShouldChangeWhileCallsAreAnswered() {
+        logger.info("##########Testing staffShouldChangeWhileCallsAreAnswered");
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        Employee leaving = new Employee("0Op", EmployeeType.OPERADOR);
+        Employee promoted = new Employee("1Op", EmployeeType.OPERADOR);
+        employees.add(leaving);
+        employees.add(promoted);
+        dispatcher.setEmployees(employees);
+        dispatcher.setSemaphoreCount(2);
+        dispatcher.setCallDurations(() -> 10);
+        IntStream.range(0, 4).forEach(i -> dispatcher.dispatchCall(String.valueOf(i)));
+        assertEquals("Calls waiting", 2, dispatcher.getQueueDepth());
+
+        //Lowering the limit below the calls in progress doesn't stop them, but no call starts until they are below the limit
+        dispatcher.setSemaphoreCount(1);
+        Employee supervisor = new Employee("0Sp", EmployeeType.SUPERVISOR);
+        dispatcher.addEmployee(supervisor);
+        assertEquals("Calls waiting", 2, dispatcher.getQueueDepth());
+        dispatcher.setSemaphoreCount(3);
+        assertEquals("Calls waiting", 1, dispatcher.getQueueDepth());
+        assertTrue("Supervisor busy", supervisor.isBusy());
+
+        //The busy operator leaves once its call ends and the other one becomes a director
+        assertTrue("Employee removed", dispatcher.removeEmployee(leaving));
+        assertFalse("Employee removed twice", dispatcher.removeEmployee(leaving));
+        dispatcher.changeEmployeeType(promoted, EmployeeType.DIRECTOR);
+        assertEquals("Staff", Arrays.asList(promoted, supervisor), dispatcher.getEmployees());
+
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        assertEquals("Calls processed", 4, dispatcher.getCallsAnswered());
+        //The last call is answered by the supervisor before the director when the first calls end
+        assertEquals("Simulated time", TimeUnit.SECONDS.toNanos(20), clock.nanoTime());
+        assertEquals("Idle employees", 2, dispatcher.getEmployeePool().idleCount());
+        assertEquals("Directors", 1, dispatcher.getMetricsSnapshot().getEmployeeType(EmployeeType.DIRECTOR).getEmployees());
+        assertEquals("Available supervisor", supervisor, dispatcher.findAvailableEmployee().orElse(null));
+        assertEquals("Available director", promoted, dispatcher.findAvailableEmployee().orElse(null));
+        assertFalse("No available employee", dispatcher.findAvailableEmployee().isPresent());
+    }
+
+    /**
+     * Supervisors should only answer the calls nearing the service level target and the callers should hang up once they run out of patience
+     */
+    @Test
+    public void waitingCallsShouldBeEscalatedOrAbandoned() {
+        logger.info("##########Testing waitingCallsShouldBeEscalatedOrAbandoned");
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        Employee supervisor = new Employee("0Sp", EmployeeType.SUPERVISOR);
+        employees.add(new Employee("0Op", EmployeeType.OPERADOR));
+        employees.add(supervisor);
+        dispatcher.setEmployees(employees);
+        dispatcher.setSemaphoreCount(2);
+        dispatcher.setCallDurations(() -> 20);
+        //The supervisor is kept for the calls that have waited 5 seconds and the callers hang up after 15 seconds
+        dispatcher.setServiceLevel(20, 15, 0.25, TimeUnit.SECONDS);
+
+        IntStream.range(0, 4).forEach(i -> dispatcher.dispatchCall(String.valueOf(i)));
+        clock.advance(4, TimeUnit.SECONDS);
+        assertEquals("Calls waiting", 3, dispatcher.getQueueDepth());
+        assertFalse("Supervisor kept", supervisor.isBusy());
+        clock.advance(1, TimeUnit.SECONDS);
+        assertEquals("Calls waiting", 2, dispatcher.getQueueDepth());
+        assertTrue("Supervisor answering", supervisor.isBusy());
+        clock.advance(10, TimeUnit.SECONDS);
+        assertEquals("Calls waiting", 0, dispatcher.getQueueDepth());
+
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        assertEquals("Calls processed", 2, dispatcher.getCallsAnswered());
+        assertEquals("Simulated time", TimeUnit.SECONDS.toNanos(25), clock.nanoTime());
+        MetricsSnapshot metrics = dispatcher.getMetricsSnapshot();
+        assertEquals("Calls abandoned", 2, metrics.getCallsAbandoned());
+        assertEquals("Escalations", 1, metrics.getEscalations());
+        assertEquals("Service level", 0.5, metrics.getServiceLevel(), 0.001);
+        assertEquals("Abandonment rate", 0.5, metrics.getAbandonmentRate(), 0.001);
+    }
+
+    /**
+     * Draining should finish the calls being answered and hand the waiting calls off, without waiting for them
+     */
+    @Test
+    public void drainShouldHandOffWaitingCalls() {
+        logger.info("##########Testing drainShouldHandOffWaitingCalls");
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        employees.add(new Employee("0Op", EmployeeType.OPERADOR));
+        dispatcher.setEmployees(employees);
+        dispatcher.setCallDurations(() -> 10);
+        List<String> handedOff = new ArrayList<>();
+        dispatcher.setCallHandoff(call -> {
+            handedOff.add(call.getCallId());
+            return "standby";
+        });
+        IntStream.range(0, 3).forEach(i -> dispatcher.dispatchCall(String.valueOf(i)));
+
+        RecoveredCalls unfinished = dispatcher.shutdown(ShutdownMode.DRAIN, 30, TimeUnit.SECONDS);
+        assertEquals("Calls processed", 1, unfinished.getCallsAnswered());
+        assertTrue("No call left", unfinished.getPendingCalls().isEmpty());
+        assertEquals("Calls handed off", Arrays.asList("1", "2"), handedOff);
+        assertEquals("Simulated time", TimeUnit.SECONDS.toNanos(10), clock.nanoTime());
+        try {
+            dispatcher.dispatchCall("3");
+            fail("Call accepted after the shutdown");
+        } catch (RejectedExecutionException e) {
+            assertEquals("Calls waiting", 0, dispatcher.getQueueDepth());
+        }
+    }
+
+    /**
+     * A drain that doesn't end by the deadline should interrupt the calls and return them, so they can be recovered by another dispatcher
+     */
+    @Test
+    public void expiredDrainShouldInterruptCalls() {
+        logger.info("##########Testing expiredDrainShouldInterruptCalls");
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        Employee operator = new Employee("0Op", EmployeeType.OPERADOR);
+        employees.add(operator);
+        dispatcher.setEmployees(employees);
+        dispatcher.setCallDurations(() -> 600);
+        IntStream.range(0, 3).forEach(i -> dispatcher.dispatchCall(String.valueOf(i)));
+
+        RecoveredCalls unfinished = dispatcher.shutdown(ShutdownMode.DRAIN, 5, TimeUnit.SECONDS);
+        assertEquals("Calls processed", 0, unfinished.getCallsAnswered());
+        assertEquals("Calls left", 3, unfinished.getPendingCalls().size());
+        assertEquals("Calls interrupted", 1, unfinished.getPendingCalls().stream().filter(RecoveredCalls.PendingCall::isInProgress).count());
+        assertEquals("Simulated time", TimeUnit.SECONDS.toNanos(5), clock.nanoTime());
+        assertFalse("Employee free", operator.isBusy());
+        assertEquals("Busy operators", 0, dispatcher.getMetricsSnapshot().getEmployeeType(EmployeeType.OPERADOR).getBusy());
+
+        //The calls left are answered by the dispatcher that recovers them
+        Dispatcher recovering = new Dispatcher(DispatchMode.EVENT, clock);
+        recovering.setEmployees(employees);
+        recovering.recover(unfinished);
+        recovering.stopExecutor();
+        recovering.waitForTermination();
+        assertEquals("Calls recovered", 3, recovering.getCallsAnswered());
+    }
+
+    /**
+     * A shard whose employees are idle should steal the calls waiting in a busy shard, and the group should count the calls of all the shards
+     */
+    @Test
+    public void idleShardShouldStealWaitingCalls() {
+        logger.info("##########Testing idleShardShouldStealWaitingCalls");
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        employees.add(new Employee("0Op", EmployeeType.OPERADOR));
+        employees.add(new Employee("1Op", EmployeeType.OPERADOR));
+        ShardedDispatcher shardedDispatcher = new ShardedDispatcher(2, DispatchMode.EVENT, clock);
+        shardedDispatcher.setEmployees(employees);
+        //The calls are spread round-robin, so the long calls go to the first shard and the short ones to the second
+        Iterator<Integer> durations = Arrays.asList(10, 1, 10, 1, 10).iterator();
+        shardedDispatcher.setCallDurations(durations::next);
+
+        IntStream.range(0, 5).forEach(i -> shardedDispatcher.dispatchCall(String.valueOf(i)));
+        assertEquals("Calls waiting", 3, shardedDispatcher.getQueueDepth());
+        assertEquals("Calls waiting in both shards", 3, shardedDispatcher.getCalls().size());
+
+        shardedDispatcher.stopExecutor();
+        shardedDispatcher.waitForTermination();
+        assertEquals("Calls processed", 5, shardedDispatcher.getCallsAnswered());
+        assertEquals("Calls answered by the second shard", 3, shardedDispatcher.getShards().get(1).getCallsAnswered());
+        //Without stealing the first shard would answer its three calls one after the other
+        assertEquals("Simulated time", TimeUnit.SECONDS.toNanos(20), clock.nanoTime());
+    }
+
+    /**
+     * The limit of each shard should follow its employees until a limit is set for the group, and the limit and the queue capacity of the group should be split among the shards
+     */
+    @Test
+    public void shardLimitsShouldFollowStaffOrGroupLimit() {
+        logger.info("##########Testing shardLimitsShouldFollowStaffOrGroupLimit");
+
+        IntStream.range(0, 5).forEach(i -> employees.add(new Employee(i + "Op", EmployeeType.OPERADOR)));
+        ShardedDispatcher shardedDispatcher = new ShardedDispatcher(2, DispatchMode.EVENT, new SimulatedCallClock());
+        shardedDispatcher.setEmployees(employees);
+        Dispatcher first = shardedDispatcher.getShards().get(0);
+        Dispatcher second = shardedDispatcher.getShards().get(1);
+        assertEquals("Limit of the first shard", 3, first.getSemaphoreCount());
+        assertEquals("Limit of the second shard", 2, second.getSemaphoreCount());
+        shardedDispatcher.addEmployee(new Employee("5Op", EmployeeType.OPERADOR));
+        assertEquals("Limit after adding an employee", 3, second.getSemaphoreCount());
+        shardedDispatcher.removeEmployee(employees.get(0));
+        assertEquals("Limit after removing an employee", 2, first.getSemaphoreCount());
+
+        shardedDispatcher.setSemaphoreCount(3);
+        assertEquals("Limit of the first shard", 2, first.getSemaphoreCount());
+        assertEquals("Limit of the second shard", 1, second.getSemaphoreCount());
+        shardedDispatcher.addEmployee(new Employee("6Op", EmployeeType.OPERADOR));
+        assertEquals("Limit kept after adding an employee", 2, first.getSemaphoreCount());
+        shardedDispatcher.resetSemaphoreCount();
+        assertEquals("Limit back to the employees", 3, first.getSemaphoreCount());
+
+        shardedDispatcher.setQueueCapacity(5);
+        assertEquals("Queue of the first shard", 3, first.getQueueCapacity());
+        assertEquals("Queue of the second shard", 2, second.getQueueCapacity());
+        shardedDispatcher.stopExecutor();
+        shardedDispatcher.waitForTermination();
+    }
+
     /**
      * Calls duration should be between CALL_MIN_DURATION and CALL_MAX_DURATION (5 and 10 by default)
      */
@@ -10,7 +10,8 @@ import org.junit.runner.notification.Failure;
 public class CallCenterTestRunner {
 
     public static void main(String[] args) {
-        Result result = JUnitCore.runClasses(CallCenterTest.class);
+        Result result = JUnitCore.runClasses(CallCenterTest.class, DispatcherMetricsTest.class, CallEventLogTest.class, CallJournalTest.class, ClusterTest.class, IngestionServerTest.class, LoadGeneratorTest.class,
+                ConfigWatcherTest.class);
 
         for (Failure failure : result.getFailures()) {
             System.out.println(failure.toString());
@@ -0,0 +1,105 @@
+package com.almundo.callcenter;
+
+import com.almundo.callcenter.journal.AsyncCallEventLog;
+import com.almundo.callcenter.journal.CallEventSink;
+import com.almundo.callcenter.journal.CallEventType;
+import com.almundo.callcenter.journal.LogOverflowPolicy;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CallEventLogTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallEventLogTest.class);
+
+    /**
+     * Events recorded concurrently by several threads should all be written, keeping the order in which each thread recorded them
+     */
+    @Test
+    public void allEventsShouldBeWrittenInOrder() throws InterruptedException {
+        logger.info("##########Testing allEventsShouldBeWrittenInOrder");
+
+        int threads = 4;
+        int eventsPerThread = 10_000;
+        Map<String, AtomicInteger> lastDuration = new ConcurrentHashMap<>();
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger outOfOrder = new AtomicInteger();
+        //The duration is used as the order of the event inside each thread
+        CallEventSink target = (type, callId, employeeId, duration, priority, time) -> {
+            written.incrementAndGet();
+            if (lastDuration.computeIfAbsent(callId, id -> new AtomicInteger(-1)).getAndSet(duration) != duration - 1) {
+                outOfOrder.incrementAndGet();
+            }
+        };
+        AsyncCallEventLog eventLog = new AsyncCallEventLog(1024, LogOverflowPolicy.BLOCK, 1, target);
+
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            String callId = "call" + i;
+            producers.add(new Thread(() -> {
+                for (int j = 0; j < eventsPerThread; j++) {
+                    eventLog.record(CallEventType.RECEIVED, callId, null, j, 0, j);
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        eventLog.close();
+
+        assertEquals("Events written", threads * eventsPerThread, written.get());
+        assertEquals("Events out of order", 0, outOfOrder.get());
+        assertEquals("Pending events", 0, eventLog.getPendingEvents());
+    }
+
+    /**
+     * With a full buffer and the DROP policy new events should be discarded, and with sampling only one of every N calls should be written
+     */
+    @Test
+    public void overflowAndSamplingShouldDiscardEvents() throws InterruptedException {
+        logger.info("##########Testing overflowAndSamplingShouldDiscardEvents");
+
+        //The writer is blocked on the first event so the buffer fills up
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger written = new AtomicInteger();
+        CallEventSink blockedTarget = (type, callId, employeeId, duration, priority, time) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            written.incrementAndGet();
+        };
+        AsyncCallEventLog eventLog = new AsyncCallEventLog(4, LogOverflowPolicy.DROP, 1, blockedTarget);
+        for (int i = 0; i < 20; i++) {
+            eventLog.record(CallEventType.RECEIVED, String.valueOf(i), null, 5, 0, i);
+        }
+        assertTrue("Events dropped", eventLog.getEventsDropped() >= 20 - 4 - 1);
+        release.countDown();
+        eventLog.close();
+        assertEquals("Events written", 20 - eventLog.getEventsDropped(), written.get());
+
+        //Only one of every ten calls is written, with all the events of the sampled calls
+        AtomicInteger sampled = new AtomicInteger();
+        eventLog = new AsyncCallEventLog(1024, LogOverflowPolicy.BLOCK, 10, (type, callId, employeeId, duration, priority, time) -> sampled.incrementAndGet());
+        for (int i = 0; i < 1000; i++) {
+            for (CallEventType type : CallEventType.values()) {
+                eventLog.record(type, String.valueOf(i), "0Op", 5, 0, i);
+            }
+        }
+        eventLog.close();
+        assertEquals("Sampled events", 0, sampled.get() % CallEventType.values().length);
+        assertTrue("Sampled calls", sampled.get() / CallEventType.values().length < 200);
+    }
+}
@@ -0,0 +1,147 @@
+package com.almundo.callcenter;
+
+import com.almundo.callcenter.clock.SimulatedCallClock;
+import com.almundo.callcenter.journal.CallEventType;
+import com.almundo.callcenter.journal.MappedCallJournal;
+import com.almundo.callcenter.journal.RecoveredCalls;
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.model.SkillSet;
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.Dispatcher;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CallJournalTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallJournalTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A journal opened again should recover the calls answered and the pending calls in their arrival order with their skills, also after being compacted
+     */
+    @Test
+    public void journalShouldRecoverPendingCalls() throws Exception {
+        logger.info("##########Testing journalShouldRecoverPendingCalls");
+
+        Path directory = folder.getRoot().toPath();
+        //Small segments so the journal rolls over several files
+        MappedCallJournal journal = new MappedCallJournal(directory, 4096, 0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; i++) {
+            String callId = "call" + i;
+            journal.record(CallEventType.RECEIVED, callId, null, 5, 0, i);
+            journal.record(CallEventType.ASSIGNED, callId, "0Op", 5, 0, i);
+            journal.record(CallEventType.COMPLETED, callId, "0Op", 5, 0, i);
+        }
+        journal.record(CallEventType.RECEIVED, "pending1", null, 6, 1, 0);
+        journal.received("pending2", 7, 2, SkillSet.of(3, 70), 0);
+        journal.record(CallEventType.RECEIVED, "rejected", null, 8, 0, 0);
+        journal.record(CallEventType.REJECTED, "rejected", null, 8, 0, 0);
+        journal.record(CallEventType.ASSIGNED, "pending1", "0Op", 6, 1, 0);
+        journal.flush();
+        //The journal is abandoned without closing it, as if the process crashed
+
+        for (int run = 0; run < 2; run++) {
+            journal = new MappedCallJournal(directory, 4096, 0, TimeUnit.MILLISECONDS);
+            RecoveredCalls recovered = journal.getRecoveredCalls();
+            assertEquals("Calls answered", 100, recovered.getCallsAnswered());
+            assertEquals("Pending calls", 2, recovered.getPendingCalls().size());
+            RecoveredCalls.PendingCall first = recovered.getPendingCalls().get(0);
+            RecoveredCalls.PendingCall second = recovered.getPendingCalls().get(1);
+            assertEquals("First pending call", "pending1", first.getCallId());
+            assertEquals("Priority", 1, first.getPriority());
+            assertEquals("Duration", 6, first.getDuration());
+            assertEquals("Second pending call", "pending2", second.getCallId());
+            assertEquals("Duration", 7, second.getDuration());
+            assertEquals("Required skills", SkillSet.NONE, first.getRequiredSkills());
+            assertEquals("Required skills", SkillSet.of(3, 70), second.getRequiredSkills());
+            assertTrue("Call in progress", first.isInProgress());
+            assertFalse("Call waiting", second.isInProgress());
+            journal.close();
+        }
+        assertEquals("Segments after compaction", 1, folder.getRoot().list().length);
+    }
+
+    /**
+     * A journal written for a long time should checkpoint the pending calls every time a segment is full and delete the previous segments, keeping the calls it recovers
+     */
+    @Test
+    public void journalShouldCompactWhenSegmentsRoll() throws Exception {
+        logger.info("##########Testing journalShouldCompactWhenSegmentsRoll");
+
+        Path directory = folder.getRoot().toPath();
+        MappedCallJournal journal = new MappedCallJournal(directory, 4096, 0, TimeUnit.MILLISECONDS);
+        journal.received("pending1", 6, 1, SkillSet.of(3), 0);
+        journal.record(CallEventType.RECEIVED, "pending2", null, 7, 2, 0);
+        journal.record(CallEventType.ASSIGNED, "pending2", "0Op", 7, 2, 0);
+        //Each call takes about 150 bytes, so the calls fill more than a hundred segments
+        for (int i = 0; i < 3000; i++) {
+            String callId = "call" + i;
+            journal.record(CallEventType.RECEIVED, callId, null, 5, 0, i);
+            journal.record(CallEventType.ASSIGNED, callId, "0Op", 5, 0, i);
+            journal.record(CallEventType.COMPLETED, callId, "0Op", 5, 0, i);
+            assertTrue("Segments while writing", folder.getRoot().list().length <= 2);
+        }
+        journal.flush();
+
+        RecoveredCalls recovered = new MappedCallJournal(directory, 4096, 0, TimeUnit.MILLISECONDS).getRecoveredCalls();
+        assertEquals("Calls answered", 3000, recovered.getCallsAnswered());
+        assertEquals("Pending calls", 2, recovered.getPendingCalls().size());
+        RecoveredCalls.PendingCall first = recovered.getPendingCalls().get(0);
+        RecoveredCalls.PendingCall second = recovered.getPendingCalls().get(1);
+        assertEquals("First pending call", "pending1", first.getCallId());
+        assertEquals("Required skills", SkillSet.of(3), first.getRequiredSkills());
+        assertFalse("Call waiting", first.isInProgress());
+        assertEquals("Second pending call", "pending2", second.getCallId());
+        assertEquals("Duration", 7, second.getDuration());
+        assertTrue("Call in progress", second.isInProgress());
+    }
+
+    /**
+     * A dispatcher with a journal should answer the calls left by the previous run together with the new ones and leave nothing pending
+     */
+    @Test
+    public void dispatcherShouldAnswerRecoveredCalls() {
+        logger.info("##########Testing dispatcherShouldAnswerRecoveredCalls");
+
+        Path directory = folder.getRoot().toPath();
+        MappedCallJournal journal = new MappedCallJournal(directory);
+        journal.record(CallEventType.RECEIVED, "previous1", null, 5, 0, 0);
+        journal.record(CallEventType.RECEIVED, "previous2", null, 5, 0, 0);
+        journal.close();
+
+        int callsToProcess = 10;
+        List<Employee> employees = new ArrayList<>();
+        IntStream.range(0, 2).forEach(i -> employees.add(new Employee(i + "Op", EmployeeType.OPERADOR)));
+        Dispatcher dispatcher = new Dispatcher(DispatchMode.EVENT, new SimulatedCallClock());
+        dispatcher.setCallDurations(() -> 5);
+        dispatcher.setEmployees(employees);
+        journal = new MappedCallJournal(directory);
+        dispatcher.setJournal(journal);
+
+        IntStream.range(0, callsToProcess).forEach(i -> dispatcher.dispatchCall(String.valueOf(i)));
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        journal.close();
+        assertEquals("Calls processed", callsToProcess + 2, dispatcher.getCallsAnswered());
+
+        RecoveredCalls recovered = new MappedCallJournal(directory).getRecoveredCalls();
+        assertEquals("Calls answered", callsToProcess + 2, recovered.getCallsAnswered());
+        assertTrue("Pending calls", recovered.getPendingCalls().isEmpty());
+    }
+}
@@ -0,0 +1,157 @@
+package com.almundo.callcenter;
+
+import com.almundo.callcenter.cluster.ClusterNode;
+import com.almundo.callcenter.cluster.MessageType;
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.DispatchResult;
+import com.almundo.callcenter.process.Dispatcher;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterTest.class);
+
+    private final List<ClusterNode> nodes = new ArrayList<>();
+
+    /**
+     * Stops the nodes and their dispatchers
+     */
+    @After
+    public void stopNodes() {
+        for (ClusterNode node : nodes) {
+            node.leave();
+            node.getDispatcher().stopExecutor();
+            node.getDispatcher().waitForTermination();
+        }
+    }
+
+    /**
+     * Once the first node has no idle employees its new calls should be handed off to the node with idle employees and answered there
+     */
+    @Test
+    public void busyNodeShouldHandOffCalls() throws IOException {
+        logger.info("##########Testing busyNodeShouldHandOffCalls");
+
+        ClusterNode first = startNode(1, 1);
+        ClusterNode second = startNode(2, 0);
+        second.join(first.getAddress());
+        awaitCondition(() -> first.getPeers().stream().anyMatch(peer -> peer.getIdleEmployees() == 2));
+
+        assertEquals("Call answered locally", DispatchResult.ACCEPTED, first.dispatchCall("0"));
+        assertEquals("Call handed off", DispatchResult.HANDED_OFF, first.dispatchCall("1"));
+        assertEquals("Call handed off", DispatchResult.HANDED_OFF, first.dispatchCall("2"));
+        awaitCondition(() -> second.getDispatcher().getCallsAnswered() == 2);
+        assertEquals("Calls received", 2, second.getCallsReceived());
+        awaitCondition(() -> first.getHandoffLatency().getCount() == 2);
+        logger.info("Handoff latency p50: {}us", TimeUnit.NANOSECONDS.toMicros(first.getHandoffLatency().getValueAtPercentile(50)));
+    }
+
+    /**
+     * A node joining the cluster should take the calls waiting in the busy nodes, get connected to all the nodes and be forgotten once it leaves
+     */
+    @Test
+    public void nodesShouldRebalanceWhenJoiningAndLeaving() throws IOException {
+        logger.info("##########Testing nodesShouldRebalanceWhenJoiningAndLeaving");
+
+        ClusterNode first = startNode(1, 1);
+        IntStream.range(0, 4).forEach(i -> first.dispatchCall(String.valueOf(i)));
+        assertEquals("Calls waiting", 3, first.getDispatcher().getQueueDepth());
+
+        ClusterNode second = startNode(3, 0);
+        second.join(first.getAddress());
+        awaitCondition(() -> second.getDispatcher().getCallsAnswered() == 3);
+        assertEquals("Calls waiting", 0, first.getDispatcher().getQueueDepth());
+        assertEquals("Calls handed off", 3, first.getCallsHandedOff());
+
+        //The third node only knows the second one, it gets the address of the first one from it
+        ClusterNode third = startNode(1, 0);
+        third.join(second.getAddress());
+        awaitCondition(() -> first.getPeers().size() == 2 && third.getPeers().size() == 2);
+        assertEquals("Nodes known by the third node", nodes.stream().limit(2).map(ClusterNode::getAddress).collect(Collectors.toSet()),
+                third.getPeers().stream().map(peer -> peer.getAddress()).collect(Collectors.toSet()));
+
+        third.leave();
+        awaitCondition(() -> first.getPeers().size() == 1 && second.getPeers().size() == 1);
+    }
+
+    /**
+     * A peer sending a frame that doesn't follow the protocol should only lose its connection, and the call handed off to it and not acknowledged should be answered locally
+     */
+    @Test
+    public void malformedFrameShouldOnlyDropItsConnection() throws IOException {
+        logger.info("##########Testing malformedFrameShouldOnlyDropItsConnection");
+
+        ClusterNode node = startNode(1, 1);
+        try (SocketChannel fake = SocketChannel.open(node.getAddress())) {
+            //HELLO from a node listening on port 1 and AVAILABILITY with five idle employees
+            ByteBuffer hello = ByteBuffer.allocate(4 + 1 + 2 + 2 * 9 + 4);
+            hello.putInt(hello.capacity() - 4).put((byte) MessageType.HELLO.ordinal()).putShort((short) 9);
+            "127.0.0.1".chars().forEach(c -> hello.putChar((char) c));
+            hello.putInt(1).flip();
+            fake.write(hello);
+            ByteBuffer availability = ByteBuffer.allocate(4 + 1 + 8);
+            availability.putInt(9).put((byte) MessageType.AVAILABILITY.ordinal()).putInt(5).putInt(0).flip();
+            fake.write(availability);
+            awaitCondition(() -> node.getPeers().stream().anyMatch(peer -> peer.getIdleEmployees() == 5));
+
+            assertEquals("Call answered locally", DispatchResult.ACCEPTED, node.dispatchCall("0"));
+            assertEquals("Call handed off", DispatchResult.HANDED_OFF, node.dispatchCall("1"));
+
+            ByteBuffer unknownType = ByteBuffer.allocate(4 + 1);
+            unknownType.putInt(1).put((byte) 99).flip();
+            fake.write(unknownType);
+            awaitCondition(() -> node.getPeers().isEmpty());
+        }
+        assertEquals("Calls dispatched locally", 1, node.getCallsRedispatched());
+        awaitCondition(() -> node.getDispatcher().getCallsAnswered() == 2);
+
+        ClusterNode other = startNode(1, 0);
+        other.join(node.getAddress());
+        awaitCondition(() -> node.getPeers().size() == 1);
+    }
+
+    /**
+     * Starts a node in EVENT mode with operators whose calls last the given seconds
+     */
+    private ClusterNode startNode(int operators, int callDuration) throws IOException {
+        List<Employee> employees = new ArrayList<>();
+        IntStream.range(0, operators).forEach(i -> employees.add(new Employee(nodes.size() + "-" + i + "Op", EmployeeType.OPERADOR)));
+        Dispatcher dispatcher = new Dispatcher(DispatchMode.EVENT);
+        dispatcher.setEmployees(employees);
+        dispatcher.setCallDurations(() -> callDuration);
+        ClusterNode node = new ClusterNode(dispatcher, 0);
+        nodes.add(node);
+        return node;
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue("Condition not met in time", System.nanoTime() < deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
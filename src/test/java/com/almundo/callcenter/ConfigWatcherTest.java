@@ -0,0 +1,128 @@
+package com.almundo.callcenter;
+
+import com.almundo.callcenter.clock.SimulatedCallClock;
+import com.almundo.callcenter.config.CallCenterConfig;
+import com.almundo.callcenter.config.ConfigWatcher;
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.DispatchResult;
+import com.almundo.callcenter.process.Dispatcher;
+import com.almundo.callcenter.process.OverflowPolicy;
+import com.almundo.callcenter.util.Constants;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class ConfigWatcherTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigWatcherTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The missing keys should take the defaults of the Constants class, the system properties should override the given values and invalid values should be rejected
+     */
+    @Test
+    public void configShouldBeReadAndValidated() {
+        logger.info("##########Testing configShouldBeReadAndValidated");
+
+        CallCenterConfig defaults = CallCenterConfig.defaults();
+        assertEquals("Default queue bound", Constants.MAX_WAITING_CALLS, defaults.getMaxWaitingCalls());
+        assertEquals("Default operators", Constants.NUMBER_OF_OPERATORS, defaults.getNumberOfOperators());
+        assertEquals("Default concurrency limit follows the staff", 0, defaults.getConcurrencyLimit());
+
+        Properties properties = new Properties();
+        properties.setProperty(CallCenterConfig.MAX_WAITING_CALLS, "50");
+        properties.setProperty(CallCenterConfig.OVERFLOW_POLICY, "block");
+        System.setProperty(CallCenterConfig.PROPERTY_PREFIX + CallCenterConfig.MAX_WAITING_CALLS, "100");
+        try {
+            CallCenterConfig config = new CallCenterConfig(properties);
+            assertEquals("System property over the file", 100, config.getMaxWaitingCalls());
+            assertEquals("Overflow policy", OverflowPolicy.BLOCK, config.getOverflowPolicy());
+        } finally {
+            System.clearProperty(CallCenterConfig.PROPERTY_PREFIX + CallCenterConfig.MAX_WAITING_CALLS);
+        }
+
+        assertInvalid(CallCenterConfig.MAX_WAITING_CALLS, "0");
+        assertInvalid(CallCenterConfig.CONCURRENCY_LIMIT, "ten");
+        assertInvalid(CallCenterConfig.CALL_MAX_DURATION, "1");
+        assertInvalid(CallCenterConfig.ESCALATION_THRESHOLD, "1.5");
+        assertInvalid(CallCenterConfig.OVERFLOW_POLICY, "WAIT");
+    }
+
+    /**
+     * The dispatcher should take the limits of the file and follow its changes while calls are waiting, a change with an invalid value should be ignored.
+     * Without a concurrency limit the dispatcher answers as many calls at the same time as employees it has
+     */
+    @Test
+    public void fileChangesShouldBePushedToTheDispatcher() throws Exception {
+        logger.info("##########Testing fileChangesShouldBePushedToTheDispatcher");
+
+        Path file = folder.getRoot().toPath().resolve(Constants.CONFIG_FILE);
+        write(file, "concurrencyLimit=1\nmaxWaitingCalls=2\ncallMinDuration=5\ncallMaxDuration=5\n");
+        ConfigWatcher watcher = new ConfigWatcher(file);
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        Dispatcher dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        List<Employee> employees = new ArrayList<>();
+        IntStream.range(0, 4).forEach(i -> employees.add(new Employee(i + "Op", EmployeeType.OPERADOR)));
+        dispatcher.setEmployees(employees);
+        assertEquals("Concurrency limit of the staff", 4, dispatcher.getSemaphoreCount());
+        watcher.addListener(config -> config.applyTo(dispatcher));
+        assertEquals("Concurrency limit of the file", 1, dispatcher.getSemaphoreCount());
+
+        IntStream.range(0, 3).forEach(i -> assertEquals("Call " + i, i == 0 ? DispatchResult.ACCEPTED : DispatchResult.QUEUED, dispatcher.dispatchCall(String.valueOf(i))));
+        assertEquals("Queue full", DispatchResult.REJECTED, dispatcher.dispatchCall("3"));
+
+        //The new limits are pushed by the watcher thread
+        write(file, "concurrencyLimit=2\nmaxWaitingCalls=3\ncallMinDuration=5\ncallMaxDuration=5\n");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (dispatcher.getCallQueue().getCapacity() != 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Concurrency limit changed", 2, dispatcher.getSemaphoreCount());
+        assertEquals("Queue bound changed", 3, dispatcher.getCallQueue().getCapacity());
+        assertEquals("Waiting call answered with the new limit", 1, dispatcher.getQueueDepth());
+
+        write(file, "concurrencyLimit=-1\nmaxWaitingCalls=1\n");
+        assertFalse("Invalid change ignored", watcher.reload());
+        assertEquals("Last valid configuration kept", 3, watcher.getConfig().getMaxWaitingCalls());
+        watcher.close();
+
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        assertEquals("Calls answered", 3, dispatcher.getCallsAnswered());
+    }
+
+    private static void assertInvalid(String key, String value) {
+        Properties properties = new Properties();
+        properties.setProperty(key, value);
+        try {
+            new CallCenterConfig(properties);
+            fail("Invalid value of " + key + " accepted: " + value);
+        } catch (IllegalArgumentException e) {
+            logger.info("******Rejected: {}", e.getMessage());
+        }
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
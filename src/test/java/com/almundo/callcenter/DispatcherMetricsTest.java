@@ -0,0 +1,155 @@
+package com.almundo.callcenter;
+
+import com.almundo.callcenter.clock.SimulatedCallClock;
+import com.almundo.callcenter.metrics.LatencyHistogram;
+import com.almundo.callcenter.metrics.MetricsSnapshot;
+import com.almundo.callcenter.metrics.TrafficEstimator;
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.Dispatcher;
+import com.almundo.callcenter.util.Constants;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DispatcherMetricsTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(DispatcherMetricsTest.class);
+
+    /**
+     * Percentiles of the histogram should be within the precision of its buckets
+     */
+    @Test
+    public void histogramPercentilesShouldBeAccurate() {
+        logger.info("##########Testing histogramPercentilesShouldBeAccurate");
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        //Record the values from 1 to 100 milliseconds
+        IntStream.rangeClosed(1, 100).forEach(i -> histogram.record(TimeUnit.MILLISECONDS.toNanos(i)));
+
+        assertEquals("Count", 100, histogram.getCount());
+        assertEquals("Max", TimeUnit.MILLISECONDS.toNanos(100), histogram.getMax());
+        assertEquals("Median", TimeUnit.MILLISECONDS.toNanos(50), histogram.getValueAtPercentile(50), TimeUnit.MILLISECONDS.toNanos(50) * 0.04);
+        assertEquals("p99", TimeUnit.MILLISECONDS.toNanos(99), histogram.getValueAtPercentile(99), TimeUnit.MILLISECONDS.toNanos(99) * 0.04);
+        assertEquals("Mean", TimeUnit.MICROSECONDS.toNanos(50500), histogram.getMean(), 1);
+    }
+
+    /**
+     * Process three calls of five seconds with one Operator and one Supervisor
+     * The third call waits five seconds and the Supervisor answers one call, which is counted as an escalation
+     */
+    @Test
+    public void snapshotShouldReflectProcessedCalls() throws Exception {
+        logger.info("##########Testing snapshotShouldReflectProcessedCalls");
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        Dispatcher dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        List<Employee> employees = new ArrayList<>();
+        employees.add(new Employee("0Op", EmployeeType.OPERADOR));
+        employees.add(new Employee("0Sp", EmployeeType.SUPERVISOR));
+        dispatcher.setEmployees(employees);
+        dispatcher.setCallDurations(() -> 5);
+
+        IntStream.range(0, 3).forEach(i -> dispatcher.dispatchCall(String.valueOf(i)));
+        MetricsSnapshot snapshot = dispatcher.getMetricsSnapshot();
+        assertEquals("Queue depth", 1, snapshot.getQueueDepth());
+        assertEquals("Operator utilization", 1.0, snapshot.getEmployeeType(EmployeeType.OPERADOR).getUtilization(), 0);
+        assertEquals("Escalations", 1, snapshot.getEscalations());
+
+        dispatcher.getMetrics().register("metrics-test");
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        snapshot = dispatcher.getMetricsSnapshot();
+        logger.info("******Metrics: {}", snapshot);
+        assertEquals("Calls processed", 3, snapshot.getCallsAnswered());
+        assertEquals("Max queue wait", TimeUnit.SECONDS.toNanos(5), snapshot.getQueueWait().getMax());
+        assertEquals("Median handle time", TimeUnit.SECONDS.toNanos(5), snapshot.getHandleTime().getP50(), TimeUnit.SECONDS.toNanos(5) * 0.04);
+        assertEquals("Operator utilization", 0.0, snapshot.getEmployeeType(EmployeeType.OPERADOR).getUtilization(), 0);
+
+        //The same metrics should be available through JMX
+        ObjectName name = new ObjectName("com.almundo.callcenter:type=Dispatcher,name=\"metrics-test\"");
+        assertEquals("JMX calls processed", 3L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "CallsAnswered"));
+        dispatcher.getMetrics().unregister();
+    }
+
+    /**
+     * A call should be counted in the type its employee had when it was assigned, also when the type of the employee changes before the call ends
+     */
+    @Test
+    public void typeChangeShouldKeepBusyCounts() {
+        logger.info("##########Testing typeChangeShouldKeepBusyCounts");
+
+        Dispatcher dispatcher = new Dispatcher(DispatchMode.EVENT, new SimulatedCallClock());
+        Employee operator = new Employee("0Op", EmployeeType.OPERADOR);
+        dispatcher.setEmployees(Collections.singletonList(operator));
+        dispatcher.setCallDurations(() -> 5);
+
+        dispatcher.dispatchCall("0");
+        assertEquals("Operators busy", 1, dispatcher.getMetricsSnapshot().getEmployeeType(EmployeeType.OPERADOR).getBusy());
+        dispatcher.changeEmployeeType(operator, EmployeeType.SUPERVISOR);
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        MetricsSnapshot snapshot = dispatcher.getMetricsSnapshot();
+        assertEquals("Operators busy", 0, snapshot.getEmployeeType(EmployeeType.OPERADOR).getBusy());
+        assertEquals("Supervisors busy", 0, snapshot.getEmployeeType(EmployeeType.SUPERVISOR).getBusy());
+        assertEquals("Operator calls", 1, snapshot.getEmployeeType(EmployeeType.OPERADOR).getCallsAssigned());
+    }
+
+    /**
+     * A call every second lasting four seconds is a load of four erlangs: with five employees Erlang C gives a wait probability of 0.554 an average wait of 2.22 seconds and six employees to answer 80% within a second,
+     * and the dispatcher with one Operator busy and one call waiting expects a new call to wait two handle times
+     */
+    @Test
+    public void trafficEstimatorShouldPredictWait() throws Exception {
+        logger.info("##########Testing trafficEstimatorShouldPredictWait");
+
+        assertEquals("Erlang C of two agents", 1.0 / 3, TrafficEstimator.erlangC(2, 1), 1e-9);
+        TrafficEstimator estimator = new TrafficEstimator(0.1, 4, TimeUnit.SECONDS);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        for (int i = 0; i <= 100; i++) {
+            estimator.callsArrived(1, i * second);
+            estimator.callFinished(4 * second);
+        }
+        long now = 100 * second;
+        assertEquals("Arrival rate", 1, estimator.getArrivalRate(now), 1e-9);
+        assertEquals("Offered load", 4, estimator.getOfferedLoad(now), 1e-9);
+        assertEquals("Erlang C of five agents", 0.554, TrafficEstimator.erlangC(5, 4), 0.001);
+        assertEquals("Expected wait", 2.22 * second, estimator.getExpectedWait(5, now), 0.01 * second);
+        assertEquals("Overloaded wait", Long.MAX_VALUE, estimator.getExpectedWait(4, now));
+        assertEquals("Agents for 80% in 20 seconds", 5, estimator.getRequiredAgents(0.8, 20, TimeUnit.SECONDS, now));
+        assertEquals("Agents for 80% in 1 second", 6, estimator.getRequiredAgents(0.8, 1, TimeUnit.SECONDS, now));
+        //A burst of ten calls in a second pushes the rate up and a long silence brings it down
+        estimator.callsArrived(10, now + second);
+        assertTrue("Burst rate", estimator.getArrivalRate(now + second) > 2);
+        assertEquals("Rate after a silence", 0.01, estimator.getArrivalRate(now + 101 * second), 1e-9);
+
+        SimulatedCallClock clock = new SimulatedCallClock();
+        Dispatcher dispatcher = new Dispatcher(DispatchMode.EVENT, clock);
+        dispatcher.setEmployees(Collections.singletonList(new Employee("0Op", EmployeeType.OPERADOR)));
+        dispatcher.setCallDurations(() -> 5);
+        assertEquals("Wait with an idle employee", 0, dispatcher.getExpectedWait());
+        dispatcher.dispatchCall("0");
+        dispatcher.dispatchCall("1");
+        //No call ended yet, the handle time is still the assumed one
+        assertEquals("Wait behind a waiting call", 2 * dispatcher.getTrafficEstimator().getMeanHandleTime(), dispatcher.getExpectedWait(), 1);
+        double assumed = dispatcher.getTrafficEstimator().getMeanHandleTime();
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+        //Each call of five seconds moves the average a weight of the way towards it
+        double weight = Constants.TRAFFIC_ESTIMATOR_WEIGHT;
+        double expected = 5 * second + (assumed - 5 * second) * (1 - weight) * (1 - weight);
+        assertEquals("Measured handle time", expected, dispatcher.getTrafficEstimator().getMeanHandleTime(), 1);
+    }
+}
@@ -0,0 +1,136 @@
+package com.almundo.callcenter;
+
+import com.almundo.callcenter.clock.SimulatedCallClock;
+import com.almundo.callcenter.ingest.IngestionServer;
+import com.almundo.callcenter.ingest.MessageFraming;
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.DispatchResult;
+import com.almundo.callcenter.process.Dispatcher;
+import com.almundo.callcenter.process.OverflowPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class IngestionServerTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionServerTest.class);
+
+    private Dispatcher dispatcher;
+    private IngestionServer server;
+
+    /**
+     * Dispatcher with a single operator whose calls never end, so the first call is accepted and the rest are queued
+     */
+    @Before
+    public void initializeValues() {
+        dispatcher = new Dispatcher(DispatchMode.EVENT, new SimulatedCallClock());
+        dispatcher.setEmployees(Collections.singletonList(new Employee("0Op", EmployeeType.OPERADOR)));
+        dispatcher.setCallDurations(() -> 5);
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+        dispatcher.stopExecutor();
+        dispatcher.waitForTermination();
+    }
+
+    /**
+     * Each line should be acknowledged with the call id and the result of dispatching it, invalid lines are rejected
+     */
+    @Test
+    public void linesShouldBeAcknowledged() throws IOException {
+        logger.info("##########Testing linesShouldBeAcknowledged");
+
+        dispatcher.setQueueCapacity(1);
+        server = new IngestionServer(dispatcher, 0, MessageFraming.NEWLINE);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.getOutputStream().write("a\r\nb,5\n\nc,x\nd\n".getBytes(StandardCharsets.US_ASCII));
+            BufferedReader acks = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            assertEquals("First call", "a ACCEPTED", acks.readLine());
+            assertEquals("Second call", "b QUEUED", acks.readLine());
+            assertEquals("Invalid priority", "c REJECTED", acks.readLine());
+            assertEquals("Queue full", "d REJECTED", acks.readLine());
+        }
+        assertEquals("Calls received", 3, server.getCallsReceived());
+        assertEquals("Calls rejected", 1, server.getCallsRejected());
+        assertEquals("Invalid messages", 1, server.getInvalidMessages());
+    }
+
+    /**
+     * With the BLOCK overflow policy the calls that don't fit in the queue should be rejected instead of blocking the IO thread shared by all the connections
+     */
+    @Test
+    public void blockPolicyShouldNotStallTheServer() throws IOException {
+        logger.info("##########Testing blockPolicyShouldNotStallTheServer");
+
+        dispatcher.setQueueCapacity(1);
+        dispatcher.setOverflowPolicy(OverflowPolicy.BLOCK, 1, TimeUnit.HOURS);
+        server = new IngestionServer(dispatcher, 0, MessageFraming.NEWLINE);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.setSoTimeout(10_000);
+            socket.getOutputStream().write("a\nb\nc\n".getBytes(StandardCharsets.US_ASCII));
+            BufferedReader acks = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            assertEquals("First call", "a ACCEPTED", acks.readLine());
+            assertEquals("Second call", "b QUEUED", acks.readLine());
+            assertEquals("Queue full", "c REJECTED", acks.readLine());
+        }
+        assertEquals("Calls rejected", 1, server.getCallsRejected());
+    }
+
+    /**
+     * Length prefixed messages should be acknowledged with a byte per message, also when the client sends more messages than fit in the buffers
+     */
+    @Test
+    public void framesShouldBeAcknowledgedInOrder() throws Exception {
+        logger.info("##########Testing framesShouldBeAcknowledgedInOrder");
+
+        int calls = 20_000;
+        server = new IngestionServer(dispatcher, 0, MessageFraming.LENGTH_PREFIXED);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            Thread writer = new Thread(() -> {
+                try {
+                    OutputStream output = socket.getOutputStream();
+                    DataOutputStream frames = new DataOutputStream(new BufferedOutputStream(output));
+                    for (int i = 0; i < calls; i++) {
+                        byte[] callId = Integer.toString(i).getBytes(StandardCharsets.US_ASCII);
+                        frames.writeInt(4 + callId.length);
+                        frames.writeInt(0);
+                        frames.write(callId);
+                    }
+                    frames.flush();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            writer.start();
+            DataInputStream acks = new DataInputStream(socket.getInputStream());
+            assertEquals("First call", DispatchResult.ACCEPTED.ordinal(), acks.readByte());
+            for (int i = 1; i < calls; i++) {
+                assertEquals("Call " + i, DispatchResult.QUEUED.ordinal(), acks.readByte());
+            }
+            writer.join();
+        }
+        assertEquals("Calls received", calls, server.getCallsReceived());
+        assertEquals("Calls waiting", calls - 1, dispatcher.getQueueDepth());
+    }
+}
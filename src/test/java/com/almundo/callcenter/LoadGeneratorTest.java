@@ -0,0 +1,94 @@
+package com.almundo.callcenter;
+
+import com.almundo.callcenter.clock.SimulatedCallClock;
+import com.almundo.callcenter.loadgen.ArrivalProcess;
+import com.almundo.callcenter.loadgen.CallTrace;
+import com.almundo.callcenter.loadgen.DurationDistribution;
+import com.almundo.callcenter.loadgen.LoadGenerator;
+import com.almundo.callcenter.loadgen.LoadReport;
+import com.almundo.callcenter.loadgen.TraceCall;
+import com.almundo.callcenter.model.Employee;
+import com.almundo.callcenter.model.EmployeeType;
+import com.almundo.callcenter.model.SkillSet;
+import com.almundo.callcenter.process.DispatchMode;
+import com.almundo.callcenter.process.Dispatcher;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class LoadGeneratorTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadGeneratorTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A generated Poisson load should have the requested rate and the requested mean duration
+     */
+    @Test
+    public void generatedLoadShouldHaveTheRequestedRateAndDuration() {
+        logger.info("##########Testing generatedLoadShouldHaveTheRequestedRateAndDuration");
+
+        CallTrace trace = CallTrace.generate(ArrivalProcess.poisson(2), DurationDistribution.exponential(60), 10_000, TimeUnit.SECONDS, 42);
+
+        assertEquals("Calls generated", 20_000, trace.size(), 600);
+        double meanDuration = trace.getCalls().stream().mapToInt(TraceCall::getDuration).average().orElse(0);
+        assertEquals("Mean duration", 60, meanDuration, 2);
+    }
+
+    /**
+     * A trace written to a file should be read back with the same calls
+     */
+    @Test
+    public void traceShouldSurviveBeingSavedAndRead() throws IOException {
+        logger.info("##########Testing traceShouldSurviveBeingSavedAndRead");
+
+        CallTrace trace = new CallTrace(Arrays.asList(
+                new TraceCall(0, "first", 0, SkillSet.NONE, 5),
+                new TraceCall(1_500_000_001L, "second", 3, SkillSet.of(1, 4), 7),
+                new TraceCall(3_600_000_000_000L, "third", 1, SkillSet.of(2), 0)));
+        Path file = folder.getRoot().toPath().resolve("calls.csv");
+        trace.write(file);
+
+        assertEquals("Calls read", trace.getCalls(), CallTrace.read(file).getCalls());
+    }
+
+    /**
+     * Replaying a small trace on a simulated clock should report exactly the answered calls, the waits and the utilization of the load
+     */
+    @Test
+    public void replayShouldReportTheResultsOfTheLoad() {
+        logger.info("##########Testing replayShouldReportTheResultsOfTheLoad");
+
+        //A single operator gets three calls of two seconds one second apart, so the second and third calls wait one and two seconds
+        Dispatcher dispatcher = new Dispatcher(DispatchMode.EVENT, new SimulatedCallClock());
+        dispatcher.setEmployees(Collections.singletonList(new Employee("0Op", EmployeeType.OPERADOR)));
+        dispatcher.setSemaphoreCount(1);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        CallTrace trace = new CallTrace(Arrays.asList(
+                new TraceCall(0, "0", 0, SkillSet.NONE, 2),
+                new TraceCall(second, "1", 0, SkillSet.NONE, 2),
+                new TraceCall(2 * second, "2", 0, SkillSet.NONE, 2)));
+
+        LoadReport report = new LoadGenerator(dispatcher).run(trace);
+
+        assertEquals("Calls answered", 3, report.getCallsAnswered());
+        assertEquals("Calls lost", 0, report.getCallsLost());
+        assertEquals("Elapsed", 6 * second, report.getElapsed());
+        assertEquals("Throughput", 0.5, report.getThroughput(), 1e-9);
+        assertEquals("Calls waiting", 3, report.getQueueWait().getCount());
+        assertEquals("Max wait", 2 * second, report.getQueueWait().getMax(), second / 100);
+        assertEquals("Operator utilization", 1.0, report.getUtilization(EmployeeType.OPERADOR), 1e-9);
+    }
+}